@@ -0,0 +1,484 @@
+package io.github.flef.webble;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Streams the records of a batch input file, one at a time, so that inputs of any size can be rendered.
+ * <p>
+ * Two formats are read, chosen by the file extension:
+ * <ul>
+ * <li><code>.csv</code>: a header line naming the fields, then one record per line. Quoted values may hold commas,
+ * doubled quotes and line breaks. Values are strings.</li>
+ * <li>any other extension: JSON Lines, one JSON object per line. Blank lines are skipped. Values are strings, numbers
+ * ({@link Long} or {@link BigDecimal}), booleans, null, lists and maps.</li>
+ * </ul>
+ */
+abstract class BatchInput implements AutoCloseable
+{
+    /** Extension of CSV inputs. */
+    private static final String CSV_EXTENSION = ".csv";
+    /** Byte order mark, as decoded. */
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    /** The input, read line by line. */
+    protected final BufferedReader reader;
+    /** The number of the line last read, from 1. */
+    protected long lineNumber;
+
+    private BatchInput(BufferedReader reader)
+    {
+        this.reader = reader;
+    }
+
+    /**
+     * Opens the given input file, reading records in the format of its extension.
+     * @param file the input file, encoded in UTF-8, with or without byte order mark.
+     * @return the input, to be closed.
+     * @throws IOException if the file cannot be opened or, for CSV files, has no header.
+     */
+    static BatchInput open(Path file) throws IOException
+    {
+        BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+        try
+        {
+            reader.mark(1);
+            if (reader.read() != BYTE_ORDER_MARK)
+            {
+                reader.reset();
+            }
+            if (file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(CSV_EXTENSION))
+            {
+                return new CsvInput(reader);
+            }
+            return new JsonLinesInput(reader);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            reader.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Parses a single JSON object, such as the context of a render request.
+     * @param json the JSON object, possibly spanning several lines.
+     * @return the object fields by name, in input order.
+     * @throws IOException if the JSON object is malformed.
+     */
+    static Map<String, Object> parseObject(String json) throws IOException
+    {
+        // line breaks are whitespaces between JSON tokens, escaped in strings: the object is read as a JSON line
+        try (BatchInput input = new JsonLinesInput(
+                new BufferedReader(new StringReader(json.replace('\r', ' ').replace('\n', ' ')))))
+        {
+            Map<String, Object> object = input.next();
+            if (object == null)
+            {
+                throw new IOException("Empty JSON input, a JSON object expected.");
+            }
+            return object;
+        }
+    }
+
+    /**
+     * Reads the next record.
+     * @return the record fields by name, in input order, or null at the end of the input.
+     * @throws IOException if the input cannot be read or the record is malformed.
+     */
+    abstract Map<String, Object> next() throws IOException;
+
+    /**
+     * Returns the number of the line the last record starts at, from 1.
+     * @return the line number of the last record.
+     */
+    abstract long getRecordLine();
+
+    @Override
+    public void close() throws IOException
+    {
+        reader.close();
+    }
+
+    /** Reads JSON Lines records. */
+    private static final class JsonLinesInput extends BatchInput
+    {
+        private String line;
+        private int pos;
+
+        JsonLinesInput(BufferedReader reader)
+        {
+            super(reader);
+        }
+
+        @Override
+        Map<String, Object> next() throws IOException
+        {
+            do
+            {
+                line = reader.readLine();
+                if (line == null)
+                {
+                    return null;
+                }
+                lineNumber++;
+                pos = 0;
+                skipWhitespace();
+            }
+            while (pos == line.length());
+
+            if (line.charAt(pos) != '{')
+            {
+                throw error("a JSON object");
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> record = (Map<String, Object>) value();
+            skipWhitespace();
+            if (pos != line.length())
+            {
+                throw error("the end of the line");
+            }
+            return record;
+        }
+
+        @Override
+        long getRecordLine()
+        {
+            return lineNumber;
+        }
+
+        private Object value() throws IOException
+        {
+            skipWhitespace();
+            if (pos == line.length())
+            {
+                throw error("a value");
+            }
+            char c = line.charAt(pos);
+            switch (c)
+            {
+                case '{':
+                    return object();
+                case '[':
+                    return array();
+                case '"':
+                    return string();
+                case 't':
+                    return literal("true", Boolean.TRUE);
+                case 'f':
+                    return literal("false", Boolean.FALSE);
+                case 'n':
+                    return literal("null", null);
+                default:
+                    if (c == '-' || (c >= '0' && c <= '9'))
+                    {
+                        return number();
+                    }
+                    throw error("a value");
+            }
+        }
+
+        private Map<String, Object> object() throws IOException
+        {
+            Map<String, Object> object = new LinkedHashMap<>();
+            pos++;
+            skipWhitespace();
+            if (consume('}'))
+            {
+                return object;
+            }
+            do
+            {
+                skipWhitespace();
+                if (pos == line.length() || line.charAt(pos) != '"')
+                {
+                    throw error("a field name");
+                }
+                String name = string();
+                skipWhitespace();
+                if (!consume(':'))
+                {
+                    throw error("':'");
+                }
+                object.put(name, value());
+                skipWhitespace();
+            }
+            while (consume(','));
+            if (!consume('}'))
+            {
+                throw error("',' or '}'");
+            }
+            return object;
+        }
+
+        private List<Object> array() throws IOException
+        {
+            List<Object> array = new ArrayList<>();
+            pos++;
+            skipWhitespace();
+            if (consume(']'))
+            {
+                return array;
+            }
+            do
+            {
+                array.add(value());
+                skipWhitespace();
+            }
+            while (consume(','));
+            if (!consume(']'))
+            {
+                throw error("',' or ']'");
+            }
+            return array;
+        }
+
+        private String string() throws IOException
+        {
+            StringBuilder sb = new StringBuilder();
+            pos++;
+            while (pos < line.length())
+            {
+                char c = line.charAt(pos++);
+                if (c == '"')
+                {
+                    return sb.toString();
+                }
+                if (c != '\\')
+                {
+                    sb.append(c);
+                    continue;
+                }
+                if (pos == line.length())
+                {
+                    break;
+                }
+                char escaped = line.charAt(pos++);
+                switch (escaped)
+                {
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        if (pos + 4 > line.length())
+                        {
+                            throw error("an unicode escape");
+                        }
+                        try
+                        {
+                            sb.append((char) Integer.parseInt(line.substring(pos, pos + 4), 16));
+                        }
+                        catch (NumberFormatException e)
+                        {
+                            throw error("an unicode escape");
+                        }
+                        pos += 4;
+                        break;
+                    default:
+                        sb.append(escaped);
+                }
+            }
+            throw error("'\"'");
+        }
+
+        private Object number() throws IOException
+        {
+            int start = pos;
+            while (pos < line.length() && "+-0123456789.eE".indexOf(line.charAt(pos)) >= 0)
+            {
+                pos++;
+            }
+            String number = line.substring(start, pos);
+            try
+            {
+                BigDecimal value = new BigDecimal(number);
+                if (number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0
+                        && value.unscaledValue().bitLength() < 64)
+                {
+                    return value.longValue();
+                }
+                return value;
+            }
+            catch (NumberFormatException e)
+            {
+                pos = start;
+                throw error("a number");
+            }
+        }
+
+        private Object literal(String literal, Object value) throws IOException
+        {
+            if (!line.startsWith(literal, pos))
+            {
+                throw error("a value");
+            }
+            pos += literal.length();
+            return value;
+        }
+
+        private boolean consume(char c)
+        {
+            if (pos < line.length() && line.charAt(pos) == c)
+            {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void skipWhitespace()
+        {
+            while (pos < line.length() && Character.isWhitespace(line.charAt(pos)))
+            {
+                pos++;
+            }
+        }
+
+        private IOException error(String expected)
+        {
+            return new IOException("Malformed JSON at line " + lineNumber + ", column " + (pos + 1) + ": expected "
+                    + expected + ".");
+        }
+    }
+
+    /** Reads CSV records, named by the header line. */
+    private static final class CsvInput extends BatchInput
+    {
+        private final List<String> header;
+        private long recordLine;
+
+        CsvInput(BufferedReader reader) throws IOException
+        {
+            super(reader);
+            header = readFields();
+            if (header == null)
+            {
+                throw new IOException("CSV input has no header line.");
+            }
+        }
+
+        @Override
+        Map<String, Object> next() throws IOException
+        {
+            List<String> fields;
+            do
+            {
+                fields = readFields();
+                if (fields == null)
+                {
+                    return null;
+                }
+            }
+            while (fields.size() == 1 && fields.get(0).isEmpty());
+
+            if (fields.size() > header.size())
+            {
+                throw new IOException("CSV record at line " + recordLine + " has " + fields.size()
+                        + " fields, header has " + header.size() + ".");
+            }
+            Map<String, Object> record = new LinkedHashMap<>();
+            for (int i = 0; i < fields.size(); i++)
+            {
+                record.put(header.get(i), fields.get(i));
+            }
+            return record;
+        }
+
+        @Override
+        long getRecordLine()
+        {
+            return recordLine;
+        }
+
+        /** Reads the fields of the next record, possibly spanning several lines, or null at the end of input. */
+        private List<String> readFields() throws IOException
+        {
+            String line = reader.readLine();
+            if (line == null)
+            {
+                return null;
+            }
+            lineNumber++;
+            recordLine = lineNumber;
+
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            int i = 0;
+            while (true)
+            {
+                if (i == line.length())
+                {
+                    if (!quoted)
+                    {
+                        break;
+                    }
+                    line = reader.readLine();
+                    if (line == null)
+                    {
+                        throw new IOException("Unterminated quoted CSV value at line " + recordLine + ".");
+                    }
+                    lineNumber++;
+                    field.append('\n');
+                    i = 0;
+                    continue;
+                }
+
+                char c = line.charAt(i++);
+                if (quoted)
+                {
+                    if (c != '"')
+                    {
+                        field.append(c);
+                    }
+                    else if (i < line.length() && line.charAt(i) == '"')
+                    {
+                        field.append('"');
+                        i++;
+                    }
+                    else
+                    {
+                        quoted = false;
+                    }
+                }
+                else if (c == '"')
+                {
+                    quoted = true;
+                }
+                else if (c == ',')
+                {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                }
+                else
+                {
+                    field.append(c);
+                }
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+    }
+}
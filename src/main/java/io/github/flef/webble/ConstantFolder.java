@@ -0,0 +1,304 @@
+package io.github.flef.webble;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.mitchellbosecke.pebble.PebbleEngine;
+import com.mitchellbosecke.pebble.loader.StringLoader;
+
+/**
+ * Folds the conditionals of a prepared part whose conditions only depend on constant bindings: the branch taken is
+ * kept, the others are removed along with the <code>if</code>, <code>elseif</code>, <code>else</code> and
+ * <code>endif</code> tags.
+ * <p>
+ * Folding is conservative. A conditional is kept as is if its condition references a variable not bound as a
+ * constant, or a variable the part assigns (<code>for</code>, <code>set</code>), if it is inside a macro, or if its
+ * tags control whitespaces. Parts with <code>verbatim</code> blocks are not folded.
+ */
+class ConstantFolder
+{
+    /** A statement tag, with its name and its arguments. */
+    private static final Pattern STATEMENT = Pattern.compile("\\{%(-?)\\s*(\\w+)(.*?)(-?)%\\}", Pattern.DOTALL);
+    /** Variables assigned by the part, shadowing constants. */
+    private static final Pattern ASSIGNMENT = Pattern
+            .compile("\\{%-?\\s*(?:for\\s+(\\w+)(?:\\s*,\\s*(\\w+))?\\s+in\\b|set\\s+(\\w+))");
+    /** Identifiers and string literals of an expression. */
+    private static final Pattern TOKEN = Pattern
+            .compile("'(?:[^'\\\\]|\\\\.)*'|\"(?:[^\"\\\\]|\\\\.)*\"|[A-Za-z_]\\w*");
+    /** The end of an expression followed by a test name. */
+    private static final Pattern TEST = Pattern.compile("\\bis(\\s+not)?$");
+    /** Operators, literals and tests, which are not variables. */
+    private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList("and", "or", "not", "is", "in", "true",
+            "false", "null", "none", "equals", "contains", "matches", "starts", "ends", "with", "defined", "empty",
+            "even", "odd", "iterable", "map"));
+    /** Variables never constant. */
+    private static final Set<String> RESERVED = new HashSet<>(Arrays.asList("loop", "_context"));
+
+    private static final PebbleEngine ENGINE = new PebbleEngine.Builder().loader(new StringLoader())
+            .strictVariables(true).autoEscaping(false).cacheActive(false).build();
+
+    /** Util class. */
+    private ConstantFolder()
+    {
+
+    }
+
+    /**
+     * Folds the conditionals of the given prepared part resolved by the given constants.
+     * @param xmlContent the prepared part content.
+     * @param constants the constant bindings.
+     * @return the folded part content, or the given content if no conditional is resolved.
+     */
+    static String fold(String xmlContent, Map<String, Object> constants)
+    {
+        if (xmlContent.contains("verbatim"))
+        {
+            return xmlContent;
+        }
+
+        Set<String> assigned = new HashSet<>(RESERVED);
+        Matcher assignment = ASSIGNMENT.matcher(xmlContent);
+        while (assignment.find())
+        {
+            for (int g = 1; g <= assignment.groupCount(); g++)
+            {
+                if (assignment.group(g) != null)
+                {
+                    assigned.add(assignment.group(g));
+                }
+            }
+        }
+
+        List<Tag> tags = new ArrayList<>();
+        Matcher statement = STATEMENT.matcher(xmlContent);
+        while (statement.find())
+        {
+            tags.add(new Tag(statement));
+        }
+
+        return new Folding(xmlContent, tags, constants, assigned).fold(0, tags.size(), 0, xmlContent.length());
+    }
+
+    /** A statement tag of the part. */
+    private static final class Tag
+    {
+        private final String name;
+        private final String arguments;
+        private final boolean trims;
+        private final int start;
+        private final int end;
+
+        Tag(Matcher m)
+        {
+            this.name = m.group(2);
+            this.arguments = m.group(3).trim();
+            this.trims = !m.group(1).isEmpty() || !m.group(4).isEmpty();
+            this.start = m.start();
+            this.end = m.end();
+        }
+    }
+
+    /** The folding of a part. */
+    private static final class Folding
+    {
+        private final String content;
+        private final List<Tag> tags;
+        private final Map<String, Object> constants;
+        private final Set<String> assigned;
+
+        Folding(String content, List<Tag> tags, Map<String, Object> constants, Set<String> assigned)
+        {
+            this.content = content;
+            this.tags = tags;
+            this.constants = constants;
+            this.assigned = assigned;
+        }
+
+        /** Folds the content between the given offsets, holding the tags between the given indexes. */
+        String fold(int fromTag, int toTag, int from, int to)
+        {
+            StringBuilder sb = new StringBuilder(to - from);
+            int pos = from;
+            int i = fromTag;
+            while (i < toTag)
+            {
+                Tag tag = tags.get(i);
+                if (tag.name.equals("macro"))
+                {
+                    int end = matching(i, toTag, "macro", "endmacro");
+                    if (end < 0)
+                    {
+                        return content.substring(from, to); // malformed, left to Pebble to report
+                    }
+                    i = end + 1;
+                    continue; // copied as is, macros do not see constants
+                }
+                if (!tag.name.equals("if"))
+                {
+                    i++;
+                    continue;
+                }
+
+                int end = matching(i, toTag, "if", "endif");
+                if (end < 0)
+                {
+                    return content.substring(from, to);
+                }
+                sb.append(content, pos, tag.start);
+                sb.append(foldConditional(i, end));
+                pos = tags.get(end).end;
+                i = end + 1;
+            }
+            sb.append(content, pos, to);
+            return sb.toString();
+        }
+
+        /** Folds the conditional between the given if and endif tags. */
+        private String foldConditional(int ifTag, int endifTag)
+        {
+            // branches: the if, elseif and else tags at depth 0
+            List<Integer> branches = new ArrayList<>();
+            branches.add(ifTag);
+            int depth = 0;
+            boolean trims = tags.get(ifTag).trims || tags.get(endifTag).trims;
+            for (int i = ifTag + 1; i < endifTag; i++)
+            {
+                String name = tags.get(i).name;
+                if (name.equals("if"))
+                {
+                    depth++;
+                }
+                else if (name.equals("endif"))
+                {
+                    depth--;
+                }
+                else if (depth == 0 && (name.equals("elseif") || name.equals("else")))
+                {
+                    branches.add(i);
+                    trims |= tags.get(i).trims;
+                }
+            }
+            branches.add(endifTag);
+
+            StringBuilder kept = new StringBuilder();
+            for (int b = 0; b < branches.size() - 1; b++)
+            {
+                Tag tag = tags.get(branches.get(b));
+                int next = branches.get(b + 1);
+                String body = fold(branches.get(b) + 1, next, tag.end, tags.get(next).start);
+
+                if (tag.name.equals("else"))
+                {
+                    if (kept.length() == 0)
+                    {
+                        return body;
+                    }
+                    kept.append(content, tag.start, tag.end).append(body);
+                    continue;
+                }
+
+                Boolean value = kept.length() > 0 || trims ? null : evaluate(tag.arguments);
+                if (value == null)
+                {
+                    // the first branch kept opens the conditional
+                    kept.append(kept.length() == 0 && !tag.name.equals("if") ? "{% if " + tag.arguments + " %}"
+                            : content.substring(tag.start, tag.end));
+                    kept.append(body);
+                }
+                else if (value)
+                {
+                    return body;
+                }
+                // else: dead branch, removed
+            }
+
+            if (kept.length() == 0)
+            {
+                return ""; // all branches dead, no else
+            }
+            return kept.append(content, tags.get(endifTag).start, tags.get(endifTag).end).toString();
+        }
+
+        /** Returns the index of the tag closing the given one, or -1. */
+        private int matching(int open, int toTag, String openName, String closeName)
+        {
+            int depth = 0;
+            for (int i = open; i < toTag; i++)
+            {
+                String name = tags.get(i).name;
+                if (name.equals(openName))
+                {
+                    depth++;
+                }
+                else if (name.equals(closeName) && --depth == 0)
+                {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /** Evaluates the given condition, or returns null if it does not only depend on constants. */
+        private Boolean evaluate(String condition)
+        {
+            Matcher token = TOKEN.matcher(condition);
+            while (token.find())
+            {
+                String name = token.group();
+                char first = name.charAt(0);
+                if (first == '\'' || first == '"' || KEYWORDS.contains(name) || isAttributeOrCall(condition, token))
+                {
+                    continue;
+                }
+                if (assigned.contains(name) || !constants.containsKey(name))
+                {
+                    return null;
+                }
+            }
+
+            try
+            {
+                StringWriter writer = new StringWriter();
+                ENGINE.getTemplate("{% if " + condition + " %}T{% else %}F{% endif %}").evaluate(writer, constants);
+                return writer.toString().equals("T");
+            }
+            catch (IOException | RuntimeException e)
+            {
+                return null;
+            }
+        }
+
+        /** Returns true if the given identifier is an attribute, a filter, a test or a function: not a variable. */
+        private static boolean isAttributeOrCall(String condition, Matcher token)
+        {
+            int before = token.start() - 1;
+            while (before >= 0 && Character.isWhitespace(condition.charAt(before)))
+            {
+                before--;
+            }
+            if (before >= 0 && (condition.charAt(before) == '.' || condition.charAt(before) == '|'))
+            {
+                return true;
+            }
+            if (TEST.matcher(condition).region(0, before + 1).find())
+            {
+                return true;
+            }
+
+            int after = token.end();
+            while (after < condition.length() && Character.isWhitespace(condition.charAt(after)))
+            {
+                after++;
+            }
+            return after < condition.length() && condition.charAt(after) == '(';
+        }
+    }
+}
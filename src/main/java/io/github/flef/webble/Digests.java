@@ -0,0 +1,55 @@
+package io.github.flef.webble;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/** SHA-256 digests, used to address images, templates and rendered documents by content. */
+class Digests
+{
+    /** Util class. */
+    private Digests()
+    {
+
+    }
+
+    /**
+     * Returns a new SHA-256 {@link MessageDigest}.
+     * @return a new SHA-256 {@link MessageDigest}.
+     */
+    static MessageDigest sha256()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+
+    /**
+     * Returns the SHA-256 of the given content, as hexadecimal.
+     * @param content the content to digest.
+     * @return the SHA-256 of the given content, as hexadecimal.
+     */
+    static String sha256(byte[] content)
+    {
+        return toHex(sha256().digest(content));
+    }
+
+    /**
+     * Returns the given digest as hexadecimal.
+     * @param digest the digest.
+     * @return the given digest as hexadecimal.
+     */
+    static String toHex(byte[] digest)
+    {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest)
+        {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
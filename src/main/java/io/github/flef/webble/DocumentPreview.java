@@ -0,0 +1,297 @@
+package io.github.flef.webble;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Projects a rendered main document part to a preview, in a single streamed pass: paragraphs, runs and tables, as
+ * plain text or simple HTML. Everything else (styles, fields, deleted text, alternate content) is skipped, images are
+ * replaced by a placeholder.
+ */
+class DocumentPreview
+{
+    private static final String NS_W = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+    private static final String NS_MC = "http://schemas.openxmlformats.org/markup-compatibility/2006";
+    private static final String IMAGE = "[image]";
+
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+    static
+    {
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private final boolean html;
+    private final StringBuilder preview = new StringBuilder();
+    /** Text of the current run, written once its properties known. */
+    private final StringBuilder run = new StringBuilder();
+    private boolean bold;
+    private boolean italic;
+    /** Depth of tables, 0 outside. */
+    private int tables;
+    /** True until the first paragraph of the current cell, or the first cell of the current row. */
+    private boolean firstInCell;
+    private boolean firstInRow;
+
+    private DocumentPreview(boolean html)
+    {
+        this.html = html;
+    }
+
+    /**
+     * Projects the given rendered main document part to a preview.
+     * @param xmlContent the rendered main document part.
+     * @param format the format of the preview.
+     * @return the preview.
+     * @throws IOException if the part is not well formed.
+     */
+    static String project(String xmlContent, WebblePreviewFormat format) throws IOException
+    {
+        try
+        {
+            XMLStreamReader reader = FACTORY.createXMLStreamReader(new StringReader(xmlContent));
+            try
+            {
+                DocumentPreview preview = new DocumentPreview(format == WebblePreviewFormat.HTML);
+                preview.read(reader);
+                return preview.preview.toString();
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch (XMLStreamException e)
+        {
+            throw new IOException("Cannot preview the rendered document: " + e.getMessage(), e);
+        }
+    }
+
+    private void read(XMLStreamReader reader) throws XMLStreamException
+    {
+        boolean inText = false;
+        while (reader.hasNext())
+        {
+            switch (reader.next())
+            {
+                case XMLStreamConstants.START_ELEMENT:
+                    if (NS_MC.equals(reader.getNamespaceURI()) && reader.getLocalName().equals("Fallback"))
+                    {
+                        skip(reader); // the choice is previewed
+                    }
+                    else if (NS_W.equals(reader.getNamespaceURI()))
+                    {
+                        inText = start(reader);
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    inText = false;
+                    if (NS_W.equals(reader.getNamespaceURI()))
+                    {
+                        end(reader.getLocalName());
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                    if (inText)
+                    {
+                        run.append(reader.getText());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /** Opens the given WordprocessingML element, returns true if its characters are text. */
+    private boolean start(XMLStreamReader reader)
+    {
+        switch (reader.getLocalName())
+        {
+            case "t":
+                return true;
+            case "p":
+                if (tables > 0)
+                {
+                    if (!firstInCell)
+                    {
+                        preview.append(html ? "<br/>" : " ");
+                    }
+                    firstInCell = false;
+                }
+                else if (html)
+                {
+                    preview.append("<p>");
+                }
+                break;
+            case "r":
+                bold = false;
+                italic = false;
+                break;
+            case "b":
+                bold = isOn(reader);
+                break;
+            case "i":
+                italic = isOn(reader);
+                break;
+            case "tab":
+                run.append('\t');
+                break;
+            case "br":
+            case "cr":
+                flushRun();
+                preview.append(html ? "<br/>" : "\n");
+                break;
+            case "drawing":
+            case "pict":
+                run.append(IMAGE);
+                break;
+            case "tbl":
+                tables++;
+                if (html)
+                {
+                    preview.append("<table>");
+                }
+                break;
+            case "tr":
+                firstInRow = true;
+                if (html)
+                {
+                    preview.append("<tr>");
+                }
+                break;
+            case "tc":
+                if (html)
+                {
+                    preview.append("<td>");
+                }
+                else if (!firstInRow)
+                {
+                    preview.append('\t');
+                }
+                firstInRow = false;
+                firstInCell = true;
+                break;
+            default:
+                break;
+        }
+        return false;
+    }
+
+    /** Closes the given WordprocessingML element. */
+    private void end(String name)
+    {
+        switch (name)
+        {
+            case "r":
+                flushRun();
+                break;
+            case "p":
+                flushRun();
+                if (tables == 0)
+                {
+                    preview.append(html ? "</p>\n" : "\n");
+                }
+                break;
+            case "tc":
+                if (html)
+                {
+                    preview.append("</td>");
+                }
+                break;
+            case "tr":
+                preview.append(html ? "</tr>\n" : "\n");
+                break;
+            case "tbl":
+                tables--;
+                if (html)
+                {
+                    preview.append("</table>\n");
+                }
+                else if (tables > 0)
+                {
+                    preview.append(' '); // nested table, in a cell
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /** Writes the text of the current run, in bold and italic tags in HTML. */
+    private void flushRun()
+    {
+        if (run.length() == 0)
+        {
+            return;
+        }
+        if (!html)
+        {
+            preview.append(run);
+        }
+        else
+        {
+            preview.append(bold ? "<b>" : "").append(italic ? "<i>" : "");
+            escape(run);
+            preview.append(italic ? "</i>" : "").append(bold ? "</b>" : "");
+        }
+        run.setLength(0);
+    }
+
+    private void escape(CharSequence text)
+    {
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            switch (c)
+            {
+                case '<':
+                    preview.append("&lt;");
+                    break;
+                case '>':
+                    preview.append("&gt;");
+                    break;
+                case '&':
+                    preview.append("&amp;");
+                    break;
+                case '"':
+                    preview.append("&quot;");
+                    break;
+                default:
+                    preview.append(c);
+            }
+        }
+    }
+
+    /** Returns true if the given toggle property (w:b, w:i) is on. */
+    private static boolean isOn(XMLStreamReader reader)
+    {
+        String value = reader.getAttributeValue(NS_W, "val");
+        return value == null || !(value.equals("0") || value.equals("false") || value.equals("off"));
+    }
+
+    /** Skips the current element and its content. */
+    private static void skip(XMLStreamReader reader) throws XMLStreamException
+    {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext())
+        {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT)
+            {
+                depth++;
+            }
+            else if (event == XMLStreamConstants.END_ELEMENT)
+            {
+                depth--;
+            }
+        }
+    }
+}
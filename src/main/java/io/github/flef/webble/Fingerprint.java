@@ -0,0 +1,177 @@
+package io.github.flef.webble;
+
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stable digest of bound values, equal for equal values whatever the JVM or the instances.
+ * <p>
+ * Only values whose content is known to be stable can be digested: strings, numbers, booleans, characters, enums,
+ * dates, temporals, {@link WebbleImage}s, and arrays, collections and maps of those. Any other value, such as a bean
+ * rendered through its getters, makes the digest unavailable.
+ * <p>
+ * Collections and maps are digested in iteration order, the order in which a template loops over them: only a plain
+ * {@link HashMap} or {@link HashSet}, whose order is not chosen by the caller, is digested whatever its order.
+ */
+class Fingerprint
+{
+    /** Separates the digested tokens. */
+    private static final byte SEPARATOR = 0;
+
+    private final MessageDigest digest = Digests.sha256();
+    private final Set<Object> visiting = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * Adds a token to the digest.
+     * @param token the token.
+     * @return this {@link Fingerprint}.
+     */
+    Fingerprint add(String token)
+    {
+        digest.update(token.getBytes(StandardCharsets.UTF_8));
+        digest.update(SEPARATOR);
+        return this;
+    }
+
+    /**
+     * Adds a value to the digest.
+     * @param value the value.
+     * @return true if the value has been digested, false if the value is not stable.
+     */
+    boolean addValue(Object value)
+    {
+        if (value == null)
+        {
+            add("null");
+            return true;
+        }
+        if (value instanceof String || value instanceof Boolean || value instanceof Character
+                || value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte || value instanceof Double || value instanceof Float
+                || value instanceof BigInteger || value instanceof BigDecimal)
+        {
+            add(value.getClass().getSimpleName()).add(value.toString());
+            return true;
+        }
+        if (value instanceof Enum)
+        {
+            add(((Enum<?>) value).getDeclaringClass().getName()).add(((Enum<?>) value).name());
+            return true;
+        }
+        if (value instanceof Date)
+        {
+            add("Date").add(Long.toString(((Date) value).getTime()));
+            return true;
+        }
+        if (value instanceof TemporalAccessor)
+        {
+            add(value.getClass().getName()).add(value.toString());
+            return true;
+        }
+        if (value instanceof WebbleImage)
+        {
+            add("WebbleImage").add(((WebbleImage) value).getKey());
+            return true;
+        }
+
+        if (!visiting.add(value))
+        {
+            return false; // cyclic
+        }
+        try
+        {
+            if (value.getClass().isArray())
+            {
+                int length = Array.getLength(value);
+                add("Array").add(Integer.toString(length));
+                for (int i = 0; i < length; i++)
+                {
+                    if (!addValue(Array.get(value, i)))
+                    {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            if (value instanceof Collection)
+            {
+                Collection<?> values = (Collection<?>) value;
+                return value.getClass() == HashSet.class ? addUnordered("Set", values)
+                        : addOrdered("Collection", values);
+            }
+            if (value instanceof Map)
+            {
+                List<Object> entries = new ArrayList<>();
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet())
+                {
+                    entries.add(new Object[] { entry.getKey(), entry.getValue() });
+                }
+                return value.getClass() == HashMap.class ? addUnordered("Map", entries)
+                        : addOrdered("OrderedMap", entries);
+            }
+            return false;
+        }
+        finally
+        {
+            visiting.remove(value);
+        }
+    }
+
+    /**
+     * Returns the digest, as hexadecimal. This {@link Fingerprint} cannot be used afterwards.
+     * @return the digest, as hexadecimal.
+     */
+    String toHex()
+    {
+        return Digests.toHex(digest.digest());
+    }
+
+    /** Digests the given values in their iteration order. */
+    private boolean addOrdered(String type, Collection<?> values)
+    {
+        add(type).add(Integer.toString(values.size()));
+        for (Object item : values)
+        {
+            if (!addValue(item))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Digests the given values in an order independent from their iteration order. */
+    private boolean addUnordered(String type, Collection<?> values)
+    {
+        List<String> digests = new ArrayList<>(values.size());
+        for (Object item : values)
+        {
+            Fingerprint itemFingerprint = new Fingerprint();
+            itemFingerprint.visiting.addAll(visiting);
+            if (!itemFingerprint.addValue(item))
+            {
+                return false;
+            }
+            digests.add(itemFingerprint.toHex());
+        }
+        Collections.sort(digests);
+
+        add(type).add(Integer.toString(digests.size()));
+        digests.forEach(this::add);
+        return true;
+    }
+}
@@ -0,0 +1,232 @@
+package io.github.flef.webble;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+
+/**
+ * Writes rendered {@link WebbleImage}s into a generated docx: media files, part relationships and content types.
+ */
+class MediaInjector
+{
+    /** Package relationships namespace. */
+    static final Namespace NS_RELATIONSHIPS = Namespace
+            .getNamespace("http://schemas.openxmlformats.org/package/2006/relationships");
+    /** Content types namespace. */
+    static final Namespace NS_CONTENT_TYPES = Namespace
+            .getNamespace("http://schemas.openxmlformats.org/package/2006/content-types");
+
+    /** Content types part. */
+    static final String CONTENT_TYPES = "[Content_Types].xml";
+    /** Folder of the media files. */
+    private static final String MEDIA_FOLDER = "word/media/";
+
+    /** Util class. */
+    private MediaInjector()
+    {
+
+    }
+
+    /**
+     * Links the given images to the given part of an unpackaged document. Each image content is stored once in the
+     * document, whatever the number of parts or drawings referencing it.
+     *
+     * @param unpackageDocx the path to the unziped Microsoft Office Word document.
+     * @param part          the part in which the images have been rendered.
+     * @param images        the images rendered in the part.
+     * @throws IOException if the document cannot be updated.
+     */
+    static void inject(Path unpackageDocx, Path part, Collection<WebbleImage> images) throws IOException
+    {
+        inject(directory(unpackageDocx), unpackageDocx.relativize(part).toString().replace('\\', '/'), images);
+    }
+
+    /**
+     * Returns the content of an unpackaged document.
+     * @param unpackageDocx the path to the unziped Microsoft Office Word document.
+     * @return the content of the document, read and written in its directory.
+     */
+    static PackageContent directory(Path unpackageDocx)
+    {
+        return new PackageContent()
+        {
+            @Override
+            public byte[] read(String name) throws IOException
+            {
+                Path path = unpackageDocx.resolve(name);
+                return Files.exists(path) ? Files.readAllBytes(path) : null;
+            }
+
+            @Override
+            public void write(String name, byte[] content) throws IOException
+            {
+                Path path = unpackageDocx.resolve(name);
+                Files.createDirectories(path.getParent());
+                Files.write(path, content);
+            }
+        };
+    }
+
+    /**
+     * Links the given images to the given part. Each image content is stored once in the document, whatever the
+     * number of parts or drawings referencing it.
+     *
+     * @param document the content of the document.
+     * @param part     the name of the part in which the images have been rendered (e.g. <code>word/document.xml</code>).
+     * @param images   the images rendered in the part.
+     * @throws IOException if the document cannot be updated.
+     */
+    static void inject(PackageContent document, String part, Collection<WebbleImage> images) throws IOException
+    {
+        if (images.isEmpty())
+        {
+            return;
+        }
+
+        String folder = part.substring(0, part.lastIndexOf('/') + 1);
+        String rels = relationshipsOf(part);
+        Document relsDoc = readOrCreate(document, rels, "Relationships", NS_RELATIONSHIPS);
+        Document contentTypesDoc = readOrCreate(document, CONTENT_TYPES, "Types", NS_CONTENT_TYPES);
+
+        for (WebbleImage image : images)
+        {
+            String media = MEDIA_FOLDER + image.getMediaName();
+            if (document.read(media) == null)
+            {
+                document.write(media, image.getData());
+            }
+
+            addRelationship(relsDoc, image, relativize(folder, media));
+            addDefaultContentType(contentTypesDoc, image);
+        }
+
+        document.write(rels, toBytes(relsDoc));
+        document.write(CONTENT_TYPES, toBytes(contentTypesDoc));
+    }
+
+    private static void addRelationship(Document relsDoc, WebbleImage image, String target)
+    {
+        Element root = relsDoc.getRootElement();
+        boolean exists = root.getChildren("Relationship", NS_RELATIONSHIPS).stream()
+                .anyMatch(r -> image.getRelationshipId().equals(r.getAttributeValue("Id")));
+        if (!exists)
+        {
+            root.addContent(new Element("Relationship", NS_RELATIONSHIPS)
+                    .setAttribute("Id", image.getRelationshipId())
+                    .setAttribute("Type", WebbleImage.RELATIONSHIP_TYPE)
+                    .setAttribute("Target", target));
+        }
+    }
+
+    private static void addDefaultContentType(Document contentTypesDoc, WebbleImage image)
+    {
+        Element root = contentTypesDoc.getRootElement();
+        boolean exists = root.getChildren("Default", NS_CONTENT_TYPES).stream()
+                .anyMatch(d -> image.getExtension().equalsIgnoreCase(d.getAttributeValue("Extension")));
+        if (!exists)
+        {
+            root.addContent(0, new Element("Default", NS_CONTENT_TYPES)
+                    .setAttribute("Extension", image.getExtension())
+                    .setAttribute("ContentType", image.getContentType()));
+        }
+    }
+
+    /**
+     * Returns the name of the relationships part of the given part.
+     * @param part the name of a part.
+     * @return the name of its relationships part.
+     */
+    static String relationshipsOf(String part)
+    {
+        int slash = part.lastIndexOf('/');
+        return part.substring(0, slash + 1) + "_rels/" + part.substring(slash + 1) + ".rels";
+    }
+
+    /**
+     * Reads the given XML entry, or creates an empty document of the given root if the entry does not exist.
+     * @param document the content of the document.
+     * @param name the entry name.
+     * @param rootName the name of the root element, if created.
+     * @param ns the namespace of the root element, if created.
+     * @return the entry, parsed.
+     * @throws IOException if the entry cannot be read.
+     */
+    static Document readOrCreate(PackageReader document, String name, String rootName, Namespace ns)
+            throws IOException
+    {
+        byte[] content = document.read(name);
+        if (content != null)
+        {
+            return WebbleMarkupSimplifier.streamToDocument(new ByteArrayInputStream(content));
+        }
+        return new Document(new Element(rootName, ns));
+    }
+
+    /**
+     * Serializes the given XML entry.
+     * @param doc the entry, parsed.
+     * @return the entry content.
+     */
+    static byte[] toBytes(Document doc)
+    {
+        return WebbleMarkupSimplifier.documentToString(doc).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Returns the path of the given entry relative to the given folder, both relative to the package root. */
+    private static String relativize(String folder, String name)
+    {
+        String[] from = folder.isEmpty() ? new String[0] : folder.split("/");
+        String[] to = name.split("/");
+        int common = 0;
+        while (common < from.length && common < to.length - 1 && from[common].equals(to[common]))
+        {
+            common++;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = common; i < from.length; i++)
+        {
+            sb.append("../");
+        }
+        for (int i = common; i < to.length; i++)
+        {
+            sb.append(to[i]).append(i < to.length - 1 ? "/" : "");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The content of a package, read only, by entry name relative to the package root.
+     */
+    interface PackageReader
+    {
+        /**
+         * Returns the content of the given entry.
+         * @param name the entry name.
+         * @return the entry content, or null if the package has no such entry.
+         * @throws IOException if the entry cannot be read.
+         */
+        byte[] read(String name) throws IOException;
+    }
+
+    /**
+     * The content of a document being generated, by entry name relative to the package root.
+     */
+    interface PackageContent extends PackageReader
+    {
+        /**
+         * Creates or replaces the given entry.
+         * @param name the entry name.
+         * @param content the entry content.
+         * @throws IOException if the entry cannot be written.
+         */
+        void write(String name, byte[] content) throws IOException;
+    }
+}
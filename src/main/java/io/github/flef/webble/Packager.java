@@ -7,9 +7,18 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 /**
  * This class is used for package and unpackage DOCX documents.
@@ -17,15 +26,12 @@ import java.util.zip.ZipOutputStream;
 class Packager
 {
     /**
-     * Unpackage a docx file.
+     * Unpackage a docx file into the given folder.
      * 
      * @throws IOException if docx file cannot be unpackaged as folder.
      */
-    static Path unpackageDocx(Path docx) throws IOException
+    static void unpackageDocx(Path docx, Path dstFolder) throws IOException
     {
-        Path dstFolder = Files.createTempDirectory(docx.getFileName().toString());
-        dstFolder.toFile().deleteOnExit();
-
         try (FileInputStream fis = new FileInputStream(docx.toFile());
                 ZipInputStream zis = new ZipInputStream(fis);)
         {
@@ -39,51 +45,102 @@ class Packager
 
                 new File(newFile.getParent()).mkdirs();
 
-                FileOutputStream fos = new FileOutputStream(newFile);
-                int len;
-                while ((len = zis.read(buffer)) > 0)
+                try (FileOutputStream fos = new FileOutputStream(newFile))
                 {
-                    fos.write(buffer, 0, len);
+                    int len;
+                    while ((len = zis.read(buffer)) > 0)
+                    {
+                        fos.write(buffer, 0, len);
+                    }
                 }
-                fos.close();
                 zis.closeEntry();
                 ze = zis.getNextEntry();
             }
             zis.closeEntry();
         }
+    }
 
-        return dstFolder;
+    /**
+     * Returns the size of the given docx file once unpackaged, used to reserve scratch space.
+     * 
+     * @throws IOException if docx file cannot be read.
+     */
+    static long unpackagedSize(Path docx) throws IOException
+    {
+        long size = 0;
+        try (ZipFile zip = new ZipFile(docx.toFile()))
+        {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements())
+            {
+                long entrySize = entries.nextElement().getSize();
+                size += entrySize < 0 ? 0 : entrySize;
+            }
+        }
+        return Math.max(size, Files.size(docx));
     }
 
     /**
-     * Package a docx file.
+     * Returns the names of the entries of the given docx file, in zip order.
+     * 
+     * @throws IOException if docx file cannot be read.
+     */
+    static List<String> entryNames(Path docx) throws IOException
+    {
+        List<String> names = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(docx.toFile()))
+        {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements())
+            {
+                names.add(entries.nextElement().getName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Package a folder into the given docx file, reproducibly: entries in the given order then by name, at a fixed
+     * time.
      * 
      * @throws IOException if folder cannot be packaged as docs file.
      */
-    static Path packageDocx(Path unpackageDocxFolder) throws IOException
+    static void packageDocx(Path unpackageDocxFolder, Path dst, List<String> order) throws IOException
     {
-        Path p = Files.createTempFile(unpackageDocxFolder.getFileName().toString(), ".docx");
-        try (ZipOutputStream zs = new ZipOutputStream(Files.newOutputStream(p)))
+        try (ZipWriter zip = new ZipWriter(Files.newOutputStream(dst), true))
         {
-            Files.walk(unpackageDocxFolder)
-                    .filter(path -> !Files.isDirectory(path))
-                    .forEach(path ->
-                    {
-                        String zipEntryPath = converterFileDelimitersToUnix(unpackageDocxFolder.relativize(path).toString());
-                        ZipEntry zipEntry = new ZipEntry(zipEntryPath);
-                        try
-                        {
-                            zs.putNextEntry(zipEntry);
-                            Files.copy(path, zs);
-                            zs.closeEntry();
-                        }
-                        catch (IOException e)
-                        {
-                            System.err.println(e);
-                        }
-                    });
+            packageDocx(unpackageDocxFolder, zip, Collections.emptySet(), order, ZipWriter.DOS_EPOCH);
+        }
+    }
+
+    /**
+     * Packages the files of a folder into the given zip, but the given entries, already written: files in the given
+     * order, then the other files by name, whatever the order of the file system.
+     * 
+     * @throws IOException if the files cannot be read or written.
+     */
+    static void packageDocx(Path unpackageDocxFolder, ZipWriter zip, Set<String> written, List<String> order,
+            int dosTime) throws IOException
+    {
+        Set<String> files;
+        try (Stream<Path> walk = Files.walk(unpackageDocxFolder))
+        {
+            files = walk.filter(path -> !Files.isDirectory(path))
+                    .map(path -> converterFileDelimitersToUnix(unpackageDocxFolder.relativize(path).toString()))
+                    .collect(Collectors.toCollection(TreeSet::new));
+        }
+
+        Set<String> ordered = new LinkedHashSet<>(order);
+        ordered.retainAll(files);
+        ordered.addAll(files);
+        for (String zipEntryPath : ordered)
+        {
+            if (!written.contains(zipEntryPath))
+            {
+                zip.write(PackedEntry.pack(zipEntryPath, Files.readAllBytes(unpackageDocxFolder.resolve(zipEntryPath)),
+                        dosTime));
+            }
         }
-        return p;
     }
     
     /** Used to convert Windows File separator to Unix one as Unix one will work on both Unix and Windows. */
@@ -0,0 +1,366 @@
+package io.github.flef.webble;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * An entry of a package, compressed with its CRC and sizes: written to a zip as is by {@link ZipWriter}, without being
+ * compressed again. The compressed content is held in memory, or left in the zip file it has been listed from.
+ */
+final class PackedEntry
+{
+    /** Deflaters, reused from one entry to another. */
+    private static final Pool<Deflater> DEFLATERS = new Pool<>(Pool.DEFAULT_CAPACITY,
+            () -> new Deflater(Deflater.DEFAULT_COMPRESSION, true), Deflater::end);
+
+    private static final int LOCAL_HEADER_LENGTH = 30;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_LENGTH = 22;
+    /** Maximum value of the 32 bits fields, marking ZIP64 entries. */
+    private static final long MAX_32 = 0xFFFFFFFFL;
+
+    private final String name;
+    private final int method;
+    private final long crc;
+    private final long size;
+    private final int dosTime;
+    private final long compressedSize;
+    /** The compressed content, or null if left in the zip file. */
+    private final byte[] data;
+    /** The zip file holding the compressed content, and its position, if not in memory. */
+    private final Path file;
+    private final long position;
+
+    private PackedEntry(String name, int method, long crc, long size, int dosTime, byte[] data)
+    {
+        this(name, method, crc, size, dosTime, data.length, data, null, 0);
+    }
+
+    private PackedEntry(String name, int method, long crc, long size, int dosTime, long compressedSize, byte[] data,
+            Path file, long position)
+    {
+        this.name = name;
+        this.method = method;
+        this.crc = crc;
+        this.size = size;
+        this.dosTime = dosTime;
+        this.compressedSize = compressedSize;
+        this.data = data;
+        this.file = file;
+        this.position = position;
+    }
+
+    /**
+     * Compresses the given content into an entry. Content that does not shrink, such as pictures, is stored.
+     * @param name the entry name, relative to the package root (e.g. <code>word/styles.xml</code>).
+     * @param content the uncompressed content.
+     * @param dosTime the last modification time of the entry, in MS-DOS format, see {@link ZipWriter#dosTime(long)}.
+     * @return the entry.
+     */
+    static PackedEntry pack(String name, byte[] content, int dosTime)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 4 + 64);
+        boolean finished;
+        Deflater deflater = DEFLATERS.borrow();
+        try
+        {
+            deflater.reset();
+            deflater.setInput(content);
+            deflater.finish();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished() && compressed.size() < content.length)
+            {
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+            }
+            finished = deflater.finished();
+        }
+        finally
+        {
+            DEFLATERS.release(deflater);
+        }
+
+        if (!finished || compressed.size() >= content.length)
+        {
+            return new PackedEntry(name, ZipEntry.STORED, crc.getValue(), content.length, dosTime, content);
+        }
+        return new PackedEntry(name, ZipEntry.DEFLATED, crc.getValue(), content.length, dosTime,
+                compressed.toByteArray());
+    }
+
+    /**
+     * Lists the entries of the given zip file, their compressed content left in the file. ZIP64 is not supported, as by
+     * {@link ZipWriter}.
+     * @param zip the zip file, e.g. a prepared template.
+     * @return the entries, in central directory order, directories excluded.
+     * @throws IOException if the file cannot be read or is not a zip.
+     */
+    static List<PackedEntry> list(Path zip) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(zip, StandardOpenOption.READ))
+        {
+            ByteBuffer end = endOfCentralDirectory(zip, channel);
+            int count = end.getShort(10) & 0xFFFF;
+            long directorySize = end.getInt(12) & MAX_32;
+            long directoryOffset = end.getInt(16) & MAX_32;
+            if (count == 0xFFFF || directorySize == MAX_32 || directoryOffset == MAX_32)
+            {
+                throw new IOException("ZIP64 is not supported: " + zip);
+            }
+
+            ByteBuffer directory = read(channel, directoryOffset, (int) directorySize);
+            ByteBuffer localHeader = ByteBuffer.allocate(LOCAL_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            List<PackedEntry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+            {
+                if (directory.getInt() != CENTRAL_HEADER)
+                {
+                    throw new IOException("Corrupted central directory: " + zip);
+                }
+                directory.position(directory.position() + 6); // versions, flags
+                int method = directory.getShort() & 0xFFFF;
+                int dosTime = directory.getInt();
+                long crc = directory.getInt() & MAX_32;
+                long compressedSize = directory.getInt() & MAX_32;
+                long size = directory.getInt() & MAX_32;
+                int nameLength = directory.getShort() & 0xFFFF;
+                int extraLength = directory.getShort() & 0xFFFF;
+                int commentLength = directory.getShort() & 0xFFFF;
+                directory.position(directory.position() + 8); // disk, attributes
+                long offset = directory.getInt() & MAX_32;
+                byte[] encodedName = new byte[nameLength];
+                directory.get(encodedName);
+                directory.position(directory.position() + extraLength + commentLength);
+
+                String name = new String(encodedName, StandardCharsets.UTF_8);
+                if (name.endsWith("/"))
+                {
+                    continue;
+                }
+                if (compressedSize == MAX_32 || size == MAX_32 || offset == MAX_32)
+                {
+                    throw new IOException("ZIP64 is not supported: " + zip);
+                }
+                localHeader.clear();
+                readFully(channel, localHeader, offset);
+                long position = offset + LOCAL_HEADER_LENGTH + (localHeader.getShort(26) & 0xFFFF)
+                        + (localHeader.getShort(28) & 0xFFFF);
+                entries.add(new PackedEntry(name, method, crc, size, dosTime, compressedSize, null, zip, position));
+            }
+            return entries;
+        }
+    }
+
+    /** Finds the end of central directory record, at the end of the zip or before its comment. */
+    private static ByteBuffer endOfCentralDirectory(Path zip, FileChannel channel) throws IOException
+    {
+        long fileSize = channel.size();
+        int tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_LENGTH + 0xFFFF);
+        ByteBuffer tail = read(channel, fileSize - tailSize, tailSize);
+        for (int pos = tailSize - END_OF_CENTRAL_DIRECTORY_LENGTH; pos >= 0; pos--)
+        {
+            if (tail.getInt(pos) == END_OF_CENTRAL_DIRECTORY)
+            {
+                tail.position(pos);
+                return tail.slice().order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+        throw new IOException("Not a zip file: " + zip);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, buffer, position);
+        return buffer;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+            {
+                throw new EOFException("Unexpected end of zip file.");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Returns this entry with its compressed content held in memory, read from its zip file if need be.
+     * @return this entry, held in memory.
+     * @throws IOException if the zip file cannot be read.
+     */
+    PackedEntry load() throws IOException
+    {
+        if (data != null)
+        {
+            return this;
+        }
+        return new PackedEntry(name, method, crc, size, dosTime, readData());
+    }
+
+    /**
+     * Returns true if the compressed content is held in memory, false if left in its zip file.
+     * @return true if the compressed content is held in memory.
+     */
+    boolean isLoaded()
+    {
+        return data != null;
+    }
+
+    /**
+     * Returns the entry name, relative to the package root (e.g. <code>word/styles.xml</code>).
+     * @return the entry name.
+     */
+    String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Returns the compression method, {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}.
+     * @return the compression method.
+     */
+    int getMethod()
+    {
+        return method;
+    }
+
+    /**
+     * Returns the CRC-32 of the uncompressed content.
+     * @return the CRC-32 of the uncompressed content.
+     */
+    long getCrc()
+    {
+        return crc;
+    }
+
+    /**
+     * Returns the size of the uncompressed content.
+     * @return the size of the uncompressed content, in bytes.
+     */
+    long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the last modification time of the entry, in MS-DOS format.
+     * @return the last modification time of the entry.
+     */
+    int getDosTime()
+    {
+        return dosTime;
+    }
+
+    /**
+     * Returns the size of the compressed content.
+     * @return the size of the compressed content, in bytes.
+     */
+    long getCompressedSize()
+    {
+        return compressedSize;
+    }
+
+    /**
+     * Writes the compressed content to the given stream, from memory or copied from its zip file.
+     * @param out the stream.
+     * @throws IOException if the content cannot be read or written.
+     */
+    void writeData(OutputStream out) throws IOException
+    {
+        if (data != null)
+        {
+            out.write(data);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            byte[] buffer = new byte[(int) Math.min(compressedSize, 65536)];
+            long copied = 0;
+            while (copied < compressedSize)
+            {
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, compressedSize - copied));
+                readFully(channel, chunk, position + copied);
+                out.write(buffer, 0, chunk.limit());
+                copied += chunk.limit();
+            }
+        }
+    }
+
+    private byte[] readData() throws IOException
+    {
+        if (data != null)
+        {
+            return data;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            return read(channel, position, (int) compressedSize).array();
+        }
+    }
+
+    /**
+     * Returns the uncompressed content.
+     * @return the uncompressed content.
+     * @throws IOException if the compressed content is corrupted.
+     */
+    byte[] unpack() throws IOException
+    {
+        byte[] compressed = readData();
+        if (method == ZipEntry.STORED)
+        {
+            return compressed == data ? data.clone() : compressed;
+        }
+
+        Inflater inflater = new Inflater(true);
+        try
+        {
+            inflater.setInput(compressed);
+            byte[] content = new byte[(int) size];
+            int length = 0;
+            while (length < content.length && !inflater.finished())
+            {
+                int inflated = inflater.inflate(content, length, content.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != content.length)
+            {
+                throw new IOException("Corrupted entry " + name + ".");
+            }
+            return content;
+        }
+        catch (DataFormatException e)
+        {
+            throw new IOException("Corrupted entry " + name + ".", e);
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package io.github.flef.webble;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+
+/**
+ * A part of a Microsoft Word Document evaluated by Webble, as registered by {@link PartType}.
+ */
+final class Part
+{
+    /** Content types namespace. */
+    private static final Namespace NS_CONTENT_TYPES = Namespace
+            .getNamespace("http://schemas.openxmlformats.org/package/2006/content-types");
+    /** Package relationships namespace. */
+    private static final Namespace NS_RELATIONSHIPS = Namespace
+            .getNamespace("http://schemas.openxmlformats.org/package/2006/relationships");
+
+    private final String name;
+    private final PartType type;
+    private final boolean dynamic;
+
+    /**
+     * The class constructor.
+     * @param name the part name, relative to the package root (e.g. <code>word/document.xml</code>).
+     * @param type the part type.
+     * @param dynamic false if the part is copied as is when evaluated.
+     */
+    Part(String name, PartType type, boolean dynamic)
+    {
+        this.name = name;
+        this.type = type;
+        this.dynamic = dynamic;
+    }
+
+    /**
+     * Returns the part name, relative to the package root (e.g. <code>word/document.xml</code>).
+     * @return the part name.
+     */
+    String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Returns the part type.
+     * @return the part type.
+     */
+    PartType getType()
+    {
+        return type;
+    }
+
+    /**
+     * Returns false if the part is copied as is when evaluated: a template part without any Pebble tag.
+     * @return false if the part is copied as is when evaluated.
+     */
+    boolean isDynamic()
+    {
+        return dynamic;
+    }
+
+    /**
+     * Returns the path of the part in the given unpackaged document.
+     * @param unpackageDocx the path to the unziped Microsoft Office Word document.
+     * @return the path of the part.
+     */
+    Path resolve(Path unpackageDocx)
+    {
+        return unpackageDocx.resolve(name);
+    }
+
+    /**
+     * Returns true if the given template part content holds Pebble tags, to be evaluated.
+     * @param xmlContent the template part content.
+     * @return true if the given template part content holds Pebble tags.
+     */
+    static boolean containsTags(String xmlContent)
+    {
+        return xmlContent.contains("{{") || xmlContent.contains("{%") || xmlContent.contains("{#");
+    }
+
+    /**
+     * Lists the registered parts of the given unpackaged document: parts related to the package through relationships,
+     * with a {@link PartType} content type. The content type of a part is declared in <code>[Content_Types].xml</code>
+     * by its <code>Override</code>, or else by the <code>Default</code> of its extension.
+     * @param unpackageDocx the path to the unziped Microsoft Office Word document.
+     * @return the registered parts, all dynamic, overridden parts first in the order of
+     * <code>[Content_Types].xml</code>, then the others in relationship order.
+     * @throws IOException if the content types or relationships cannot be read.
+     */
+    static List<Part> list(Path unpackageDocx) throws IOException
+    {
+        return list(name ->
+        {
+            Path part = unpackageDocx.resolve(name);
+            return Files.isRegularFile(part) ? Files.newInputStream(part) : null;
+        });
+    }
+
+    /**
+     * Lists the registered parts of the given prepared template, detecting the template parts without any tag.
+     * @param template the prepared template.
+     * @return the registered parts, in the order of {@link #list(Path)}.
+     * @throws IOException if the template cannot be read.
+     */
+    static List<Part> list(ZipFile template) throws IOException
+    {
+        PartSource source = name ->
+        {
+            ZipEntry entry = template.getEntry(name);
+            return entry == null ? null : template.getInputStream(entry);
+        };
+
+        List<Part> parts = new ArrayList<>();
+        for (Part part : list(source))
+        {
+            if (part.getType().isTemplate())
+            {
+                try (InputStream is = source.open(part.getName()))
+                {
+                    part = new Part(part.getName(), part.getType(), containsTags(PartIO.read(is)));
+                }
+            }
+            parts.add(part);
+        }
+        return parts;
+    }
+
+    private static List<Part> list(PartSource source) throws IOException
+    {
+        Set<String> related = relatedParts(source);
+
+        Document contentTypes = read(source, "[Content_Types].xml");
+        if (contentTypes == null)
+        {
+            throw new IOException("Not a valid Microsoft Word Document, [Content_Types].xml is missing.");
+        }
+
+        Map<String, String> contentTypeByName = new LinkedHashMap<>();
+        for (Element override : contentTypes.getRootElement().getChildren("Override", NS_CONTENT_TYPES))
+        {
+            String name = override.getAttributeValue("PartName").replaceFirst("^/", "");
+            if (related.contains(name))
+            {
+                contentTypeByName.put(name, override.getAttributeValue("ContentType"));
+            }
+        }
+        Map<String, String> contentTypeByExtension = new HashMap<>();
+        for (Element defaultType : contentTypes.getRootElement().getChildren("Default", NS_CONTENT_TYPES))
+        {
+            contentTypeByExtension.put(defaultType.getAttributeValue("Extension").toLowerCase(Locale.ROOT),
+                    defaultType.getAttributeValue("ContentType"));
+        }
+        for (String name : related)
+        {
+            if (!contentTypeByName.containsKey(name))
+            {
+                String extension = name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+                contentTypeByName.put(name, contentTypeByExtension.get(extension));
+            }
+        }
+
+        List<Part> parts = new ArrayList<>();
+        for (Map.Entry<String, String> part : contentTypeByName.entrySet())
+        {
+            PartType type = part.getValue() == null ? null : PartType.forContentType(part.getValue());
+            if (type != null)
+            {
+                parts.add(new Part(part.getKey(), type, true));
+            }
+        }
+        return parts;
+    }
+
+    /** Walks the relationships from the package root, returning every internal part related, in walk order. */
+    private static Set<String> relatedParts(PartSource source) throws IOException
+    {
+        Set<String> related = new LinkedHashSet<>();
+        Deque<String> toVisit = new ArrayDeque<>();
+        toVisit.add("");
+
+        while (!toVisit.isEmpty())
+        {
+            String part = toVisit.poll();
+            int slash = part.lastIndexOf('/');
+            String folder = part.substring(0, slash + 1);
+            String rels = folder + "_rels/" + part.substring(slash + 1) + ".rels";
+
+            Document relsDoc = read(source, rels);
+            if (relsDoc == null)
+            {
+                continue;
+            }
+            for (Element relationship : relsDoc.getRootElement().getChildren("Relationship", NS_RELATIONSHIPS))
+            {
+                if ("External".equals(relationship.getAttributeValue("TargetMode")))
+                {
+                    continue;
+                }
+                String target = normalize(folder, relationship.getAttributeValue("Target"));
+                if (target.endsWith(".xml") && related.add(target))
+                {
+                    toVisit.add(target);
+                }
+            }
+        }
+        return related;
+    }
+
+    /** Resolves a relationship target against the folder of its source part. */
+    private static String normalize(String folder, String target)
+    {
+        String path = target.startsWith("/") ? target.substring(1) : folder + target;
+
+        Deque<String> segments = new ArrayDeque<>();
+        for (String segment : path.split("/"))
+        {
+            if (segment.equals(".."))
+            {
+                segments.pollLast();
+            }
+            else if (!segment.isEmpty() && !segment.equals("."))
+            {
+                segments.addLast(segment);
+            }
+        }
+        return String.join("/", segments);
+    }
+
+    private static Document read(PartSource source, String name) throws IOException
+    {
+        try (InputStream is = source.open(name))
+        {
+            return is == null ? null : WebbleMarkupSimplifier.streamToDocument(is);
+        }
+    }
+
+    /** Opens the parts of a package, by name. */
+    @FunctionalInterface
+    private interface PartSource
+    {
+        /** Returns the content of the given part, or null if the package has no such part. */
+        InputStream open(String name) throws IOException;
+    }
+}
@@ -0,0 +1,133 @@
+package io.github.flef.webble;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads and writes XML parts as a whole, byte exact: the content is decoded with the charset of its XML declaration
+ * (or byte order mark) and encoded back without any added or removed character.
+ */
+class PartIO
+{
+    /** Encoding attribute of an XML declaration. */
+    private static final Pattern ENCODING = Pattern
+            .compile("^<\\?xml[^>]*?encoding\\s*=\\s*[\"']([A-Za-z0-9._\\-]+)[\"']");
+    /** Maximum length of an XML declaration. */
+    private static final int DECLARATION_LENGTH = 256;
+
+    /** Util class. */
+    private PartIO()
+    {
+
+    }
+
+    /**
+     * Reads the XML part at the given path.
+     * @param part the path to the part.
+     * @return the decoded part content.
+     * @throws IOException if the part cannot be read or its charset is not supported.
+     */
+    static String read(Path part) throws IOException
+    {
+        return decode(Files.readAllBytes(part));
+    }
+
+    /**
+     * Reads the XML part from the given stream, until its end. Used to read a zip entry directly.
+     * @param part the part stream, not closed.
+     * @return the decoded part content.
+     * @throws IOException if the part cannot be read or its charset is not supported.
+     */
+    static String read(InputStream part) throws IOException
+    {
+        ByteArrayOutputStream content = new ByteArrayOutputStream(8192);
+        byte[] buffer = new byte[8192];
+        int len;
+        while ((len = part.read(buffer)) > 0)
+        {
+            content.write(buffer, 0, len);
+        }
+        return decode(content.toByteArray());
+    }
+
+    /**
+     * Writes the given XML part, encoded in UTF-8 as declared by parts serialized by Webble.
+     * @param part the path to the part, created or truncated.
+     * @param content the part content.
+     * @throws IOException if the part cannot be written.
+     */
+    static void write(Path part, String content) throws IOException
+    {
+        Files.write(part, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes the given XML part content.
+     * @param content the encoded part content.
+     * @return the decoded part content, byte order mark excluded.
+     * @throws IOException if the declared charset is not supported.
+     */
+    static String decode(byte[] content) throws IOException
+    {
+        int length = content.length;
+        if (length >= 3 && (content[0] & 0xFF) == 0xEF && (content[1] & 0xFF) == 0xBB && (content[2] & 0xFF) == 0xBF)
+        {
+            return new String(content, 3, length - 3, StandardCharsets.UTF_8);
+        }
+        if (length >= 2 && (content[0] & 0xFF) == 0xFE && (content[1] & 0xFF) == 0xFF)
+        {
+            return new String(content, 2, length - 2, StandardCharsets.UTF_16BE);
+        }
+        if (length >= 2 && (content[0] & 0xFF) == 0xFF && (content[1] & 0xFF) == 0xFE)
+        {
+            return new String(content, 2, length - 2, StandardCharsets.UTF_16LE);
+        }
+
+        String declaration = new String(content, 0, Math.min(length, DECLARATION_LENGTH), StandardCharsets.ISO_8859_1);
+        Matcher m = ENCODING.matcher(declaration);
+        if (m.find())
+        {
+            try
+            {
+                return new String(content, Charset.forName(m.group(1)));
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new IOException("Unsupported XML part encoding: " + m.group(1), e);
+            }
+        }
+        return new String(content, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Removes the line breaks of the given template markup, as line breaks rendered in the part are turned into Word
+     * breaks.
+     * @param content the template markup.
+     * @return the template markup, without line breaks.
+     */
+    static String removeLineBreaks(String content)
+    {
+        if (content.indexOf('\n') < 0 && content.indexOf('\r') < 0)
+        {
+            return content;
+        }
+
+        StringBuilder sb = new StringBuilder(content.length());
+        for (int i = 0; i < content.length(); i++)
+        {
+            char c = content.charAt(i);
+            if (c != '\n' && c != '\r')
+            {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,75 @@
+package io.github.flef.webble;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The registry of the part types evaluated by Webble, by content type. Parts of any other content type are copied as
+ * is.
+ */
+enum PartType
+{
+    /** Main document, of a document, a template or their macro enabled variants. */
+    DOCUMENT(true,
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.document.main+xml",
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.template.main+xml",
+            "application/vnd.ms-word.document.macroEnabled.main+xml",
+            "application/vnd.ms-word.template.macroEnabledTemplate.main+xml"),
+    /** Glossary document, holding building blocks. */
+    GLOSSARY(true, "application/vnd.openxmlformats-officedocument.wordprocessingml.document.glossary+xml"),
+    /** Header. */
+    HEADER(true, "application/vnd.openxmlformats-officedocument.wordprocessingml.header+xml"),
+    /** Footer. */
+    FOOTER(true, "application/vnd.openxmlformats-officedocument.wordprocessingml.footer+xml"),
+    /** Footnotes. */
+    FOOTNOTES(true, "application/vnd.openxmlformats-officedocument.wordprocessingml.footnotes+xml"),
+    /** Endnotes. */
+    ENDNOTES(true, "application/vnd.openxmlformats-officedocument.wordprocessingml.endnotes+xml"),
+    /** Comments. */
+    COMMENTS(true, "application/vnd.openxmlformats-officedocument.wordprocessingml.comments+xml"),
+    /** Core properties, set from {@link WebbleContext} core properties. */
+    CORE_PROPERTIES(false, "application/vnd.openxmlformats-package.core-properties+xml"),
+    /** Custom properties, set from {@link WebbleContext} custom properties. */
+    CUSTOM_PROPERTIES(false, "application/vnd.openxmlformats-officedocument.custom-properties+xml");
+
+    private static final Map<String, PartType> BY_CONTENT_TYPE = new HashMap<>();
+
+    static
+    {
+        for (PartType type : values())
+        {
+            for (String contentType : type.contentTypes)
+            {
+                BY_CONTENT_TYPE.put(contentType, type);
+            }
+        }
+    }
+
+    private final boolean template;
+    private final String[] contentTypes;
+
+    PartType(boolean template, String... contentTypes)
+    {
+        this.template = template;
+        this.contentTypes = contentTypes;
+    }
+
+    /**
+     * Returns true if parts of this type are WordprocessingML templates, prepared then rendered by Pebble.
+     * @return true if parts of this type are WordprocessingML templates.
+     */
+    boolean isTemplate()
+    {
+        return template;
+    }
+
+    /**
+     * Returns the part type registered for the given content type.
+     * @param contentType the content type of a part.
+     * @return the registered part type, or null if parts of the given content type are not evaluated.
+     */
+    static PartType forContentType(String contentType)
+    {
+        return BY_CONTENT_TYPE.get(contentType);
+    }
+}
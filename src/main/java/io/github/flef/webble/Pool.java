@@ -0,0 +1,70 @@
+package io.github.flef.webble;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A bounded pool of objects costly to create, such as parsers or deflaters. Unlike a {@link ThreadLocal}, which holds
+ * one object per thread, hence per document with virtual threads, it keeps at most its capacity of idle objects: the
+ * ones borrowed beyond are created on demand, then disposed of on release.
+ *
+ * @param <T> the type of the pooled objects.
+ */
+final class Pool<T>
+{
+    /** Default capacity: the objects are used by CPU bound steps, hardly more of them run at once than processors. */
+    static final int DEFAULT_CAPACITY = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final BlockingQueue<T> idle;
+    private final Supplier<T> factory;
+    private final Consumer<T> disposer;
+
+    /**
+     * Creates a pool of {@link #DEFAULT_CAPACITY}, of objects left to the garbage collector when not pooled back.
+     * @param factory creates the objects.
+     */
+    Pool(Supplier<T> factory)
+    {
+        this(DEFAULT_CAPACITY, factory, object ->
+        {
+            // garbage collected
+        });
+    }
+
+    /**
+     * Creates a pool.
+     * @param capacity the maximum number of idle objects kept.
+     * @param factory creates the objects.
+     * @param disposer releases the resources of the objects not pooled back, e.g. {@link java.util.zip.Deflater#end()}.
+     */
+    Pool(int capacity, Supplier<T> factory, Consumer<T> disposer)
+    {
+        this.idle = new ArrayBlockingQueue<>(capacity);
+        this.factory = factory;
+        this.disposer = disposer;
+    }
+
+    /**
+     * Borrows an idle object, or creates one. Never waits.
+     * @return the object, to {@link #release(Object)} once used.
+     */
+    T borrow()
+    {
+        T object = idle.poll();
+        return object != null ? object : factory.get();
+    }
+
+    /**
+     * Pools back a borrowed object, or disposes of it if the pool is full.
+     * @param object the object, no longer used by the caller.
+     */
+    void release(T object)
+    {
+        if (!idle.offer(object))
+        {
+            disposer.accept(object);
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package io.github.flef.webble;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.nio.CharBuffer;
+import java.util.AbstractCollection;
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.mitchellbosecke.pebble.extension.AbstractExtension;
+import com.mitchellbosecke.pebble.extension.Extension;
+import com.mitchellbosecke.pebble.extension.NodeVisitor;
+import com.mitchellbosecke.pebble.lexer.Token;
+import com.mitchellbosecke.pebble.node.ForNode;
+import com.mitchellbosecke.pebble.node.RenderableNode;
+import com.mitchellbosecke.pebble.node.expression.Expression;
+import com.mitchellbosecke.pebble.parser.Parser;
+import com.mitchellbosecke.pebble.template.EvaluationContextImpl;
+import com.mitchellbosecke.pebble.template.PebbleTemplateImpl;
+import com.mitchellbosecke.pebble.tokenParser.ForTokenParser;
+import com.mitchellbosecke.pebble.tokenParser.TokenParser;
+
+import io.github.flef.webble.WebbleLimitException.Limit;
+
+/**
+ * The budget of the rendering of a document, spent while rendering its parts: the output written, the loop iterations
+ * and the time are checked against the {@link WebbleLimits} of the document. The budget of a rendering is bound to its
+ * thread from {@link #start(WebbleLimits)} to {@link #close()}.
+ */
+final class RenderBudget implements AutoCloseable
+{
+    /**
+     * Budget of the rendering of the current thread. Not a cache: set by {@link #start(WebbleLimits)} and removed by
+     * {@link #close()}, it holds nothing once the document rendered, even with a virtual thread per document.
+     */
+    private static final ThreadLocal<RenderBudget> CURRENT = new ThreadLocal<>();
+
+    /** Pebble extension counting the iterations of <code>for</code> loops in the budget of the current thread. */
+    static final Extension EXTENSION = new AbstractExtension()
+    {
+        @Override
+        public List<TokenParser> getTokenParsers()
+        {
+            return Collections.singletonList(new CountedForTokenParser());
+        }
+    };
+
+    private final WebbleLimits limits;
+    private final long start = System.nanoTime();
+    private long outputBytes;
+    private long loopIterations;
+
+    private RenderBudget(WebbleLimits limits)
+    {
+        this.limits = limits;
+    }
+
+    /**
+     * Starts the budget of the rendering of a document, on the current thread.
+     * @param limits the limits of the document.
+     * @return the budget, to close once the document rendered.
+     */
+    static RenderBudget start(WebbleLimits limits)
+    {
+        RenderBudget budget = new RenderBudget(limits);
+        CURRENT.set(budget);
+        return budget;
+    }
+
+    /**
+     * Creates a writer of a rendered part, spending the budget. Line breaks are written as Word breaks.
+     * @param out the writer of the rendered part, e.g. to its zip entry, closed with the part writer.
+     * @return the writer.
+     */
+    Writer newPartWriter(Writer out)
+    {
+        return new PartWriter(this, out);
+    }
+
+    /** Unbinds the budget from the current thread. */
+    @Override
+    public void close()
+    {
+        CURRENT.remove();
+    }
+
+    private void spendOutput(int bytes)
+    {
+        outputBytes += bytes;
+        if (outputBytes > limits.getMaxOutputBytes())
+        {
+            throw new WebbleLimitException(Limit.OUTPUT_BYTES, limits.getMaxOutputBytes());
+        }
+        checkTime();
+    }
+
+    private void spendIteration()
+    {
+        if (++loopIterations > limits.getMaxLoopIterations())
+        {
+            throw new WebbleLimitException(Limit.LOOP_ITERATIONS, limits.getMaxLoopIterations());
+        }
+        checkTime();
+    }
+
+    private void checkTime()
+    {
+        if (limits.getMaxRenderMillis() != Long.MAX_VALUE
+                && (System.nanoTime() - start) / 1_000_000 > limits.getMaxRenderMillis())
+        {
+            throw new WebbleLimitException(Limit.RENDER_TIME, limits.getMaxRenderMillis());
+        }
+    }
+
+    /**
+     * Writes a rendered part, replacing line breaks by Word breaks on the fly rather than copying the part afterwards.
+     * The writer follows whether the output is in the text of a run, to refuse images rendered elsewhere.
+     */
+    private static final class PartWriter extends Writer
+    {
+        private static final String BREAK = "<w:br/>";
+
+        private final RenderBudget budget;
+        private final Writer out;
+        /** True if the last tag written opens the text of a run. */
+        private boolean inText;
+
+        PartWriter(RenderBudget budget, Writer out)
+        {
+            this.budget = budget;
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException
+        {
+            budget.spendOutput(len);
+            follow(CharBuffer.wrap(cbuf, off, len), 0, len);
+            int from = off;
+            for (int i = off; i < off + len; i++)
+            {
+                if (cbuf[i] == '\n')
+                {
+                    out.write(cbuf, from, i - from);
+                    budget.spendOutput(BREAK.length() - 1); // the break outgrows the line break it replaces
+                    out.write(BREAK);
+                    from = i + 1;
+                }
+            }
+            out.write(cbuf, from, off + len - from);
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException
+        {
+            budget.spendOutput(len);
+            follow(str, off, off + len);
+            int from = off;
+            int lineBreak;
+            while ((lineBreak = str.indexOf('\n', from)) >= 0 && lineBreak < off + len)
+            {
+                out.write(str, from, lineBreak - from);
+                budget.spendOutput(BREAK.length() - 1);
+                out.write(BREAK);
+                from = lineBreak + 1;
+            }
+            out.write(str, from, off + len - from);
+        }
+
+        /**
+         * Checks that an image is written in the text of a run, then follows the last tag of the given output. Template
+         * text and values are written separately, so the tag preceding a value ends the last output holding a tag.
+         */
+        private void follow(CharSequence chars, int off, int end) throws IOException
+        {
+            if (startsWith(chars, WebbleImage.MARKUP_PREFIX, off, end) && !inText)
+            {
+                throw new IOException("An image must be rendered in the text of a run, not in an attribute or between"
+                        + " paragraphs: write its expression in a run of its own.");
+            }
+            int tag = end - 1;
+            while (tag >= off && chars.charAt(tag) != '<')
+            {
+                tag--;
+            }
+            if (tag >= off)
+            {
+                int close = tag;
+                while (close < end && chars.charAt(close) != '>')
+                {
+                    close++;
+                }
+                inText = (startsWith(chars, "<w:t>", tag, end) || startsWith(chars, "<w:t ", tag, end)) && close < end
+                        && chars.charAt(close - 1) != '/';
+            }
+        }
+
+        private static boolean startsWith(CharSequence chars, String prefix, int at, int end)
+        {
+            if (end - at < prefix.length())
+            {
+                return false;
+            }
+            for (int i = 0; i < prefix.length(); i++)
+            {
+                if (chars.charAt(at + i) != prefix.charAt(i))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            out.close();
+        }
+    }
+
+    /** Parses <code>for</code> tags as the core extension does, counting the iterations of the loops. */
+    private static final class CountedForTokenParser extends ForTokenParser
+    {
+        @Override
+        public RenderableNode parse(Token token, Parser parser)
+        {
+            ForNode node = (ForNode) super.parse(token, parser);
+            return new ForNode(token.getLineNumber(), node.getIterationVariable(),
+                    new CountedIterable(node.getIterable()), node.getBody(), node.getElseBody());
+        }
+    }
+
+    /** The iterable of a loop, its iterations counted in the budget of the current thread. */
+    private static final class CountedIterable implements Expression<Object>
+    {
+        private final Expression<?> iterable;
+
+        CountedIterable(Expression<?> iterable)
+        {
+            this.iterable = iterable;
+        }
+
+        @Override
+        public Object evaluate(PebbleTemplateImpl self, EvaluationContextImpl context)
+        {
+            Object value = iterable.evaluate(self, context);
+            RenderBudget budget = CURRENT.get();
+            if (budget == null || value == null)
+            {
+                return value;
+            }
+
+            // converted as by ForNode, as collections so that loop.length does not iterate
+            if (value instanceof Map)
+            {
+                value = ((Map<?, ?>) value).entrySet();
+            }
+            else if (value.getClass().isArray())
+            {
+                value = new ArrayView(value);
+            }
+            if (value instanceof Collection)
+            {
+                return new CountedCollection(budget, (Collection<?>) value);
+            }
+            if (value instanceof Iterable)
+            {
+                Iterable<?> values = (Iterable<?>) value;
+                return (Iterable<Object>) () -> new CountedIterator(budget, values.iterator());
+            }
+            if (value instanceof Enumeration)
+            {
+                Enumeration<?> values = (Enumeration<?>) value;
+                Iterator<Object> iterator = new Iterator<Object>()
+                {
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return values.hasMoreElements();
+                    }
+
+                    @Override
+                    public Object next()
+                    {
+                        return values.nextElement();
+                    }
+                };
+                return (Iterable<Object>) () -> new CountedIterator(budget, iterator);
+            }
+            return value;
+        }
+
+        @Override
+        public int getLineNumber()
+        {
+            return iterable.getLineNumber();
+        }
+
+        @Override
+        public void accept(NodeVisitor visitor)
+        {
+            iterable.accept(visitor);
+        }
+    }
+
+    /** An array, as a list. */
+    private static final class ArrayView extends AbstractList<Object>
+    {
+        private final Object array;
+
+        ArrayView(Object array)
+        {
+            this.array = array;
+        }
+
+        @Override
+        public Object get(int index)
+        {
+            return Array.get(array, index);
+        }
+
+        @Override
+        public int size()
+        {
+            return Array.getLength(array);
+        }
+    }
+
+    /** A collection whose iterations are counted. */
+    private static final class CountedCollection extends AbstractCollection<Object>
+    {
+        private final RenderBudget budget;
+        private final Collection<?> values;
+
+        CountedCollection(RenderBudget budget, Collection<?> values)
+        {
+            this.budget = budget;
+            this.values = values;
+        }
+
+        @Override
+        public Iterator<Object> iterator()
+        {
+            return new CountedIterator(budget, values.iterator());
+        }
+
+        @Override
+        public int size()
+        {
+            return values.size();
+        }
+    }
+
+    /** An iterator whose iterations are counted. */
+    private static final class CountedIterator implements Iterator<Object>
+    {
+        private final RenderBudget budget;
+        private final Iterator<?> values;
+
+        CountedIterator(RenderBudget budget, Iterator<?> values)
+        {
+            this.budget = budget;
+            this.values = values;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return values.hasNext();
+        }
+
+        @Override
+        public Object next()
+        {
+            budget.spendIteration();
+            return values.next();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package io.github.flef.webble;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The content of a {@link WebbleTemplate}, loaded once and shared by its evaluations: the prepared markup of the
+ * dynamic parts, and every other entry compressed with its CRC and sizes, to be copied as is into generated documents.
+ * <p>
+ * Compressed entries are read as they are in the template file, never inflated and deflated again. The parts shared
+ * by every generated document (styles, numbering, themes, fonts) and the small entries are held in memory; the others,
+ * such as pictures, are copied from the template file when evaluated, so that the memory held by a template does not
+ * grow with its media.
+ */
+final class TemplateContent
+{
+    /** Maximum compressed size of the entries held in memory, but the shared parts. */
+    private static final long SMALL_ENTRY = 16 * 1024;
+
+    /** Entry names, in template order. */
+    private final List<String> names;
+    /** Compressed entries, by name: every entry but the dynamic template parts. */
+    private final Map<String, PackedEntry> entries;
+    /** Prepared markup of the dynamic template parts, by name. */
+    private final Map<String, String> sources;
+
+    private TemplateContent(List<String> names, Map<String, PackedEntry> entries, Map<String, String> sources)
+    {
+        this.names = Collections.unmodifiableList(names);
+        this.entries = Collections.unmodifiableMap(entries);
+        this.sources = Collections.unmodifiableMap(sources);
+    }
+
+    /**
+     * Loads the content of the given prepared template.
+     * @param templateFile the prepared template file, read while the content is used.
+     * @param parts the parts of the template.
+     * @return the template content.
+     * @throws IOException if the template file cannot be read.
+     */
+    static TemplateContent load(Path templateFile, List<Part> parts) throws IOException
+    {
+        Map<String, Part> templateParts = new HashMap<>();
+        for (Part part : parts)
+        {
+            if (part.getType().isTemplate() && part.isDynamic())
+            {
+                templateParts.put(part.getName(), part);
+            }
+        }
+
+        List<String> names = new ArrayList<>();
+        Map<String, PackedEntry> entries = new HashMap<>();
+        Map<String, String> sources = new HashMap<>();
+        for (PackedEntry entry : PackedEntry.list(templateFile))
+        {
+            names.add(entry.getName());
+            if (templateParts.containsKey(entry.getName()))
+            {
+                sources.put(entry.getName(), PartIO.removeLineBreaks(PartIO.decode(entry.unpack())));
+            }
+            else if (isShared(entry.getName()) || entry.getCompressedSize() <= SMALL_ENTRY)
+            {
+                entries.put(entry.getName(), entry.load());
+            }
+            else
+            {
+                entries.put(entry.getName(), entry);
+            }
+        }
+        return new TemplateContent(names, entries, sources);
+    }
+
+    /** Returns true if the given entry is shared by every generated document: styles, numbering, themes, fonts. */
+    private static boolean isShared(String name)
+    {
+        return name.equals("word/styles.xml") || name.equals("word/stylesWithEffects.xml")
+                || name.equals("word/numbering.xml") || name.equals("word/fontTable.xml")
+                || name.startsWith("word/theme/") || name.startsWith("word/fonts/");
+    }
+
+    /**
+     * Returns the entry names, in template order.
+     * @return the entry names.
+     */
+    List<String> getNames()
+    {
+        return names;
+    }
+
+    /**
+     * Returns the compressed entry of the given name.
+     * @param name the entry name.
+     * @return the compressed entry, or null if the entry is a dynamic template part or does not exist.
+     */
+    PackedEntry getEntry(String name)
+    {
+        return entries.get(name);
+    }
+
+    /**
+     * Returns the prepared markup of the given dynamic template part, without line breaks.
+     * @param name the part name.
+     * @return the prepared markup, or null if the entry is not a dynamic template part.
+     */
+    String getSource(String name)
+    {
+        return sources.get(name);
+    }
+}
@@ -0,0 +1,510 @@
+package io.github.flef.webble;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mitchellbosecke.pebble.PebbleEngine;
+
+/**
+ * Renders a {@link WebbleTemplate} once per record of a batch input file, in parallel, into an output directory or a
+ * single zip file.
+ * <p>
+ * Records are read from JSON Lines or CSV files (see {@link #toContext(Map)} for the field names), one at a time: the
+ * input is streamed and only a bounded number of records are held at once, whatever its size. A record that cannot be
+ * rendered is logged and counted as failed, the batch goes on. So is a record naming its document as a previous record
+ * did, or as a file of the output directory: documents are never overwritten.
+ * <p>
+ * This is the bulk rendering API: on Java 21 and later, the multi-release jar renders each document on its own virtual
+ * thread, at most <code>workers</code> at once.
+ * <p>
+ * Also a command line entry point:
+ *
+ * <pre>
+ * java io.github.flef.webble.WebbleBatch --template offer.docx --input offers.jsonl --output offers.zip
+ *         [--workers 8] [--name reference] [--max-output-bytes 50000000] [--max-loop-iterations 100000]
+ *         [--max-render-time 10000] [--deterministic]
+ * </pre>
+ */
+public class WebbleBatch
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(WebbleBatch.class);
+
+    /** Prefix of the fields setting core properties. */
+    static final String PROPERTY_PREFIX = "property.";
+    /** Prefix of the fields setting custom properties. */
+    static final String CUSTOM_PREFIX = "custom.";
+
+    /** Extension of the generated documents. */
+    private static final String DOCX_EXTENSION = ".docx";
+    /** Extension of zip outputs. */
+    private static final String ZIP_EXTENSION = ".zip";
+    /** Records queued per worker, bounding the records held in memory. */
+    private static final int QUEUED_PER_WORKER = 2;
+    /** Interval between two progress lines of the command line, in seconds. */
+    private static final int PROGRESS_INTERVAL = 1;
+
+    private final WebbleTemplate template;
+    private final int workers;
+    private final String nameField;
+
+    private WebbleLimits limits = WebbleLimits.UNLIMITED;
+    private boolean deterministic;
+
+    private final AtomicLong rendered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong renderedBytes = new AtomicLong();
+
+    /**
+     * The class constructor.
+     * @param template the {@link WebbleTemplate} to render, not closed by the batch.
+     * @param workers the number of documents rendered in parallel.
+     * @param nameField the field naming the generated documents, or null to name them by record number.
+     */
+    public WebbleBatch(WebbleTemplate template, int workers, String nameField)
+    {
+        if (workers < 1)
+        {
+            throw new IllegalArgumentException("Workers must be positive: " + workers);
+        }
+        this.template = template;
+        this.workers = workers;
+        this.nameField = nameField;
+    }
+
+    /**
+     * Sets the limits of the rendering of each document: a record exceeding them fails, the batch goes on.
+     * @param limits the limits of each document, {@link WebbleLimits#UNLIMITED} by default.
+     */
+    public void setLimits(WebbleLimits limits)
+    {
+        this.limits = limits == null ? WebbleLimits.UNLIMITED : limits;
+    }
+
+    /**
+     * Sets whether the documents are reproducible, see {@link WebbleContext#setDeterministic(boolean)}.
+     * @param deterministic true to generate reproducible documents, false by default.
+     */
+    public void setDeterministic(boolean deterministic)
+    {
+        this.deterministic = deterministic;
+    }
+
+    /**
+     * Renders a document per record of the given input, into the given output: a zip file if its name ends with
+     * <code>.zip</code>, a directory otherwise.
+     * @param input the JSON Lines or CSV input file, see {@link BatchInput}.
+     * @param output the output zip file or directory, created if missing.
+     * @throws IOException if the input cannot be read or is malformed, or the output cannot be written.
+     */
+    public void render(Path input, Path output) throws IOException
+    {
+        boolean zip = output.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(ZIP_EXTENSION);
+        if (zip)
+        {
+            if (output.toAbsolutePath().getParent() != null)
+            {
+                Files.createDirectories(output.toAbsolutePath().getParent());
+            }
+            try (ZipOutputStream zipOutput = new ZipOutputStream(Files.newOutputStream(output)))
+            {
+                Lock zipLock = new ReentrantLock();
+                render(input, (name, document) -> writeEntry(zipOutput, zipLock, name, document));
+            }
+        }
+        else
+        {
+            Files.createDirectories(output);
+            render(input, (name, document) ->
+            {
+                // a document already written fails, e.g. named by a previous record
+                try (OutputStream out = Files.newOutputStream(output.resolve(name), StandardOpenOption.CREATE_NEW))
+                {
+                    document.writeTo(out);
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the number of documents rendered, since this batch was created.
+     * @return the number of documents rendered.
+     */
+    public long getRenderedCount()
+    {
+        return rendered.get();
+    }
+
+    /**
+     * Returns the number of records that could not be rendered, since this batch was created.
+     * @return the number of records that could not be rendered.
+     */
+    public long getFailedCount()
+    {
+        return failed.get();
+    }
+
+    /**
+     * Returns the total size of the documents rendered, since this batch was created.
+     * @return the total size of the documents rendered, in bytes.
+     */
+    public long getRenderedBytes()
+    {
+        return renderedBytes.get();
+    }
+
+    /**
+     * Builds the context of a record. Fields named <code>property.&lt;name&gt;</code> set the core property of that
+     * name (<code>title</code>, <code>subject</code>, <code>creator</code>, <code>keywords</code>,
+     * <code>description</code>, <code>lastModifiedBy</code>, <code>revision</code>, and <code>created</code> or
+     * <code>modified</code> as ISO-8601 instants), fields named <code>custom.&lt;name&gt;</code> set the custom property
+     * of that name, any other field is bound by name.
+     * @param record the record fields, by name.
+     * @return the context of the record.
+     * @throws IllegalArgumentException if a core property is unknown or its value malformed.
+     */
+    static WebbleContext toContext(Map<String, Object> record)
+    {
+        WebbleContext context = new WebbleContext();
+        for (Map.Entry<String, Object> field : record.entrySet())
+        {
+            String name = field.getKey();
+            Object value = field.getValue();
+            if (name.startsWith(PROPERTY_PREFIX))
+            {
+                setProperty(context, name.substring(PROPERTY_PREFIX.length()), value);
+            }
+            else if (name.startsWith(CUSTOM_PREFIX))
+            {
+                context.setCustomProperty(name.substring(CUSTOM_PREFIX.length()),
+                        value == null ? null : value.toString());
+            }
+            else
+            {
+                context.bind(name, value);
+            }
+        }
+        return context;
+    }
+
+    private static void setProperty(WebbleContext context, String property, Object value)
+    {
+        String text = value == null ? null : value.toString();
+        try
+        {
+            switch (property)
+            {
+                case "title":
+                    context.setPropertyTitle(text);
+                    break;
+                case "subject":
+                    context.setPropertySubject(text);
+                    break;
+                case "creator":
+                    context.setPropertyCreator(text);
+                    break;
+                case "keywords":
+                    context.setPropertyKeywords(text);
+                    break;
+                case "description":
+                    context.setPropertyDescription(text);
+                    break;
+                case "lastModifiedBy":
+                    context.setPropertyLastModifiedBy(text);
+                    break;
+                case "revision":
+                    context.setPropertyRevision(text == null ? null : Integer.valueOf(text));
+                    break;
+                case "created":
+                    context.setPropertyCreated(text == null ? null : Instant.parse(text));
+                    break;
+                case "modified":
+                    context.setPropertyModified(text == null ? null : Instant.parse(text));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown core property: " + property);
+            }
+        }
+        catch (NumberFormatException | DateTimeParseException e)
+        {
+            throw new IllegalArgumentException("Malformed core property " + property + ": " + text, e);
+        }
+    }
+
+    private void render(Path input, DocumentSink sink) throws IOException
+    {
+        // one engine for the run: the dynamic parts are parsed once, not once per record
+        PebbleEngine engine = WebbleEngine.newEngine(template.getFragments());
+        ExecutorService executor = Workers.newExecutor(workers, "webble-batch");
+        // virtual threads are not pooled: records are then bounded by the workers, not queued
+        Semaphore queued = new Semaphore(Workers.isVirtual() ? workers : workers * QUEUED_PER_WORKER);
+        try (BatchInput records = BatchInput.open(input))
+        {
+            long index = 0;
+            Map<String, Object> record;
+            while ((record = records.next()) != null)
+            {
+                index++;
+                long line = records.getRecordLine();
+                String name = documentName(record, index);
+                Map<String, Object> fields = record;
+
+                queued.acquireUninterruptibly();
+                executor.execute(() ->
+                {
+                    try
+                    {
+                        renderRecord(engine, fields, name, sink);
+                    }
+                    catch (IOException | RuntimeException e)
+                    {
+                        failed.incrementAndGet();
+                        LOGGER.error("Cannot render record at line {} of {}.", line, input, e);
+                    }
+                    finally
+                    {
+                        queued.release();
+                    }
+                });
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+            try
+            {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void renderRecord(PebbleEngine engine, Map<String, Object> record, String name, DocumentSink sink)
+            throws IOException
+    {
+        WebbleContext context = toContext(record);
+        context.setLimits(limits);
+        context.setDeterministic(deterministic);
+        try (WebbleDocument document = WebbleEngine.render(engine, template, context))
+        {
+            sink.accept(name, document);
+            renderedBytes.addAndGet(Files.size(document.getPath()));
+            rendered.incrementAndGet();
+        }
+    }
+
+    private String documentName(Map<String, Object> record, long index)
+    {
+        Object name = nameField == null ? null : record.get(nameField);
+        if (name == null || name.toString().isEmpty())
+        {
+            return String.format("%06d", index) + DOCX_EXTENSION;
+        }
+        return name.toString().replaceAll("[^\\p{L}\\p{N}._ -]", "_") + DOCX_EXTENSION;
+    }
+
+    /**
+     * Writes a document as a stored entry: documents are already compressed. The zip is guarded by a lock rather than a
+     * monitor, not to pin virtual threads writing.
+     */
+    private static void writeEntry(ZipOutputStream zip, Lock zipLock, String name, WebbleDocument document)
+            throws IOException
+    {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[8192];
+        int len;
+        try (InputStream is = Files.newInputStream(document.getPath()))
+        {
+            while ((len = is.read(buffer)) > 0)
+            {
+                crc.update(buffer, 0, len);
+            }
+        }
+
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(Files.size(document.getPath()));
+        entry.setCrc(crc.getValue());
+        zipLock.lock();
+        try
+        {
+            zip.putNextEntry(entry);
+            document.writeTo(zip);
+            zip.closeEntry();
+        }
+        finally
+        {
+            zipLock.unlock();
+        }
+    }
+
+    /** Receives the rendered documents, from the workers. Refuses a name already received: names are not kept. */
+    @FunctionalInterface
+    private interface DocumentSink
+    {
+        /** Stores the given document under the given name. */
+        void accept(String name, WebbleDocument document) throws IOException;
+    }
+
+    /**
+     * Command line entry point, see {@link WebbleBatch}. Prints the progress and the throughput to the standard
+     * error, and exits with status 1 if a record failed, 2 on usage or input errors.
+     * @param args the command line arguments.
+     */
+    public static void main(String[] args)
+    {
+        Path templatePath = null;
+        Path input = null;
+        Path output = null;
+        int workers = Runtime.getRuntime().availableProcessors();
+        String nameField = null;
+        long maxOutputBytes = Long.MAX_VALUE;
+        long maxLoopIterations = Long.MAX_VALUE;
+        long maxRenderMillis = Long.MAX_VALUE;
+        boolean deterministic = false;
+        WebbleLimits limits;
+
+        try
+        {
+            for (int i = 0; i < args.length; i++)
+            {
+                String value = i + 1 < args.length ? args[i + 1] : null;
+                switch (args[i])
+                {
+                    case "--template":
+                        templatePath = Paths.get(required(args[i], value));
+                        break;
+                    case "--input":
+                        input = Paths.get(required(args[i], value));
+                        break;
+                    case "--output":
+                        output = Paths.get(required(args[i], value));
+                        break;
+                    case "--workers":
+                        workers = Integer.parseInt(required(args[i], value));
+                        break;
+                    case "--name":
+                        nameField = required(args[i], value);
+                        break;
+                    case "--max-output-bytes":
+                        maxOutputBytes = Long.parseLong(required(args[i], value));
+                        break;
+                    case "--max-loop-iterations":
+                        maxLoopIterations = Long.parseLong(required(args[i], value));
+                        break;
+                    case "--max-render-time":
+                        maxRenderMillis = Long.parseLong(required(args[i], value));
+                        break;
+                    case "--deterministic":
+                        deterministic = true;
+                        continue; // no value
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+                i++;
+            }
+            if (templatePath == null || input == null || output == null)
+            {
+                throw new IllegalArgumentException("--template, --input and --output are required.");
+            }
+            limits = new WebbleLimits(maxOutputBytes, maxLoopIterations, maxRenderMillis);
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java " + WebbleBatch.class.getName()
+                    + " --template <docx|wbbl> --input <jsonl|csv> --output <directory|zip>"
+                    + " [--workers <count>] [--name <field>] [--max-output-bytes <bytes>]"
+                    + " [--max-loop-iterations <count>] [--max-render-time <ms>] [--deterministic]");
+            System.exit(2);
+            return;
+        }
+
+        System.exit(run(templatePath, input, output, workers, nameField, limits, deterministic));
+    }
+
+    private static int run(Path templatePath, Path input, Path output, int workers, String nameField,
+            WebbleLimits limits, boolean deterministic)
+    {
+        boolean prepared = templatePath.getFileName().toString().endsWith(WebbleTemplate.WEBBLE_EXTENSION);
+        try (WebbleTemplate template = prepared ? WebbleTemplate.load(templatePath)
+                : WebbleEngine.prepare(templatePath))
+        {
+            WebbleBatch batch = new WebbleBatch(template, workers, nameField);
+            batch.setLimits(limits);
+            batch.setDeterministic(deterministic);
+            long start = System.nanoTime();
+
+            ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(r ->
+            {
+                Thread thread = new Thread(r, "webble-batch-progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+            progress.scheduleAtFixedRate(() -> System.err.print("\r" + batch.stats(start)), PROGRESS_INTERVAL,
+                    PROGRESS_INTERVAL, TimeUnit.SECONDS);
+            try
+            {
+                batch.render(input, output);
+            }
+            finally
+            {
+                progress.shutdownNow();
+            }
+
+            System.err.println("\r" + batch.stats(start));
+            return batch.getFailedCount() == 0 ? 0 : 1;
+        }
+        catch (IOException e)
+        {
+            System.err.println();
+            System.err.println("Batch aborted: " + e.getMessage());
+            LOGGER.error("Batch aborted.", e);
+            return 2;
+        }
+    }
+
+    /** Formats the progress and the throughput since the given start. */
+    private String stats(long start)
+    {
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        long documents = getRenderedCount();
+        return String.format(Locale.ROOT, "%d rendered, %d failed, %.1f s, %.1f documents/s, %.2f MB/s", documents,
+                getFailedCount(), seconds, documents / seconds, getRenderedBytes() / seconds / 1e6);
+    }
+
+    private static String required(String option, String value)
+    {
+        if (value == null)
+        {
+            throw new IllegalArgumentException("Missing value of " + option);
+        }
+        return value;
+    }
+}
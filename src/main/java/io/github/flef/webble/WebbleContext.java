@@ -4,7 +4,7 @@ import java.time.Instant;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.function.Function;
+import java.util.TreeMap;
 
 /**
  * The {@link WebbleContext} holds all the values to bind to the {@link WebbleTemplate}. Values can be document
@@ -12,46 +12,22 @@ import java.util.function.Function;
  */
 public class WebbleContext
 {
-    private static final String MODIFIED = "modified";
-    private static final String CREATED = "created";
-    private static final String REVISION = "revision";
-    private static final String LAST_MODIFIED_BY = "lastModifiedBy";
-    private static final String DESCRIPTION = "description";
-    private static final String KEYWORDS = "keywords";
-    private static final String CREATOR = "creator";
-    private static final String SUBJECT = "subject";
-    private static final String TITLE = "title";
-
-    private final WordProperty<String> propertyCoreTitle = new WordProperty<>(TITLE, WordProperty.STRING);
-    private final WordProperty<String> propertyCoreSubject = new WordProperty<>(SUBJECT, String::valueOf);
-    private final WordProperty<String> propertyCoreCreator = new WordProperty<>(CREATOR, WordProperty.STRING);
-    private final WordProperty<String> propertyCoreKeywords = new WordProperty<>(KEYWORDS, WordProperty.STRING);
-    private final WordProperty<String> propertyCoreDescription = new WordProperty<>(DESCRIPTION,
-            WordProperty.STRING);
-    private final WordProperty<String> propertyCoreLastModifiedBy = new WordProperty<>(LAST_MODIFIED_BY,
-            WordProperty.STRING);
-    private final WordProperty<Integer> propertyCoreRevision = new WordProperty<>(REVISION, WordProperty.INTEGER);
-    private final WordProperty<Instant> propertyCoreCreated = new WordProperty<>(CREATED, WordProperty.DATE);
-    private final WordProperty<Instant> propertyCoreModified = new WordProperty<>(MODIFIED, WordProperty.DATE);
-
-    private final Map<String, WordProperty<?>> coreProperties = new HashMap<>();
+    /** Values of the core properties, indexed by {@link WordProperty#ordinal()}, allocated once one is set. */
+    private Object[] coreProperties;
+    /** Bitmask of the core properties set, by {@link WordProperty#ordinal()}. */
+    private int corePropertiesSet;
+
     private final Map<String, String> customProperties = new HashMap<>();
     private final Map<String, Object> objectsBindings = new HashMap<>();
+    private WebbleLimits limits = WebbleLimits.UNLIMITED;
+    private boolean deterministic;
 
     /**
      * Constructor.
      */
     public WebbleContext()
     {
-        coreProperties.put(MODIFIED, propertyCoreModified);
-        coreProperties.put(CREATED, propertyCoreCreated);
-        coreProperties.put(REVISION, propertyCoreRevision);
-        coreProperties.put(LAST_MODIFIED_BY, propertyCoreLastModifiedBy);
-        coreProperties.put(DESCRIPTION, propertyCoreDescription);
-        coreProperties.put(KEYWORDS, propertyCoreKeywords);
-        coreProperties.put(CREATOR, propertyCoreCreator);
-        coreProperties.put(SUBJECT, propertyCoreSubject);
-        coreProperties.put(TITLE, propertyCoreTitle);
+
     }
 
     /**
@@ -86,6 +62,48 @@ public class WebbleContext
         return Collections.unmodifiableMap(objectsBindings);
     }
 
+    /**
+     * Set the limits of the rendering, {@link WebbleLimits#UNLIMITED} by default.
+     * 
+     * @param limits the limits of the rendering.
+     */
+    public void setLimits(WebbleLimits limits)
+    {
+        this.limits = limits == null ? WebbleLimits.UNLIMITED : limits;
+    }
+
+    /**
+     * Returns the limits of the rendering.
+     * 
+     * @return the limits of the rendering.
+     */
+    WebbleLimits getLimits()
+    {
+        return limits;
+    }
+
+    /**
+     * Set whether the generated document is reproducible, false by default. Deterministic documents list their
+     * entries in template order, all dated 1980-01-01: rendering the same template with equal contexts generates the
+     * same bytes, to deduplicate or compare documents by content.
+     * 
+     * @param deterministic true to generate reproducible documents.
+     */
+    public void setDeterministic(boolean deterministic)
+    {
+        this.deterministic = deterministic;
+    }
+
+    /**
+     * Returns true if the generated document is reproducible.
+     * 
+     * @return true if the generated document is reproducible.
+     */
+    boolean isDeterministic()
+    {
+        return deterministic;
+    }
+
     /**
      * Set the custom property of the Word document.
      * 
@@ -104,7 +122,7 @@ public class WebbleContext
      */
     public void setPropertyTitle(String value)
     {
-        propertyCoreTitle.setValue(value);
+        setCoreProperty(WordProperty.TITLE, value);
     }
 
     /**
@@ -114,7 +132,7 @@ public class WebbleContext
      */
     public void setPropertySubject(String value)
     {
-        propertyCoreSubject.setValue(value);
+        setCoreProperty(WordProperty.SUBJECT, value);
     }
 
     /**
@@ -124,7 +142,7 @@ public class WebbleContext
      */
     public void setPropertyCreator(String value)
     {
-        propertyCoreCreator.setValue(value);
+        setCoreProperty(WordProperty.CREATOR, value);
     }
 
     /**
@@ -134,7 +152,7 @@ public class WebbleContext
      */
     public void setPropertyKeywords(String value)
     {
-        propertyCoreKeywords.setValue(value);
+        setCoreProperty(WordProperty.KEYWORDS, value);
     }
 
     /**
@@ -144,7 +162,7 @@ public class WebbleContext
      */
     public void setPropertyDescription(String value)
     {
-        propertyCoreDescription.setValue(value);
+        setCoreProperty(WordProperty.DESCRIPTION, value);
     }
 
     /**
@@ -154,7 +172,7 @@ public class WebbleContext
      */
     public void setPropertyLastModifiedBy(String value)
     {
-        propertyCoreLastModifiedBy.setValue(value);
+        setCoreProperty(WordProperty.LAST_MODIFIED_BY, value);
     }
 
     /**
@@ -164,7 +182,7 @@ public class WebbleContext
      */
     public void setPropertyRevision(Integer value)
     {
-        propertyCoreRevision.setValue(value);
+        setCoreProperty(WordProperty.REVISION, value);
     }
 
     /**
@@ -174,7 +192,7 @@ public class WebbleContext
      */
     public void setPropertyCreated(Instant value)
     {
-        propertyCoreCreated.setValue(value);
+        setCoreProperty(WordProperty.CREATED, value);
     }
 
     /**
@@ -184,17 +202,70 @@ public class WebbleContext
      */
     public void setPropertyModified(Instant value)
     {
-        propertyCoreModified.setValue(value);
+        setCoreProperty(WordProperty.MODIFIED, value);
+    }
+
+    /**
+     * Returns true if at least one core property has been set.
+     * 
+     * @return true if at least one core property has been set.
+     */
+    boolean hasCoreProperties()
+    {
+        return corePropertiesSet != 0;
+    }
+
+    /**
+     * Returns true if a value has been set to the given core property, false otherwise.
+     * 
+     * @param property the core property.
+     * @return true if a value has been set to the given core property, false otherwise.
+     */
+    boolean isCorePropertySet(WordProperty property)
+    {
+        return (corePropertiesSet & (1 << property.ordinal())) != 0;
     }
 
     /**
-     * Returns the Map of Word core properties.
+     * Returns the value of the given core property (if any, or null).
      * 
-     * @return the Map of Word core properties.
+     * @param property the core property.
+     * @return the value of the given core property (if any, or null).
      */
-    Map<String, WordProperty<?>> getCoreProperties()
+    Object getCoreProperty(WordProperty property)
     {
-        return coreProperties;
+        return coreProperties == null ? null : coreProperties[property.ordinal()];
+    }
+
+    /**
+     * Returns the value of the given core property serialized into a String, or empty string if not set.
+     * 
+     * @param property the core property.
+     * @return the value of the given core property serialized into a String, or empty string if not set.
+     */
+    String getFormattedCoreProperty(WordProperty property)
+    {
+        Object value = getCoreProperty(property);
+        return value == null ? "" : value.toString();
+    }
+
+    private void setCoreProperty(WordProperty property, Object value)
+    {
+        if (value == null)
+        {
+            corePropertiesSet &= ~(1 << property.ordinal());
+            if (coreProperties != null)
+            {
+                coreProperties[property.ordinal()] = null;
+            }
+            return;
+        }
+        if (coreProperties == null)
+        {
+            coreProperties = new Object[WordProperty.VALUES.length];
+        }
+        coreProperties[property.ordinal()] = value;
+        corePropertiesSet |= 1 << property.ordinal();
     }
 
     /**
@@ -208,84 +279,109 @@ public class WebbleContext
     }
 
     /**
-     * Represent a Word Core property.
+     * Returns a stable digest of the bindings and properties of this context, equal for contexts rendering the same
+     * document.
      * 
-     * @param <T> the type of the object to bind
+     * @return the digest as hexadecimal, or null if a bound value cannot be digested (see {@link Fingerprint}).
      */
-    static class WordProperty<T>
+    String fingerprint()
     {
-        static final Function<String, String> STRING = s -> s;
-        static final Function<Integer, String> INTEGER = i -> Integer.toString(i);
-        static final Function<Instant, String> DATE = Instant::toString;
+        Fingerprint fingerprint = new Fingerprint();
 
-        private final String referer;
-        private final Function<T, String> formatter;
-        private T value;
-
-        /**
-         * The class constructor.
-         * 
-         * @param referer   the name of the word property
-         * @param formatter the formatter used to convert bind object to String value.
-         */
-        WordProperty(String referer, Function<T, String> formatter)
+        fingerprint.add(deterministic ? "deterministic" : "dated");
+        fingerprint.add("core");
+        for (WordProperty property : WordProperty.VALUES)
         {
-            this.referer = referer;
-            this.formatter = formatter;
+            if (isCorePropertySet(property))
+            {
+                fingerprint.add(property.getReferer()).addValue(getCoreProperty(property));
+            }
         }
 
-        /**
-         * Returns the Core property name.
-         * 
-         * @return the Core property name.
-         */
-        public String getReferer()
+        fingerprint.add("custom");
+        for (Map.Entry<String, String> property : new TreeMap<>(customProperties).entrySet())
         {
-            return referer;
+            fingerprint.add(property.getKey()).addValue(property.getValue());
         }
 
-        /**
-         * Returns the property bound value. (if any, or null).
-         * 
-         * @return the property bound value. (if any, or null).
-         */
-        public T getValue()
+        fingerprint.add("bindings");
+        for (Map.Entry<String, Object> binding : new TreeMap<>(objectsBindings).entrySet())
         {
-            return value;
+            if (!fingerprint.add(binding.getKey()).addValue(binding.getValue()))
+            {
+                return null;
+            }
         }
 
+        return fingerprint.toHex();
+    }
+
+    /**
+     * Represent a Word Core property, named as the element of <code>docProps/core.xml</code> holding it. Values are
+     * serialized with their {@link Object#toString()}: ISO-8601 for dates.
+     */
+    enum WordProperty
+    {
+        /** Title. */
+        TITLE("title"),
+        /** Subject. */
+        SUBJECT("subject"),
+        /** Creator. */
+        CREATOR("creator"),
+        /** Keywords. */
+        KEYWORDS("keywords"),
+        /** Description. */
+        DESCRIPTION("description"),
+        /** Last modified by. */
+        LAST_MODIFIED_BY("lastModifiedBy"),
+        /** Revision. */
+        REVISION("revision"),
+        /** Created. */
+        CREATED("created"),
+        /** Modified. */
+        MODIFIED("modified");
+
+        /** All the core properties, not copied on each access. */
+        static final WordProperty[] VALUES = values();
+
+        private final String referer;
+
         /**
-         * Returns the property value serialized into a String, or empty string if value hasn't been bound.
+         * The enum constructor.
          * 
-         * @return the property value serialized into a String, or empty string if value hasn't been bound.
+         * @param referer the name of the word property
          */
-        public String getFormattedValue()
+        WordProperty(String referer)
         {
-            if (value == null)
-            {
-                return "";
-            }
-            return formatter.apply(value);
+            this.referer = referer;
         }
 
         /**
-         * Bind a value to the core property.
+         * Returns the Core property name.
          * 
-         * @param value the value to bind to the property.
+         * @return the Core property name.
          */
-        public void setValue(T value)
+        String getReferer()
         {
-            this.value = value;
+            return referer;
         }
 
         /**
-         * Returns true if a value has been bound to the property, false otherwise.
+         * Returns the Core property of the given name.
          * 
-         * @return true if a value has been bound to the property, false otherwise.
+         * @param referer the name of the word property, as the local name of its element.
+         * @return the Core property of the given name, or null if not a Core property.
          */
-        public boolean isSet()
+        static WordProperty forReferer(String referer)
         {
-            return true;
+            for (WordProperty property : VALUES)
+            {
+                if (property.referer.equals(referer))
+                {
+                    return property;
+                }
+            }
+            return null;
         }
     }
 }
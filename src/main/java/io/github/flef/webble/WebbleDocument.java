@@ -0,0 +1,53 @@
+package io.github.flef.webble;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import io.github.flef.webble.WebbleScratchSpace.Lease;
+
+/**
+ * A generated Microsoft Word Document, held in the {@link WebbleScratchSpace} until closed.
+ */
+public class WebbleDocument implements AutoCloseable
+{
+    private final Lease file;
+
+    /**
+     * The class constructor.
+     * @param file the lease of the generated document file.
+     */
+    WebbleDocument(Lease file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Returns the path to the generated document, valid until this {@link WebbleDocument} is closed.
+     * @return the path to the generated document.
+     */
+    public Path getPath()
+    {
+        return file.getPath();
+    }
+
+    /**
+     * Copies the generated document to the given stream.
+     * @param out the stream to write the document to.
+     * @throws IOException if the document cannot be copied.
+     */
+    public void writeTo(OutputStream out) throws IOException
+    {
+        Files.copy(file.getPath(), out);
+    }
+
+    /**
+     * Deletes the generated document, and releases its space.
+     */
+    @Override
+    public void close()
+    {
+        file.close();
+    }
+}
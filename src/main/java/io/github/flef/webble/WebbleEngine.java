@@ -1,32 +1,41 @@
 package io.github.flef.webble;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-
-import javax.sound.midi.SysexMessage;
 
 import org.jdom2.Comment;
+import org.jdom2.Content;
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.Namespace;
-import org.jdom2.Parent;
 import org.jdom2.filter.ElementFilter;
 
 import com.mitchellbosecke.pebble.PebbleEngine;
 import com.mitchellbosecke.pebble.loader.StringLoader;
 
+import io.github.flef.webble.MediaInjector.PackageContent;
 import io.github.flef.webble.WebbleContext.WordProperty;
+import io.github.flef.webble.WebbleImage.MediaCollector;
+import io.github.flef.webble.WebbleScratchSpace.Lease;
+import io.github.flef.webble.WebbleTemplateReport.PartReport;
 
 /**
  * This class is used to generate docx document from a template and a given context.
@@ -36,6 +45,16 @@ public class WebbleEngine
     /** w: namespace. */
     private final static Namespace NS_W = Namespace.getNamespace("w",
             "http://schemas.openxmlformats.org/wordprocessingml/2006/main");
+    /** An XML comment, holding a lifted statement. */
+    private static final Pattern COMMENT = Pattern.compile("\\<!--(.*?)--\\>");
+    /** An expression or a statement, possibly split across runs. */
+    private static final Pattern STATEMENT = Pattern.compile("((\\{\\{)|(\\{%)).*?((\\}\\})|(%\\}))");
+    /** Text made only of statements, such as <code>{% for item in list %}</code>. */
+    private static final Pattern STATEMENTS_ONLY = Pattern.compile("(\\{%.*?%\\}\\s*)+");
+    /** An XML node inside a statement split across runs. */
+    private static final Pattern XML_NODE = Pattern.compile("<[^>]+>");
+    /** French quotes around a string of a statement, with their non-breaking spaces. */
+    private static final Pattern GUILLEMETS = Pattern.compile("(«\\u00A0?)|(\\u00A0?»)");
     /** vt: namespace. */
     private final static Namespace NS_VT = Namespace.getNamespace("vt",
             "http://schemas.openxmlformats.org/officeDocument/2006/docPropsVTypes");
@@ -44,21 +63,145 @@ public class WebbleEngine
      * Prepares the docx document to be used as a template.
      * For single use, see {@link #evaluate(Path, WebbleContext)}
      * @param docx the path to a valid Microsoft Word Document used as the template.
-     * @return a {@link WebbleTemplate} from the given docx.
+     * @return a {@link WebbleTemplate} from the given docx, to close once no longer used.
      * @throws IOException if the given path is not a valid Microsoft Word Document, or the MS Word cannot be prepared.
      */
     public static WebbleTemplate prepare(Path docx) throws IOException
     {
-        Path unpackageDocx = Packager.unpackageDocx(docx);
+        return prepare(docx, null);
+    }
 
-        for (Path part : getParts(unpackageDocx))
+    /**
+     * Prepares the docx document to be used as a template, including fragments of the given registry: their styles
+     * and numbering are merged into the template, their compiled bodies are shared when rendering.
+     * @param docx the path to a valid Microsoft Word Document used as the template.
+     * @param fragments the fragments the template includes, or null if none.
+     * @return a {@link WebbleTemplate} from the given docx, to close once no longer used.
+     * @throws IOException if the given path is not a valid Microsoft Word Document, or the MS Word cannot be prepared,
+     * or it includes fragments not registered.
+     */
+    public static WebbleTemplate prepare(Path docx, WebbleFragments fragments) throws IOException
+    {
+        WebbleScratchSpace scratchSpace = WebbleScratchSpace.getDefault();
+        
+        try (Lease workingDirectory = unpackage(scratchSpace, docx))
         {
-            String xmlContent = prepareDocument(part);
-            Files.write(part, Arrays.asList(new String[] { xmlContent }), StandardOpenOption.TRUNCATE_EXISTING);
+            Path unpackageDocx = workingDirectory.getPath();
+            
+            List<Part> parts = new ArrayList<>();
+            List<PartReport> reports = new ArrayList<>();
+            long dynamicSourceBytes = 0;
+            Set<String> included = new LinkedHashSet<>();
+            String documentPart = null;
+            for (Part part : Part.list(unpackageDocx))
+            {
+                PartReport report = new PartReport(part, Files.size(part.resolve(unpackageDocx)));
+                if (part.getType() == PartType.DOCUMENT)
+                {
+                    documentPart = part.getName();
+                }
+                if (part.getType().isTemplate())
+                {
+                    String xmlContent = prepareDocument(part.resolve(unpackageDocx), report);
+                    boolean dynamic = Part.containsTags(xmlContent);
+                    Set<String> partIncluded = fragments == null ? Collections.emptySet()
+                            : fragments.includedBy(xmlContent);
+                    if (!partIncluded.isEmpty())
+                    {
+                        xmlContent = fragments.declareNamespaces(xmlContent, partIncluded);
+                        included.addAll(partIncluded);
+                    }
+                    if (dynamic) // else keep the original part, copied as is
+                    {
+                        PartIO.write(part.resolve(unpackageDocx), xmlContent);
+                    }
+                    part = new Part(part.getName(), part.getType(), dynamic);
+                    report.prepared(xmlContent, dynamic);
+                }
+                if (part.isDynamic())
+                {
+                    dynamicSourceBytes += report.getSourceBytes();
+                }
+                parts.add(part);
+                reports.add(report);
+            }
+            if (!included.isEmpty())
+            {
+                if (documentPart == null)
+                {
+                    throw new IOException("No main document part in template " + docx);
+                }
+                fragments.mergeDefinitions(unpackageDocx, documentPart, included);
+            }
+            long staticBytes = Packager.unpackagedSize(docx) - dynamicSourceBytes;
+            
+            Lease packageTemplate = scratchSpace.createFile("template", WebbleTemplate.WEBBLE_EXTENSION,
+                    Files.size(docx));
+            try
+            {
+                Packager.packageDocx(unpackageDocx, packageTemplate.getPath(), Packager.entryNames(docx));
+                packageTemplate.updateSize();
+            }
+            catch (IOException | RuntimeException e)
+            {
+                packageTemplate.close();
+                throw e;
+            }
+            return new WebbleTemplate(packageTemplate,
+                    docx.getFileName().toString().replaceFirst("(.*)\\.docx$", "$1"), parts,
+                    new WebbleTemplateReport(reports, staticBytes), fragments);
         }
+    }
+    
+    /**
+     * Specialises the given {@link WebbleTemplate} for the given constant bindings: conditionals whose conditions
+     * only depend on these bindings are folded, keeping the branch taken and removing the others. Rendering the
+     * derived template with a context holding the same bindings generates the same documents, with less to evaluate.
+     * Only bindings are used, properties are not.
+     * @param template the {@link WebbleTemplate} to specialise, left unchanged.
+     * @param constants the {@link WebbleContext} holding the bindings known to be constant.
+     * @return the derived {@link WebbleTemplate}, to close once no longer used.
+     * @throws IOException if the given template is not a valid {@link WebbleTemplate}, or cannot be specialised.
+     */
+    public static WebbleTemplate specialize(WebbleTemplate template, WebbleContext constants) throws IOException
+    {
+        WebbleScratchSpace scratchSpace = WebbleScratchSpace.getDefault();
         
-        Path packageTemplate = Packager.packageDocx(unpackageDocx);
-        return new WebbleTemplate(packageTemplate, docx.getFileName().toString().replaceFirst("(.*)\\.docx$", "$1"));
+        try (Lease workingDirectory = unpackage(scratchSpace, template.getTemplatePath()))
+        {
+            Path unpackageDocx = workingDirectory.getPath();
+            
+            List<Part> parts = new ArrayList<>();
+            for (Part part : template.getParts())
+            {
+                if (part.getType().isTemplate() && part.isDynamic())
+                {
+                    String xmlContent = PartIO.read(part.resolve(unpackageDocx));
+                    String folded = ConstantFolder.fold(xmlContent, constants.getBindings());
+                    if (!folded.equals(xmlContent))
+                    {
+                        PartIO.write(part.resolve(unpackageDocx), folded);
+                        part = new Part(part.getName(), part.getType(), Part.containsTags(folded));
+                    }
+                }
+                parts.add(part);
+            }
+            
+            Lease packageTemplate = scratchSpace.createFile("template", WebbleTemplate.WEBBLE_EXTENSION,
+                    Files.size(template.getTemplatePath()));
+            try
+            {
+                Packager.packageDocx(unpackageDocx, packageTemplate.getPath(),
+                        Packager.entryNames(template.getTemplatePath()));
+                packageTemplate.updateSize();
+            }
+            catch (IOException | RuntimeException e)
+            {
+                packageTemplate.close();
+                throw e;
+            }
+            return new WebbleTemplate(packageTemplate, template.getName(), parts, null, template.getFragments());
+        }
     }
     
     /**
@@ -66,72 +209,335 @@ public class WebbleEngine
      * For single use only. For bulk uses, see {@link WebbleEngine#prepare(Path)}.
      * @param docx the path to a valid Microsoft Word Document used as the template.
      * @param context the {@link WebbleContext} to bind with the template.
-     * @return the path to the created Microsoft Word Document from the given template and context.
+     * @return the path to the created Microsoft Word Document from the given template and context, in the
+     * {@link WebbleScratchSpace} but out of its quota once returned, to be deleted by the caller.
+     * See {@link #render(Path, WebbleContext)} for a managed document.
      * @throws IOException if the given path is not a valid Microsoft Word Document, or the MS Word cannot be evaluated.
      */
     public static Path evaluate(Path docx, WebbleContext context) throws IOException
     {
-        Path unpackageDocx = Packager.unpackageDocx(docx);
+        WebbleScratchSpace scratchSpace = WebbleScratchSpace.getDefault();
+        
+        try (Lease workingDirectory = unpackage(scratchSpace, docx))
+        {
+            Lease document = scratchSpace.createFile(docx.getFileName().toString(), ".docx", Files.size(docx));
+            try
+            {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(document.getPath())))
+                {
+                    evaluateDirectory(workingDirectory.getPath(), Part.list(workingDirectory.getPath()),
+                            Packager.entryNames(docx), context, out);
+                }
+                return document.detach();
+            }
+            catch (IOException | RuntimeException e)
+            {
+                document.close();
+                throw e;
+            }
+        }
+    }
     
-        PebbleEngine engine = new PebbleEngine.Builder().loader(new StringLoader()).build();
+    /**
+     * Evaluates the given {@link WebbleTemplate} to generate a document with the given context.
+     * @param template the {@link WebbleTemplate} used to generate the document.
+     * @param context the {@link WebbleContext} to bind with the template.
+     * @return the path to the created Microsoft Word Document from the given template and context, in the
+     * {@link WebbleScratchSpace} but out of its quota once returned, to be deleted by the caller.
+     * See {@link #render(WebbleTemplate, WebbleContext)} for a managed document.
+     * @throws IOException if the given template is not a valid {@link WebbleTemplate},
+     * or the {@link WebbleTemplate} cannot be evaluated.
+     */
+    public static Path evaluate(WebbleTemplate template, WebbleContext context) throws IOException
+    {
+        Lease document = WebbleScratchSpace.getDefault().createFile(template.getName(), ".docx",
+                Files.size(template.getTemplatePath()));
+        try
+        {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(document.getPath())))
+            {
+                evaluateTemplate(newEngine(template.getFragments()), template, context, out);
+            }
+            return document.detach();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            document.close();
+            throw e;
+        }
+    }
     
-        evaluateCoreProperties(unpackageDocx, context);
-        evaluateCustomProperties(unpackageDocx, context);
+    /**
+     * Evaluates the given docx template, prepare it and generate document with the given context.
+     * For single use only. For bulk uses, see {@link WebbleEngine#prepare(Path)}.
+     * @param docx the path to a valid Microsoft Word Document used as the template.
+     * @param context the {@link WebbleContext} to bind with the template.
+     * @return the created Microsoft Word Document, held in the {@link WebbleScratchSpace} until closed.
+     * @throws IOException if the given path is not a valid Microsoft Word Document, or the MS Word cannot be evaluated.
+     */
+    public static WebbleDocument render(Path docx, WebbleContext context) throws IOException
+    {
+        WebbleScratchSpace scratchSpace = WebbleScratchSpace.getDefault();
         
-        for (Path part : getParts(unpackageDocx))
+        try (Lease workingDirectory = unpackage(scratchSpace, docx))
         {
-            String xmlContent = prepareDocument(part);
-        
-            Writer writer = new StringWriter();
-            engine.getTemplate(xmlContent).evaluate(writer, context.getBindings());
-            Files.write(part, Arrays.asList(new String[] { writer.toString().replaceAll("\n", "<w:br/>") }),
-                    StandardOpenOption.TRUNCATE_EXISTING);
+            Lease document = scratchSpace.createFile("document", ".docx", Files.size(docx));
+            try
+            {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(document.getPath())))
+                {
+                    evaluateDirectory(workingDirectory.getPath(), Part.list(workingDirectory.getPath()),
+                            Packager.entryNames(docx), context, out);
+                }
+                document.updateSize();
+                return new WebbleDocument(document);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                document.close();
+                throw e;
+            }
         }
-    
-        return Packager.packageDocx(unpackageDocx);
     }
     
     /**
      * Evaluates the given {@link WebbleTemplate} to generate a document with the given context.
      * @param template the {@link WebbleTemplate} used to generate the document.
      * @param context the {@link WebbleContext} to bind with the template.
-     * @return the path to the created Microsoft Word Document from the given template and context.
+     * @return the created Microsoft Word Document, held in the {@link WebbleScratchSpace} until closed.
      * @throws IOException if the given template is not a valid {@link WebbleTemplate},
      * or the {@link WebbleTemplate} cannot be evaluated.
      */
-    public static Path evaluate(WebbleTemplate template, WebbleContext context) throws IOException
+    public static WebbleDocument render(WebbleTemplate template, WebbleContext context) throws IOException
+    {
+        return render(newEngine(template.getFragments()), template, context);
+    }
+
+    /**
+     * Renders the given {@link WebbleTemplate} with the given context and engine: documents rendered with the same
+     * engine share the parsing of the template parts.
+     */
+    static WebbleDocument render(PebbleEngine engine, WebbleTemplate template, WebbleContext context)
+            throws IOException
     {
-        Path unpackageDocx = Packager.unpackageDocx(template.getTemplatePath());
+        Lease document = WebbleScratchSpace.getDefault().createFile("document", ".docx",
+                Files.size(template.getTemplatePath()));
+        try
+        {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(document.getPath())))
+            {
+                evaluateTemplate(engine, template, context, out);
+            }
+            document.updateSize();
+            return new WebbleDocument(document);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            document.close();
+            throw e;
+        }
+    }
     
-        PebbleEngine engine = new PebbleEngine.Builder().loader(new StringLoader()).build();
+    /**
+     * Renders only the main document part of the given {@link WebbleTemplate} with the given context, to preview it: a
+     * projection of its paragraphs, runs and tables. Headers, footers, notes and properties are not rendered, and no
+     * document is packaged: a preview takes a fraction of the time of a document.
+     * @param template the {@link WebbleTemplate} to preview.
+     * @param context the {@link WebbleContext} to bind with the template.
+     * @param format the format of the preview.
+     * @return the preview.
+     * @throws IOException if the given template is not a valid {@link WebbleTemplate},
+     * or the {@link WebbleTemplate} cannot be evaluated.
+     */
+    public static String preview(WebbleTemplate template, WebbleContext context, WebblePreviewFormat format)
+            throws IOException
+    {
+        Part document = template.getParts().stream().filter(p -> p.getType() == PartType.DOCUMENT).findFirst()
+                .orElseThrow(() -> new IOException("No main document part in template " + template.getName()));
+        TemplateContent content = template.getContent();
 
-        evaluateCoreProperties(unpackageDocx, context);
-        evaluateCustomProperties(unpackageDocx, context);
-        
-        for (Path part : getParts(unpackageDocx))
+        String xmlContent = content.getSource(document.getName());
+        if (xmlContent == null) // static document
         {
-            String xmlContent = Files.readAllLines(part).stream().collect(Collectors.joining());
-        
-            Writer writer = new StringWriter();
-            engine.getTemplate(xmlContent).evaluate(writer, context.getBindings());
-            Files.write(part, Arrays.asList(new String[] { writer.toString().replaceAll("\n", "<w:br/>") }),
-                    StandardOpenOption.TRUNCATE_EXISTING);
+            xmlContent = PartIO.decode(content.getEntry(document.getName()).unpack());
+        }
+        else
+        {
+            try (RenderBudget budget = RenderBudget.start(context.getLimits());
+                    MediaCollector media = WebbleImage.collect())
+            {
+                StringWriter rendered = new StringWriter(xmlContent.length());
+                evaluatePart(newEngine(template.getFragments()), xmlContent, context, budget.newPartWriter(rendered));
+                xmlContent = rendered.toString();
+                media.drain(); // numbers the drawings of the preview only, which packages no media
+            }
+        }
+        return DocumentPreview.project(xmlContent, format);
+    }
+
+    /**
+     * Unpackages the given docx into a working directory of the given {@link WebbleScratchSpace}.
+     */
+    private static Lease unpackage(WebbleScratchSpace scratchSpace, Path docx) throws IOException
+    {
+        Lease workingDirectory = scratchSpace.acquireDirectory(Packager.unpackagedSize(docx));
+        try
+        {
+            Packager.unpackageDocx(docx, workingDirectory.getPath());
+            return workingDirectory;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            workingDirectory.close();
+            throw e;
         }
+    }
     
-        return Packager.packageDocx(unpackageDocx);
+    /**
+     * Prepares then evaluates the properties and parts of an unpackaged document with the given context, writing the
+     * generated document to the given stream. Rendered parts are streamed into their zip entry, never written back to
+     * the working directory. Entries are listed in the given order, the one of the source document.
+     */
+    private static void evaluateDirectory(Path unpackageDocx, List<Part> parts, List<String> order,
+            WebbleContext context, OutputStream out) throws IOException
+    {
+        PebbleEngine engine = newEngine(null);
+        int now = ZipWriter.dosTime(System.currentTimeMillis());
+        Set<String> rendered = new HashSet<>();
+        
+        try (ZipWriter zip = new ZipWriter(out, context.isDeterministic());
+                RenderBudget budget = RenderBudget.start(context.getLimits());
+                MediaCollector media = WebbleImage.collect())
+        {
+            for (Part part : parts)
+            {
+                Path path = part.resolve(unpackageDocx);
+                switch (part.getType())
+                {
+                    case CORE_PROPERTIES:
+                        if (context.hasCoreProperties()) // else keep the part as is
+                        {
+                            Document xmlDoc = WebbleMarkupSimplifier.pathToDocument(path);
+                            setCoreProperties(xmlDoc, context);
+                            PartIO.write(path, WebbleMarkupSimplifier.documentToString(xmlDoc));
+                        }
+                        break;
+                    case CUSTOM_PROPERTIES:
+                        if (!context.getCustomProperties().isEmpty()) // else keep the part as is
+                        {
+                            Document xmlDoc = WebbleMarkupSimplifier.pathToDocument(path);
+                            setCustomProperties(xmlDoc, context);
+                            PartIO.write(path, WebbleMarkupSimplifier.documentToString(xmlDoc));
+                        }
+                        break;
+                    default:
+                        String xmlContent = prepareDocument(path, new PartReport(part, 0));
+                        if (Part.containsTags(xmlContent))
+                        {
+                            try (Writer writer = budget.newPartWriter(new OutputStreamWriter(
+                                    zip.openEntry(part.getName(), now), StandardCharsets.UTF_8)))
+                            {
+                                evaluatePart(engine, xmlContent, context, writer);
+                            }
+                            rendered.add(part.getName());
+                            MediaInjector.inject(unpackageDocx, path, media.drain());
+                        }
+                }
+            }
+            
+            Packager.packageDocx(unpackageDocx, zip, rendered, order, now);
+            zip.order(order);
+        }
     }
 
-    private static String prepareDocument(Path doc) throws IOException
+    /**
+     * Evaluates a prepared template with the given context, writing the generated document to the given stream. The
+     * rendered parts are streamed into their zip entry, the template entries not evaluated are copied as they are
+     * compressed in the template. Entries are listed in template order.
+     */
+    private static void evaluateTemplate(PebbleEngine engine, WebbleTemplate template, WebbleContext context,
+            OutputStream out) throws IOException
     {
-        String xmlContent = Files.readAllLines(doc).stream().collect(Collectors.joining());
-        Document xmlDoc = WebbleMarkupSimplifier.stringToDocument(xmlContent);
+        try (ZipWriter zip = new ZipWriter(out, context.isDeterministic());
+                RenderBudget budget = RenderBudget.start(context.getLimits());
+                MediaCollector media = WebbleImage.collect())
+        {
+            RenderedPackage document = new RenderedPackage(template.getContent(), zip);
+            zip.order(template.getContent().getNames());
+            for (Part part : template.getParts())
+            {
+                String name = part.getName();
+                switch (part.getType())
+                {
+                    case CORE_PROPERTIES:
+                        if (context.hasCoreProperties() && document.read(name) != null) // else keep the part as is
+                        {
+                            Document xmlDoc = document.readDocument(name);
+                            setCoreProperties(xmlDoc, context);
+                            document.write(name, WebbleMarkupSimplifier.documentToString(xmlDoc));
+                        }
+                        break;
+                    case CUSTOM_PROPERTIES:
+                        if (!context.getCustomProperties().isEmpty() && document.read(name) != null)
+                        {
+                            Document xmlDoc = document.readDocument(name);
+                            setCustomProperties(xmlDoc, context);
+                            document.write(name, WebbleMarkupSimplifier.documentToString(xmlDoc));
+                        }
+                        break;
+                    default:
+                        String source = document.getSource(name);
+                        if (source != null) // else a static part, copied as is
+                        {
+                            try (Writer writer = budget.newPartWriter(document.openPart(name)))
+                            {
+                                evaluatePart(engine, source, context, writer);
+                            }
+                            MediaInjector.inject(document, name, media.drain());
+                        }
+                }
+            }
+            
+            document.finish();
+        }
+    }
 
-        WebbleMarkupSimplifier.simplifyContent(xmlDoc);
-        moveStatementsInTableRow(xmlDoc);
-        moveStatementsInParagraph(xmlDoc);
+    /**
+     * Creates an engine rendering the parts of documents, counting loop iterations in the render budget. The engine
+     * caches the parsed parts, and resolves includes to the compiled fragments of the given registry.
+     * @param fragments the fragments included by the rendered templates, or null if none.
+     * @return the engine.
+     */
+    static PebbleEngine newEngine(WebbleFragments fragments)
+    {
+        PebbleEngine.Builder builder = new PebbleEngine.Builder().loader(new StringLoader())
+                .extension(RenderBudget.EXTENSION);
+        if (fragments != null)
+        {
+            builder.templateCache(fragments.newTemplateCache());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Renders a prepared part with the given context to the given part writer, see
+     * {@link RenderBudget#newPartWriter(Writer)}.
+     */
+    private static void evaluatePart(PebbleEngine engine, String xmlContent, WebbleContext context, Writer writer)
+            throws IOException
+    {
+        engine.getTemplate(xmlContent).evaluate(writer, context.getBindings());
+    }
+
+    private static String prepareDocument(Path doc, PartReport report) throws IOException
+    {
+        Document xmlDoc = WebbleMarkupSimplifier.pathToDocument(doc);
+
+        WebbleMarkupSimplifier.simplifyContent(xmlDoc, report);
+        liftStatements(xmlDoc.getRootElement(), new StatementsText(), report);
         
         // Treat macro and setters
-        xmlContent = WebbleMarkupSimplifier.documentToString(xmlDoc);
+        String xmlContent = WebbleMarkupSimplifier.documentToString(xmlDoc);
         xmlContent = removeComments(xmlContent);
         xmlContent = removeNewLines(xmlContent);
         xmlContent = WebbleEngine.filterStatement(xmlContent);
@@ -144,181 +550,162 @@ public class WebbleEngine
         return xmlContent.replaceAll("\r\n", "");
     }
 
-    private static void moveStatementsInParagraph(Document xmlDoc)
+    /**
+     * Lifts the table rows and the paragraphs holding only statements out of the text, in a single walk: each one is
+     * replaced by a comment of its statements, turned back into template markup by {@link #removeComments(String)}.
+     */
+    private static void liftStatements(Element parent, StatementsText text, PartReport report)
     {
-        List<Element> ps = new ArrayList<>();
-        xmlDoc.getDescendants(new ElementFilter("p", NS_W)
+        for (int i = 0; i < parent.getContentSize(); i++)
         {
-            @Override
-            public Element filter(Object content)
+            Content content = parent.getContent(i);
+            if (!(content instanceof Element))
             {
-                if (super.filter(content) != null)
-                {
-                    Element p = (Element) content;
-                    
-                    String childrenText = getChildrenText(p, NS_W, "r", "t");
-                    if (childrenText.trim().matches("(\\{%.*?%\\}\\s*)+"))
-                    {
-                        return p;
-                    }
-                    else
-                    {
-                        return null;
-                    }
-                }
-                else
-                {
-                    return null;
-                }
+                continue;
+            }
+
+            Element e = (Element) content;
+            if (NS_W.equals(e.getNamespace()) && e.getName().equals("tr") && text.ofTableRow(e).isStatementsOnly())
+            {
+                parent.setContent(i, new Comment(text.toString()));
+                report.liftedTableRows++;
+            }
+            else if (NS_W.equals(e.getNamespace()) && e.getName().equals("p") && text.ofParagraph(e).isStatementsOnly())
+            {
+                parent.setContent(i, new Comment(text.toString()));
+                report.liftedParagraphs++;
+            }
+            else
+            {
+                liftStatements(e, text, report);
             }
-        }).forEach(ps::add);
-        
-        for (Element p : ps)
-        {
-            String childText = getChildrenText(p, NS_W, "r", "t");
-            Parent parent = p.getParent();
-            int currentIndex = parent.indexOf(p);
-            parent.addContent(currentIndex, new Comment(childText));
-            p.detach();
         }
     }
 
-    private static void moveStatementsInTableRow(Document xmlDoc)
+    /**
+     * The text of a table row or a paragraph, reused from an element to the next.
+     */
+    private static final class StatementsText
     {
-        List<Element> trs = new ArrayList<>();
-        xmlDoc.getDescendants(new ElementFilter("tr", NS_W)
+        private final StringBuilder text = new StringBuilder();
+        private final Matcher statementsOnly = STATEMENTS_ONLY.matcher(text);
+
+        /** Collects the text of the runs of the paragraphs of the given table row. */
+        StatementsText ofTableRow(Element tr)
         {
-            @Override
-            public Element filter(Object content)
+            text.setLength(0);
+            for (Element tc : tr.getChildren("tc", NS_W))
             {
-                if (super.filter(content) != null)
-                {
-                    Element tr = (Element) content;
-
-                    String childrenText = getChildrenText(tr, NS_W, "tc", "p", "r", "t");
-                    if (childrenText.trim().matches("(\\{%.*?%\\}\\s*)+"))
-                    {
-                        return tr;
-                    }
-                    else
-                    {
-                        return null;
-                    }
-                }
-                else
+                for (Element p : tc.getChildren("p", NS_W))
                 {
-                    return null;
+                    appendRuns(p);
                 }
             }
-        }).forEach(trs::add);
+            return this;
+        }
 
-        for (Element tr : trs)
+        /** Collects the text of the runs of the given paragraph. */
+        StatementsText ofParagraph(Element p)
         {
-            String childText = getChildrenText(tr, NS_W, "tc", "p", "r", "t");
-            Parent parent = tr.getParent(); // TR -> TR's PARENT
-            int currentIndex = parent.indexOf((Element) tr);
-            parent.addContent(currentIndex, new Comment(childText));
-            ((Element) tr).detach(); // Detach TR
+            text.setLength(0);
+            appendRuns(p);
+            return this;
         }
-    }
-
-    private static String removeComments(String xmlContent)
-    {
-        StringBuffer sb = new StringBuffer();
 
-        Pattern comment = Pattern.compile("\\<!--(.*?)--\\>");
+        /** Returns true if the collected text, trimmed, is only made of statements. */
+        boolean isStatementsOnly()
+        {
+            int start = 0;
+            int end = text.length();
+            while (start < end && text.charAt(start) <= ' ')
+            {
+                start++;
+            }
+            while (end > start && text.charAt(end - 1) <= ' ')
+            {
+                end--;
+            }
+            return statementsOnly.reset(text).region(start, end).matches();
+        }
 
-        Matcher m = comment.matcher(xmlContent);
-        while (m.find())
+        @Override
+        public String toString()
         {
-            m.appendReplacement(sb, m.group(1));
+            return text.toString();
         }
-        m.appendTail(sb);
 
-        return sb.toString();
+        private void appendRuns(Element p)
+        {
+            for (Element r : p.getChildren("r", NS_W))
+            {
+                for (Element t : r.getChildren("t", NS_W))
+                {
+                    text.append(t.getText());
+                }
+            }
+        }
     }
 
-    private static String getChildrenText(Element e, Namespace ns, String... children)
+    private static String removeComments(String xmlContent)
     {
-        List<Element> currentElements = new ArrayList<>();
-        currentElements.add(e);
+        StringBuilder sb = new StringBuilder(xmlContent.length());
 
-        for (String child : children)
+        Matcher m = COMMENT.matcher(xmlContent);
+        int pos = 0;
+        while (m.find())
         {
-            currentElements = currentElements.stream()
-                    .flatMap(c -> c.getChildren(child, ns).stream())
-                    .collect(Collectors.toList());
+            sb.append(xmlContent, pos, m.start()).append(m.group(1));
+            pos = m.end();
         }
+        sb.append(xmlContent, pos, xmlContent.length());
 
-        String childText = currentElements.stream()
-                .map(c -> c.getText())
-                .map(t -> t == null ? "" : t)
-                .collect(Collectors.joining());
-
-        return childText;
+        return sb.toString();
     }
 
     private static String filterStatement(String content)
     {
-        StringBuffer sb = new StringBuffer();
-
-        Pattern statement = Pattern.compile("((\\{\\{)|(\\{%)).*?((\\}\\})|(%\\}))");
-        Matcher m = statement.matcher(content);
+        StringBuilder sb = new StringBuilder(content.length());
 
+        Matcher m = STATEMENT.matcher(content);
+        int pos = 0;
         while (m.find())
         {
-            String filteredContent = m.group(0)
-                    .replaceAll("<[^>]+>", "") // Remove XML Nodes
-                    .replaceAll("(« ?)|( ?»)", "\"")
-                    .replaceAll("‘|’", "'")
-                    .replaceAll("“|”|„", "\"")
-                    .replaceAll("&gt;", ">")
-                    .replaceAll("&lt;", "<")
-                    .replaceAll(" ", " "); // CAREFULL, here we replace Word space ( ) with common space.
-
-            m.appendReplacement(sb, filteredContent);
+            String filteredContent = XML_NODE.matcher(m.group(0)).replaceAll(""); // Remove XML Nodes
+            filteredContent = GUILLEMETS.matcher(filteredContent).replaceAll("\"")
+                    .replace('‘', '\'')
+                    .replace('’', '\'')
+                    .replace('“', '"')
+                    .replace('”', '"')
+                    .replace('„', '"')
+                    .replace("&gt;", ">")
+                    .replace("&lt;", "<")
+                    .replace('\u00A0', ' '); // CAREFULL, here we replace Word space (NBSP) with common space.
+
+            sb.append(content, pos, m.start()).append(filteredContent);
+            pos = m.end();
         }
-
-        m.appendTail(sb);
+        sb.append(content, pos, content.length());
 
         return sb.toString();
     }
     
     
-    private static void evaluateCoreProperties(Path unpackageDocx, WebbleContext context) throws IOException
+    /** Sets the core properties set in the given context, touching only their elements. */
+    private static void setCoreProperties(Document xmlDoc, WebbleContext context)
     {
-        Path doc = unpackageDocx.resolve("docProps/core.xml");
-        String xmlContent = Files.readAllLines(doc).stream().collect(Collectors.joining());
-        Document xmlDoc = WebbleMarkupSimplifier.stringToDocument(xmlContent);
-        
-        List<Element> properties = new ArrayList<>();
-        xmlDoc.getRootElement().getDescendants(new ElementFilter()).forEach(properties::add);
-        
-        for (Element property : properties)
+        for (Element property : xmlDoc.getRootElement().getChildren())
         {
-            WordProperty<?> contextProp = context.getCoreProperties().get(property.getName());
-            if (contextProp != null && contextProp.getValue() != null) // if prop has been set in WebbleContext
+            WordProperty contextProp = WordProperty.forReferer(property.getName());
+            if (contextProp != null && context.isCorePropertySet(contextProp))
             {
-                property.setText(contextProp.getFormattedValue());
+                property.setText(context.getFormattedCoreProperty(contextProp));
             }
         }
-
-        Files.write(doc, Arrays.asList(new String[] { WebbleMarkupSimplifier.documentToString(xmlDoc) }),
-                StandardOpenOption.TRUNCATE_EXISTING);
     }
     
-    private static void evaluateCustomProperties(Path unpackageDocx, WebbleContext context) throws IOException
+    /** Sets the custom properties set in the given context. */
+    private static void setCustomProperties(Document xmlDoc, WebbleContext context)
     {
-        Path doc = unpackageDocx.resolve("docProps/custom.xml");
-        
-        if (!doc.toFile().canRead())
-        {
-            return;
-        }
-        
-        String xmlContent = Files.readAllLines(doc).stream().collect(Collectors.joining());
-        Document xmlDoc = WebbleMarkupSimplifier.stringToDocument(xmlContent);
-        
         List<Element> properties = new ArrayList<>();
         xmlDoc.getRootElement().getDescendants(new ElementFilter("property")).forEach(properties::add);
         
@@ -331,23 +718,98 @@ public class WebbleEngine
                 property.getChild("lpwstr", NS_VT).setText(propValue);
             }
         }
-
-        Files.write(doc, Arrays.asList(new String[] { WebbleMarkupSimplifier.documentToString(xmlDoc) }),
-                StandardOpenOption.TRUNCATE_EXISTING);
     }
-    
+
     /**
-     * Returns the parts to evaluate
-     * @param unpackageDocx the path to the unziped Microsoft Office Word document.
-     * @return the list of file to evaluate.
-     * @throws IOException if cannot fetch the parts to evaluate.
+     * A document generated from a template, written to a zip: the rendered parts are streamed into their entry, the
+     * other entries written over the template content are held until the document is finished.
      */
-    private static List<Path> getParts(Path unpackageDocx) throws IOException
+    private static final class RenderedPackage implements PackageContent
     {
-        List<Path> parts = Files.list(unpackageDocx.resolve("word"))
-            .filter(p -> p.getFileName().toString().matches("(document|header\\d+|footer\\d+).xml"))
-            .collect(Collectors.toList());
-        
-        return parts;
+        private final TemplateContent template;
+        private final ZipWriter zip;
+        private final int dosTime = ZipWriter.dosTime(System.currentTimeMillis());
+        /** Parts streamed into the zip. */
+        private final Set<String> streamed = new HashSet<>();
+        /** Entries written, in write order. */
+        private final Map<String, byte[]> written = new LinkedHashMap<>();
+
+        RenderedPackage(TemplateContent template, ZipWriter zip)
+        {
+            this.template = template;
+            this.zip = zip;
+        }
+
+        /**
+         * Opens the entry of the given rendered part, in the zip: the part can no longer be read.
+         */
+        Writer openPart(String name) throws IOException
+        {
+            streamed.add(name);
+            return new OutputStreamWriter(zip.openEntry(name, dosTime), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public byte[] read(String name) throws IOException
+        {
+            if (streamed.contains(name))
+            {
+                throw new IllegalStateException("Part streamed: " + name);
+            }
+            byte[] content = written.get(name);
+            if (content == null)
+            {
+                PackedEntry entry = template.getEntry(name);
+                content = entry == null ? null : entry.unpack();
+            }
+            return content;
+        }
+
+        @Override
+        public void write(String name, byte[] content)
+        {
+            written.put(name, content);
+        }
+
+        /** Writes the given part, encoded in UTF-8 as declared by parts serialized by Webble. */
+        void write(String name, String xmlContent)
+        {
+            written.put(name, xmlContent.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /** Returns the prepared markup of the given dynamic template part, or null. */
+        String getSource(String name)
+        {
+            return template.getSource(name);
+        }
+
+        Document readDocument(String name) throws IOException
+        {
+            return WebbleMarkupSimplifier.streamToDocument(new ByteArrayInputStream(read(name)));
+        }
+
+        /**
+         * Writes the entries not streamed: template entries in template order, then the new ones. Template entries
+         * not written are copied compressed.
+         */
+        void finish() throws IOException
+        {
+            for (String name : template.getNames())
+            {
+                byte[] content = written.remove(name);
+                if (content != null)
+                {
+                    zip.write(PackedEntry.pack(name, content, dosTime));
+                }
+                else if (!streamed.contains(name) && template.getEntry(name) != null)
+                {
+                    zip.write(template.getEntry(name));
+                }
+            }
+            for (Map.Entry<String, byte[]> entry : written.entrySet())
+            {
+                zip.write(PackedEntry.pack(entry.getKey(), entry.getValue(), dosTime));
+            }
+        }
     }
 }
@@ -0,0 +1,563 @@
+package io.github.flef.webble;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jdom2.Attribute;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.jdom2.filter.Filters;
+
+import com.mitchellbosecke.pebble.PebbleEngine;
+import com.mitchellbosecke.pebble.cache.PebbleCache;
+import com.mitchellbosecke.pebble.cache.template.ConcurrentMapTemplateCache;
+import com.mitchellbosecke.pebble.template.PebbleTemplate;
+
+import io.github.flef.webble.MediaInjector.PackageContent;
+import io.github.flef.webble.MediaInjector.PackageReader;
+
+/**
+ * A registry of fragments: prepared templates whose body is included by other templates, e.g. legal clauses or
+ * signature blocks, with <code>{% include 'clause-x' %}</code> alone in its paragraph. Each fragment body is compiled
+ * once when registered, then shared by the documents of all the templates prepared with the registry (see
+ * {@link WebbleEngine#prepare(Path, WebbleFragments)}). The styles and numbering of the fragments a template includes
+ * are merged into the template when prepared.
+ * <p>
+ * A fragment carries its paragraphs and tables, their styles and numbering: fragments referencing relationships
+ * (images, links), notes or comments are refused. The styles of the including template take precedence over the
+ * fragment styles of the same id. Fragments can include other fragments, registered beforehand: includes cannot form
+ * cycles. A name is registered once: to update a fragment, register it in a new registry and prepare the including
+ * templates again.
+ */
+public class WebbleFragments
+{
+    private static final String NS_W = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+    private static final String NS_R = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+    private static final Namespace W = Namespace.getNamespace("w", NS_W);
+    private static final String TYPE_STYLES = NS_R + "/styles";
+    private static final String TYPE_NUMBERING = NS_R + "/numbering";
+    private static final String CONTENT_TYPE_STYLES =
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.styles+xml";
+    private static final String CONTENT_TYPE_NUMBERING =
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.numbering+xml";
+
+    private static final Pattern INCLUDE = Pattern.compile("\\{%-?\\s*include\\s+(['\"])(.+?)\\1");
+    /** Name of the root element of a part, after its declaration. */
+    private static final Pattern ROOT = Pattern.compile("<(?![?!])(?:([\\w.-]+):)?[\\w.-]+");
+    private static final Pattern NAMESPACE = Pattern.compile("xmlns:([\\w.-]+)=\"([^\"]*)\"");
+    /** Numbering ids of a fragment are offset by this base times its registration rank, not to collide. */
+    private static final int NUMBERING_BASE = 1000;
+
+    private final Map<String, Fragment> fragments = new ConcurrentHashMap<>();
+    private final AtomicInteger registered = new AtomicInteger();
+    /** Engine compiling the fragments, resolving their own includes in this registry. */
+    private final PebbleEngine engine = WebbleEngine.newEngine(this);
+
+    /**
+     * Registers the given prepared template as a fragment, included by its name. The fragment body, styles and
+     * numbering are read and compiled, the template can be closed afterwards.
+     * @param name the name of the fragment, in <code>include</code> tags.
+     * @param fragment the prepared fragment.
+     * @throws IOException if the template cannot be read, references relationships, notes or comments, or includes a
+     *         fragment not registered yet.
+     * @throws IllegalArgumentException if a fragment of the same name is already registered.
+     */
+    public void register(String name, WebbleTemplate fragment) throws IOException
+    {
+        if (fragments.containsKey(name))
+        {
+            throw new IllegalArgumentException("Fragment already registered: " + name);
+        }
+
+        Part documentPart = fragment.getParts().stream().filter(p -> p.getType() == PartType.DOCUMENT).findFirst()
+                .orElseThrow(() -> new IOException("No main document part in fragment " + name));
+        TemplateContent content = fragment.getContent();
+        String xmlContent = content.getSource(documentPart.getName());
+        if (xmlContent == null) // static document
+        {
+            xmlContent = PartIO.decode(content.getEntry(documentPart.getName()).unpack());
+        }
+
+        Map<String, String> namespaces = rootNamespaces(xmlContent);
+        String w = prefixOf(namespaces, NS_W, name);
+        String body = body(xmlContent, w, name);
+        String r = namespaces.entrySet().stream().filter(ns -> ns.getValue().equals(NS_R)).map(Map.Entry::getKey)
+                .findFirst().orElse(null);
+        if (r != null && Pattern.compile("\\s" + Pattern.quote(r) + ":[\\w.-]+=").matcher(body).find())
+        {
+            throw new IOException("Fragment " + name + " references relationships (images, links), not supported");
+        }
+        if (Pattern.compile("<" + Pattern.quote(w) + ":(footnote|endnote|comment)Reference[\\s/>]").matcher(body)
+                .find())
+        {
+            throw new IOException("Fragment " + name + " references notes or comments, not supported");
+        }
+
+        Set<String> includes = new LinkedHashSet<>();
+        Matcher m = INCLUDE.matcher(body);
+        while (m.find())
+        {
+            // included fragments are registered before, which rules out cycles, the fragment itself included
+            if (!fragments.containsKey(m.group(2)))
+            {
+                throw new IOException("Fragment " + name + " includes " + m.group(2) + ", not registered before it");
+            }
+            includes.add(m.group(2));
+        }
+
+        int offset = NUMBERING_BASE * registered.incrementAndGet();
+        body = offsetNumIds(body, w, offset);
+        PackageReader fragmentPackage = packageOf(content);
+        List<Element> styles = new ArrayList<>();
+        Document stylesDoc = readDefinitions(fragmentPackage, documentPart.getName(), TYPE_STYLES);
+        if (stylesDoc != null)
+        {
+            for (Element style : stylesDoc.getRootElement().getChildren("style", W))
+            {
+                styles.add(offsetNumIds(style.clone(), offset));
+            }
+        }
+        List<Element> abstractNums = new ArrayList<>();
+        List<Element> nums = new ArrayList<>();
+        Document numberingDoc = readDefinitions(fragmentPackage, documentPart.getName(), TYPE_NUMBERING);
+        if (numberingDoc != null)
+        {
+            for (Element abstractNum : numberingDoc.getRootElement().getChildren("abstractNum", W))
+            {
+                abstractNums.add(offsetNumIds(abstractNum.clone(), offset));
+            }
+            for (Element num : numberingDoc.getRootElement().getChildren("num", W))
+            {
+                nums.add(offsetNumIds(num.clone(), offset));
+            }
+        }
+
+        // the rank offsets the rendered numbering: a fragment is identified by its template and rank
+        String digest = Digests.sha256((fragment.getFingerprint() + ':' + offset).getBytes(StandardCharsets.UTF_8));
+        Fragment compiled = new Fragment(engine.getTemplate(body), digest, namespaces, includes, styles, abstractNums,
+                nums);
+        if (fragments.putIfAbsent(name, compiled) != null)
+        {
+            throw new IllegalArgumentException("Fragment already registered: " + name);
+        }
+    }
+
+    /**
+     * Returns the names of the fragments included by the given prepared part, directly or by included fragments.
+     * @param xmlContent the prepared markup of a part.
+     * @return the names of the included fragments, empty if none.
+     * @throws IOException if an included fragment is not registered.
+     */
+    Set<String> includedBy(String xmlContent) throws IOException
+    {
+        Set<String> included = new LinkedHashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        Matcher m = INCLUDE.matcher(xmlContent);
+        while (m.find())
+        {
+            pending.add(m.group(2));
+        }
+        while (!pending.isEmpty())
+        {
+            String name = pending.poll();
+            if (included.add(name))
+            {
+                Fragment fragment = fragments.get(name);
+                if (fragment == null)
+                {
+                    throw new IOException("Unknown fragment: " + name);
+                }
+                pending.addAll(fragment.includes);
+            }
+        }
+        return included;
+    }
+
+    /**
+     * Returns the digest of the given registered fragment, identifying its content.
+     * @param name the name of the fragment.
+     * @return the SHA-256 of the fragment, as hexadecimal.
+     * @throws IOException if the fragment is not registered.
+     */
+    String digestOf(String name) throws IOException
+    {
+        Fragment fragment = fragments.get(name);
+        if (fragment == null)
+        {
+            throw new IOException("Unknown fragment: " + name);
+        }
+        return fragment.digest;
+    }
+
+    /**
+     * Declares the namespaces of the given fragments on the root of the given prepared part, which includes them.
+     * @param xmlContent the prepared markup of a part.
+     * @param included the names of the fragments included by the part, see {@link #includedBy(String)}.
+     * @return the prepared markup of the part, its root declaring the namespaces of the fragments.
+     * @throws IOException if a fragment and the part bind a prefix to different namespaces.
+     */
+    String declareNamespaces(String xmlContent, Set<String> included) throws IOException
+    {
+        Map<String, String> declared = rootNamespaces(xmlContent);
+        StringBuilder declarations = new StringBuilder();
+        for (String name : included)
+        {
+            for (Map.Entry<String, String> ns : fragments.get(name).namespaces.entrySet())
+            {
+                String uri = declared.putIfAbsent(ns.getKey(), ns.getValue());
+                if (uri == null)
+                {
+                    declarations.append(" xmlns:").append(ns.getKey()).append("=\"").append(ns.getValue())
+                            .append('"');
+                }
+                else if (!uri.equals(ns.getValue()))
+                {
+                    throw new IOException("Fragment " + name + " binds prefix " + ns.getKey() + " to " + ns.getValue()
+                            + ", the template to " + uri);
+                }
+            }
+        }
+        Matcher root = ROOT.matcher(xmlContent);
+        if (declarations.length() == 0 || !root.find())
+        {
+            return xmlContent;
+        }
+        return new StringBuilder(xmlContent).insert(root.end(), declarations).toString();
+    }
+
+    /**
+     * Merges the styles and numbering of the given fragments into an unpackaged template, creating its styles and
+     * numbering parts if needed. Styles of the template are kept over fragment styles of the same id.
+     * @param unpackageDocx the path to the unziped template.
+     * @param documentPart the name of the main document part of the template.
+     * @param included the names of the fragments included by the template.
+     * @throws IOException if the template cannot be updated.
+     */
+    void mergeDefinitions(Path unpackageDocx, String documentPart, Set<String> included) throws IOException
+    {
+        PackageContent document = MediaInjector.directory(unpackageDocx);
+        List<Element> styles = new ArrayList<>();
+        List<Element> abstractNums = new ArrayList<>();
+        List<Element> nums = new ArrayList<>();
+        for (String name : included)
+        {
+            Fragment fragment = fragments.get(name);
+            styles.addAll(fragment.styles);
+            abstractNums.addAll(fragment.abstractNums);
+            nums.addAll(fragment.nums);
+        }
+
+        if (!styles.isEmpty())
+        {
+            String part = definitionsPart(document, documentPart, TYPE_STYLES, "styles.xml", CONTENT_TYPE_STYLES);
+            Document stylesDoc = MediaInjector.readOrCreate(document, part, "styles", W);
+            Element root = stylesDoc.getRootElement();
+            Set<String> ids = new HashSet<>();
+            for (Element style : root.getChildren("style", W))
+            {
+                ids.add(style.getAttributeValue("styleId", W));
+            }
+            for (Element style : styles)
+            {
+                if (ids.add(style.getAttributeValue("styleId", W)))
+                {
+                    root.addContent(style.clone());
+                }
+            }
+            document.write(part, MediaInjector.toBytes(stylesDoc));
+        }
+
+        if (!nums.isEmpty())
+        {
+            String part = definitionsPart(document, documentPart, TYPE_NUMBERING, "numbering.xml",
+                    CONTENT_TYPE_NUMBERING);
+            Document numberingDoc = MediaInjector.readOrCreate(document, part, "numbering", W);
+            Element root = numberingDoc.getRootElement();
+            // abstract numberings precede numberings
+            int index = lastIndexOf(root, "abstractNum", lastIndexOf(root, "numPicBullet", -1)) + 1;
+            for (Element abstractNum : abstractNums)
+            {
+                root.addContent(index++, abstractNum.clone());
+            }
+            index = lastIndexOf(root, "num", index - 1) + 1;
+            for (Element num : nums)
+            {
+                root.addContent(index++, num.clone());
+            }
+            document.write(part, MediaInjector.toBytes(numberingDoc));
+        }
+    }
+
+    /**
+     * Creates a template cache for an engine rendering templates prepared with this registry: fragment names resolve
+     * to the compiled fragments, any other template is parsed and cached by the engine.
+     * @return the template cache.
+     */
+    PebbleCache<Object, PebbleTemplate> newTemplateCache()
+    {
+        PebbleCache<Object, PebbleTemplate> parts = new ConcurrentMapTemplateCache();
+        return new PebbleCache<Object, PebbleTemplate>()
+        {
+            @Override
+            public PebbleTemplate computeIfAbsent(Object key,
+                    Function<? super Object, ? extends PebbleTemplate> mappingFunction)
+            {
+                Fragment fragment = fragments.get(key);
+                return fragment != null ? fragment.template : parts.computeIfAbsent(key, mappingFunction);
+            }
+
+            @Override
+            public void invalidateAll()
+            {
+                parts.invalidateAll();
+            }
+        };
+    }
+
+    /** Returns the namespaces declared with a prefix on the root of the given part, by prefix. */
+    private static Map<String, String> rootNamespaces(String xmlContent) throws IOException
+    {
+        Matcher root = ROOT.matcher(xmlContent);
+        if (!root.find())
+        {
+            throw new IOException("No root element");
+        }
+        Map<String, String> namespaces = new LinkedHashMap<>();
+        Matcher ns = NAMESPACE.matcher(xmlContent).region(root.end(), xmlContent.indexOf('>', root.end()));
+        while (ns.find())
+        {
+            namespaces.put(ns.group(1), ns.group(2));
+        }
+        return namespaces;
+    }
+
+    private static String prefixOf(Map<String, String> namespaces, String uri, String fragment) throws IOException
+    {
+        return namespaces.entrySet().stream().filter(ns -> ns.getValue().equals(uri)).map(Map.Entry::getKey)
+                .findFirst().orElseThrow(() -> new IOException("Fragment " + fragment + " is not WordprocessingML"));
+    }
+
+    /** Returns the content of the body of the given main document part, without its section properties. */
+    private static String body(String xmlContent, String w, String fragment) throws IOException
+    {
+        Matcher open = Pattern.compile("<" + Pattern.quote(w) + ":body(\\s[^>]*)?>").matcher(xmlContent);
+        int end = xmlContent.lastIndexOf("</" + w + ":body>");
+        if (!open.find() || end < open.end())
+        {
+            throw new IOException("Fragment " + fragment + " has no body");
+        }
+        String body = xmlContent.substring(open.end(), end).trim();
+
+        // the last section properties, matched backwards: they hold the ones of their revisions
+        String sectPrEnd = "</" + w + ":sectPr>";
+        if (body.endsWith(sectPrEnd))
+        {
+            Pattern tag = Pattern.compile("<" + Pattern.quote(w) + ":sectPr[\\s>]|" + Pattern.quote(sectPrEnd));
+            List<int[]> tags = new ArrayList<>();
+            Matcher m = tag.matcher(body);
+            while (m.find())
+            {
+                tags.add(new int[] { m.start(), m.group().startsWith("</") ? -1 : 1 });
+            }
+            int depth = 0;
+            for (int i = tags.size() - 1; i >= 0; i--)
+            {
+                depth -= tags.get(i)[1];
+                if (depth == 0)
+                {
+                    return body.substring(0, tags.get(i)[0]);
+                }
+            }
+        }
+        else if (body.matches("(?s).*<" + Pattern.quote(w) + ":sectPr[^>]*/>$"))
+        {
+            return body.substring(0, body.lastIndexOf("<" + w + ":sectPr"));
+        }
+        return body;
+    }
+
+    /** Offsets the numbering references of the given markup, but 0, which removes numbering. */
+    private static String offsetNumIds(String xmlContent, String w, int offset)
+    {
+        Matcher m = Pattern.compile("(<" + Pattern.quote(w) + ":numId\\s+" + Pattern.quote(w) + ":val=\")(\\d+)\"")
+                .matcher(xmlContent);
+        StringBuilder sb = new StringBuilder(xmlContent.length());
+        int pos = 0;
+        while (m.find())
+        {
+            int id = Integer.parseInt(m.group(2));
+            sb.append(xmlContent, pos, m.start(2)).append(id == 0 ? 0 : id + offset);
+            pos = m.end(2);
+        }
+        return sb.append(xmlContent, pos, xmlContent.length()).toString();
+    }
+
+    /** Offsets the numbering ids and references of the given definition. */
+    private static Element offsetNumIds(Element definition, int offset)
+    {
+        List<Element> elements = new ArrayList<>();
+        elements.add(definition);
+        definition.getDescendants(Filters.element(W)).forEach(elements::add);
+        for (Element e : elements)
+        {
+            Attribute id = null;
+            switch (e.getName())
+            {
+                case "abstractNum":
+                    id = e.getAttribute("abstractNumId", W);
+                    break;
+                case "num":
+                    id = e.getAttribute("numId", W);
+                    break;
+                case "abstractNumId":
+                case "numId":
+                    id = e.getAttribute("val", W);
+                    break;
+                default:
+                    break;
+            }
+            // numbering reference 0 removes numbering, abstract numbering ids start at 0
+            boolean removes = e.getName().equals("numId") && id != null && id.getValue().equals("0");
+            if (id != null && !removes && id.getValue().matches("\\d+"))
+            {
+                id.setValue(Integer.toString(Integer.parseInt(id.getValue()) + offset));
+            }
+        }
+        return definition;
+    }
+
+    /** Reads the entries of a fragment, unpacked on demand. */
+    private static PackageReader packageOf(TemplateContent content)
+    {
+        return name ->
+        {
+            PackedEntry entry = content.getEntry(name);
+            return entry == null ? null : entry.unpack();
+        };
+    }
+
+    /** Reads the definitions part of the given type related to the given main document part, or returns null. */
+    private static Document readDefinitions(PackageReader document, String documentPart, String type)
+            throws IOException
+    {
+        String part = relatedPart(document, documentPart, type);
+        byte[] content = part == null ? null : document.read(part);
+        return content == null ? null : WebbleMarkupSimplifier.streamToDocument(new ByteArrayInputStream(content));
+    }
+
+    /** Returns the name of the part of the given relationship type of the given part, or null. */
+    private static String relatedPart(PackageReader document, String part, String type) throws IOException
+    {
+        byte[] rels = document.read(MediaInjector.relationshipsOf(part));
+        if (rels == null)
+        {
+            return null;
+        }
+        Element root = WebbleMarkupSimplifier.streamToDocument(new ByteArrayInputStream(rels)).getRootElement();
+        for (Element relationship : root.getChildren("Relationship", MediaInjector.NS_RELATIONSHIPS))
+        {
+            if (type.equals(relationship.getAttributeValue("Type")))
+            {
+                return URI.create("/" + part).resolve(relationship.getAttributeValue("Target")).getPath()
+                        .substring(1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the name of the definitions part of the given type related to the given main document part, relating
+     * and declaring a new part of the given name if none.
+     */
+    private static String definitionsPart(PackageContent document, String documentPart, String type, String name,
+            String contentType) throws IOException
+    {
+        String part = relatedPart(document, documentPart, type);
+        if (part != null)
+        {
+            return part;
+        }
+
+        String rels = MediaInjector.relationshipsOf(documentPart);
+        Document relsDoc = MediaInjector.readOrCreate(document, rels, "Relationships",
+                MediaInjector.NS_RELATIONSHIPS);
+        Element root = relsDoc.getRootElement();
+        Set<String> ids = new HashSet<>();
+        for (Element relationship : root.getChildren("Relationship", MediaInjector.NS_RELATIONSHIPS))
+        {
+            ids.add(relationship.getAttributeValue("Id"));
+        }
+        String id = "rIdWebble1";
+        for (int i = 2; ids.contains(id); i++)
+        {
+            id = "rIdWebble" + i;
+        }
+        root.addContent(new Element("Relationship", MediaInjector.NS_RELATIONSHIPS).setAttribute("Id", id)
+                .setAttribute("Type", type).setAttribute("Target", name));
+        document.write(rels, MediaInjector.toBytes(relsDoc));
+
+        part = documentPart.substring(0, documentPart.lastIndexOf('/') + 1) + name;
+        Document contentTypesDoc = MediaInjector.readOrCreate(document, MediaInjector.CONTENT_TYPES, "Types",
+                MediaInjector.NS_CONTENT_TYPES);
+        contentTypesDoc.getRootElement().addContent(new Element("Override", MediaInjector.NS_CONTENT_TYPES)
+                .setAttribute("PartName", "/" + part).setAttribute("ContentType", contentType));
+        document.write(MediaInjector.CONTENT_TYPES, MediaInjector.toBytes(contentTypesDoc));
+        return part;
+    }
+
+    /** Returns the index of the last child of the given name, or the given default. */
+    private static int lastIndexOf(Element parent, String name, int defaultIndex)
+    {
+        int index = defaultIndex;
+        for (Element child : parent.getChildren(name, W))
+        {
+            index = parent.indexOf(child);
+        }
+        return index;
+    }
+
+    /** A registered fragment: its compiled body, the definitions it requires, and the fragments it includes. */
+    private static final class Fragment
+    {
+        private final PebbleTemplate template;
+        /** SHA-256 of the fragment template and numbering offset. */
+        private final String digest;
+        /** Namespaces declared by the fragment, by prefix. */
+        private final Map<String, String> namespaces;
+        private final Set<String> includes;
+        private final List<Element> styles;
+        private final List<Element> abstractNums;
+        private final List<Element> nums;
+
+        Fragment(PebbleTemplate template, String digest, Map<String, String> namespaces, Set<String> includes,
+                List<Element> styles, List<Element> abstractNums, List<Element> nums)
+        {
+            this.template = template;
+            this.digest = digest;
+            this.namespaces = Collections.unmodifiableMap(namespaces);
+            this.includes = Collections.unmodifiableSet(includes);
+            this.styles = Collections.unmodifiableList(styles);
+            this.abstractNums = Collections.unmodifiableList(abstractNums);
+            this.nums = Collections.unmodifiableList(nums);
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package io.github.flef.webble;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import com.mitchellbosecke.pebble.extension.escaper.SafeString;
+
+/**
+ * An image to bind to a {@link WebbleContext}. When rendered by a template expression (<code>{{ signature }}</code>),
+ * the image is written into <code>word/media</code> and referenced inline at the expression position.
+ * <p>
+ * Images are content addressed: binding the same bytes many times, in one or many documents, shares the same
+ * {@link WebbleImage} instance, whose markup is encoded once and whose media is stored once per document.
+ */
+public class WebbleImage extends SafeString
+{
+    /** First drawing id used for images, far above the ids Word assigns to the template drawings. */
+    private static final int FIRST_DRAWING_ID = 10000;
+    /** English Metric Units per pixel, at 96 dpi. */
+    private static final long EMU_PER_PIXEL = 9525L;
+
+    /**
+     * Start of the markup of an image, written in the text of a run: the text is closed and reopened around the drawing,
+     * in the same run, so that the text around the image keeps the run properties.
+     */
+    static final String MARKUP_PREFIX = "</w:t><w:drawing>";
+
+    /** Relationship type of an image part. */
+    static final String RELATIONSHIP_TYPE = "http://schemas.openxmlformats.org/officeDocument/2006/relationships/image";
+
+    /** Images already encoded, by content hash and size. */
+    private static final ConcurrentMap<String, ImageReference> CACHE = new ConcurrentHashMap<>();
+    /** Collected images, to purge from the cache. */
+    private static final ReferenceQueue<WebbleImage> COLLECTED = new ReferenceQueue<>();
+    /**
+     * Collector of the document currently evaluated by this thread. Not a cache: removed when the outermost collector
+     * closes, it holds nothing once the document evaluated, even with a virtual thread per document.
+     */
+    private static final ThreadLocal<MediaCollector> CURRENT_COLLECTOR = new ThreadLocal<>();
+
+    private final byte[] data;
+    private final String hash;
+    private final String key;
+    private final String extension;
+    private final String contentType;
+    private final String markupStart;
+    private final String markupEnd;
+
+    /** The class constructor. */
+    private WebbleImage(byte[] data, String hash, String key, ImageFormat format, long widthEmu, long heightEmu)
+    {
+        super("");
+        this.data = data;
+        this.hash = hash;
+        this.key = key;
+        this.extension = format.extension;
+        this.contentType = format.contentType;
+
+        String extent = "cx=\"" + widthEmu + "\" cy=\"" + heightEmu + "\"";
+        this.markupStart = MARKUP_PREFIX
+                + "<wp:inline distT=\"0\" distB=\"0\" distL=\"0\" distR=\"0\""
+                + " xmlns:wp=\"http://schemas.openxmlformats.org/drawingml/2006/wordprocessingDrawing\">"
+                + "<wp:extent " + extent + "/><wp:docPr id=\"";
+        this.markupEnd = "\" name=\"" + getMediaName() + "\"/>"
+                + "<a:graphic xmlns:a=\"http://schemas.openxmlformats.org/drawingml/2006/main\">"
+                + "<a:graphicData uri=\"http://schemas.openxmlformats.org/drawingml/2006/picture\">"
+                + "<pic:pic xmlns:pic=\"http://schemas.openxmlformats.org/drawingml/2006/picture\">"
+                + "<pic:nvPicPr><pic:cNvPr id=\"0\" name=\"" + getMediaName() + "\"/><pic:cNvPicPr/></pic:nvPicPr>"
+                + "<pic:blipFill><a:blip r:embed=\"" + getRelationshipId() + "\""
+                + " xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\"/>"
+                + "<a:stretch><a:fillRect/></a:stretch></pic:blipFill>"
+                + "<pic:spPr><a:xfrm><a:off x=\"0\" y=\"0\"/><a:ext " + extent + "/></a:xfrm>"
+                + "<a:prstGeom prst=\"rect\"><a:avLst/></a:prstGeom></pic:spPr>"
+                + "</pic:pic></a:graphicData></a:graphic></wp:inline></w:drawing><w:t xml:space=\"preserve\">";
+    }
+
+    /**
+     * Returns the {@link WebbleImage} of the given PNG, JPEG, GIF or BMP content, displayed at its natural size.
+     *
+     * @param data the image content.
+     * @return the {@link WebbleImage} of the given content.
+     * @throws IOException if the content is not a supported image.
+     */
+    public static WebbleImage of(byte[] data) throws IOException
+    {
+        ImageFormat format = ImageFormat.detect(data);
+        try (ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(data)))
+        {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext())
+            {
+                throw new IOException("Cannot read image size, no reader found for " + format.contentType + ".");
+            }
+            ImageReader reader = readers.next();
+            try
+            {
+                reader.setInput(iis);
+                return of(data, format, reader.getWidth(0), reader.getHeight(0));
+            }
+            finally
+            {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Returns the {@link WebbleImage} of the given PNG, JPEG, GIF or BMP content, displayed at the given size.
+     *
+     * @param data   the image content.
+     * @param width  the displayed width, in pixels.
+     * @param height the displayed height, in pixels.
+     * @return the {@link WebbleImage} of the given content.
+     * @throws IOException if the content is not a supported image.
+     * @throws IllegalArgumentException if the width or the height is not positive.
+     */
+    public static WebbleImage of(byte[] data, int width, int height) throws IOException
+    {
+        if (width <= 0 || height <= 0)
+        {
+            throw new IllegalArgumentException("Image size must be positive: " + width + "x" + height);
+        }
+        return of(data, ImageFormat.detect(data), width, height);
+    }
+
+    /**
+     * Returns the {@link WebbleImage} of the given image file, displayed at its natural size.
+     *
+     * @param image the path to a PNG, JPEG, GIF or BMP file.
+     * @return the {@link WebbleImage} of the given file.
+     * @throws IOException if the file cannot be read or is not a supported image.
+     */
+    public static WebbleImage of(Path image) throws IOException
+    {
+        return of(Files.readAllBytes(image));
+    }
+
+    private static WebbleImage of(byte[] data, ImageFormat format, int width, int height)
+    {
+        purgeCollected();
+
+        String hash = Digests.sha256(data);
+        String key = hash + "@" + width + "x" + height;
+
+        ImageReference reference = CACHE.get(key);
+        WebbleImage image = reference == null ? null : reference.get();
+        if (image == null)
+        {
+            image = new WebbleImage(data.clone(), hash, key, format, width * EMU_PER_PIXEL, height * EMU_PER_PIXEL);
+            CACHE.put(key, new ImageReference(key, image));
+        }
+        return image;
+    }
+
+    /**
+     * Returns the inline drawing markup of this image, and records it as rendered in the current document. The markup
+     * is only valid in the text of a run: the image expression must be alone in the text of its run or surrounded by
+     * text, not in an attribute or between paragraphs.
+     */
+    @Override
+    public String toString()
+    {
+        MediaCollector collector = CURRENT_COLLECTOR.get();
+        int drawingId = collector == null ? FIRST_DRAWING_ID : collector.render(this);
+        return markupStart + drawingId + markupEnd;
+    }
+
+    /**
+     * Two images are equal if they have the same content and displayed size.
+     */
+    @Override
+    public boolean equals(Object obj)
+    {
+        return obj instanceof WebbleImage && key.equals(((WebbleImage) obj).key);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return key.hashCode();
+    }
+
+    /**
+     * Returns the image content.
+     *
+     * @return the image content.
+     */
+    byte[] getData()
+    {
+        return data;
+    }
+
+    /**
+     * Returns the SHA-256 of the image content, as hexadecimal.
+     *
+     * @return the SHA-256 of the image content, as hexadecimal.
+     */
+    String getHash()
+    {
+        return hash;
+    }
+
+    /**
+     * Returns the key identifying the image: its content hash and displayed size.
+     *
+     * @return the key identifying the image.
+     */
+    String getKey()
+    {
+        return key;
+    }
+
+    /**
+     * Returns the file extension of the image.
+     *
+     * @return the file extension of the image.
+     */
+    String getExtension()
+    {
+        return extension;
+    }
+
+    /**
+     * Returns the content type of the image.
+     *
+     * @return the content type of the image.
+     */
+    String getContentType()
+    {
+        return contentType;
+    }
+
+    /**
+     * Returns the name of the image in <code>word/media</code>.
+     *
+     * @return the name of the image in <code>word/media</code>.
+     */
+    String getMediaName()
+    {
+        return "webble-" + hash.substring(0, 16) + "." + extension;
+    }
+
+    /**
+     * Returns the id of the relationship from the rendered part to the image.
+     *
+     * @return the id of the relationship from the rendered part to the image.
+     */
+    String getRelationshipId()
+    {
+        return "rIdWebble" + hash.substring(0, 16);
+    }
+
+    /**
+     * Starts collecting the images rendered by the current thread, for a new document. The collector of the enclosing
+     * document, if any, is restored on close.
+     *
+     * @return the collector, to close once the document has been evaluated.
+     */
+    static MediaCollector collect()
+    {
+        MediaCollector collector = new MediaCollector(CURRENT_COLLECTOR.get());
+        CURRENT_COLLECTOR.set(collector);
+        return collector;
+    }
+
+    private static void purgeCollected()
+    {
+        ImageReference collected;
+        while ((collected = (ImageReference) COLLECTED.poll()) != null)
+        {
+            CACHE.remove(collected.key, collected);
+        }
+    }
+
+    /** Cache entry, cleared when the image is no longer bound anywhere. */
+    private static final class ImageReference extends WeakReference<WebbleImage>
+    {
+        private final String key;
+
+        ImageReference(String key, WebbleImage image)
+        {
+            super(image, COLLECTED);
+            this.key = key;
+        }
+    }
+
+    /** Supported image formats. */
+    private enum ImageFormat
+    {
+        PNG("png", "image/png"),
+        JPEG("jpeg", "image/jpeg"),
+        GIF("gif", "image/gif"),
+        BMP("bmp", "image/bmp");
+
+        private final String extension;
+        private final String contentType;
+
+        ImageFormat(String extension, String contentType)
+        {
+            this.extension = extension;
+            this.contentType = contentType;
+        }
+
+        /** Detects the format from the image magic number. */
+        static ImageFormat detect(byte[] data) throws IOException
+        {
+            if (data.length > 8 && (data[0] & 0xFF) == 0x89 && data[1] == 'P' && data[2] == 'N' && data[3] == 'G')
+            {
+                return PNG;
+            }
+            if (data.length > 3 && (data[0] & 0xFF) == 0xFF && (data[1] & 0xFF) == 0xD8)
+            {
+                return JPEG;
+            }
+            if (data.length > 6 && data[0] == 'G' && data[1] == 'I' && data[2] == 'F')
+            {
+                return GIF;
+            }
+            if (data.length > 2 && data[0] == 'B' && data[1] == 'M')
+            {
+                return BMP;
+            }
+            throw new IOException("Unsupported image format, expecting PNG, JPEG, GIF or BMP content.");
+        }
+    }
+
+    /**
+     * Collects the images rendered while evaluating a document, and numbers their drawings.
+     */
+    static final class MediaCollector implements AutoCloseable
+    {
+        private final Set<WebbleImage> rendered = new LinkedHashSet<>();
+        /** Collector of the enclosing document, or null. */
+        private final MediaCollector previous;
+        private int drawingId = FIRST_DRAWING_ID;
+
+        private MediaCollector(MediaCollector previous)
+        {
+            this.previous = previous;
+        }
+
+        private int render(WebbleImage image)
+        {
+            rendered.add(image);
+            return drawingId++;
+        }
+
+        /**
+         * Returns the images rendered since the last call, and forgets them.
+         *
+         * @return the images rendered since the last call.
+         */
+        Set<WebbleImage> drain()
+        {
+            Set<WebbleImage> drained = new LinkedHashSet<>(rendered);
+            rendered.clear();
+            return drained;
+        }
+
+        @Override
+        public void close()
+        {
+            if (previous == null)
+            {
+                CURRENT_COLLECTOR.remove();
+            }
+            else
+            {
+                CURRENT_COLLECTOR.set(previous);
+            }
+        }
+    }
+}
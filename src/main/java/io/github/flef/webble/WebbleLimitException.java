@@ -0,0 +1,60 @@
+package io.github.flef.webble;
+
+/**
+ * Thrown when the rendering of a document exceeds one of its {@link WebbleLimits}: the document is aborted.
+ */
+public class WebbleLimitException extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+
+    /** The limits of a rendering. */
+    public enum Limit
+    {
+        /** The size of the rendered markup, in bytes. */
+        OUTPUT_BYTES("bytes of output"),
+        /** The number of loop iterations. */
+        LOOP_ITERATIONS("loop iterations"),
+        /** The rendering time, in milliseconds. */
+        RENDER_TIME("ms of rendering");
+
+        private final String unit;
+
+        Limit(String unit)
+        {
+            this.unit = unit;
+        }
+    }
+
+    private final Limit limit;
+    private final long maximum;
+
+    /**
+     * The class constructor.
+     * @param limit the limit exceeded.
+     * @param maximum the maximum value of the limit.
+     */
+    WebbleLimitException(Limit limit, long maximum)
+    {
+        super("Rendering aborted: more than " + maximum + " " + limit.unit + ".");
+        this.limit = limit;
+        this.maximum = maximum;
+    }
+
+    /**
+     * Returns the limit exceeded.
+     * @return the limit exceeded.
+     */
+    public Limit getLimit()
+    {
+        return limit;
+    }
+
+    /**
+     * Returns the maximum value of the limit exceeded.
+     * @return the maximum value of the limit exceeded.
+     */
+    public long getMaximum()
+    {
+        return maximum;
+    }
+}
@@ -0,0 +1,62 @@
+package io.github.flef.webble;
+
+/**
+ * The limits of the rendering of a document, enforced while rendering: a document exceeding one is aborted with a
+ * {@link WebbleLimitException}, and its buffers released. Limits apply to the whole document, all parts included.
+ */
+public final class WebbleLimits
+{
+    /** No limit, the default. */
+    public static final WebbleLimits UNLIMITED = new WebbleLimits(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+
+    private final long maxOutputBytes;
+    private final long maxLoopIterations;
+    private final long maxRenderMillis;
+
+    /**
+     * The class constructor.
+     * @param maxOutputBytes the maximum size of the rendered markup, in bytes (characters, the markup being mostly
+     *        ASCII), {@link Long#MAX_VALUE} for no limit.
+     * @param maxLoopIterations the maximum number of <code>for</code> iterations, all loops included,
+     *        {@link Long#MAX_VALUE} for no limit.
+     * @param maxRenderMillis the maximum rendering time, in milliseconds, {@link Long#MAX_VALUE} for no limit.
+     */
+    public WebbleLimits(long maxOutputBytes, long maxLoopIterations, long maxRenderMillis)
+    {
+        if (maxOutputBytes < 1 || maxLoopIterations < 1 || maxRenderMillis < 1)
+        {
+            throw new IllegalArgumentException("Limits must be positive: " + maxOutputBytes + " bytes, "
+                    + maxLoopIterations + " iterations, " + maxRenderMillis + " ms.");
+        }
+        this.maxOutputBytes = maxOutputBytes;
+        this.maxLoopIterations = maxLoopIterations;
+        this.maxRenderMillis = maxRenderMillis;
+    }
+
+    /**
+     * Returns the maximum size of the rendered markup.
+     * @return the maximum size of the rendered markup, in bytes.
+     */
+    public long getMaxOutputBytes()
+    {
+        return maxOutputBytes;
+    }
+
+    /**
+     * Returns the maximum number of loop iterations.
+     * @return the maximum number of loop iterations.
+     */
+    public long getMaxLoopIterations()
+    {
+        return maxLoopIterations;
+    }
+
+    /**
+     * Returns the maximum rendering time.
+     * @return the maximum rendering time, in milliseconds.
+     */
+    public long getMaxRenderMillis()
+    {
+        return maxRenderMillis;
+    }
+}
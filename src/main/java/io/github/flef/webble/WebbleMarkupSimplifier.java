@@ -1,32 +1,31 @@
 package io.github.flef.webble;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.StringReader;
-import java.nio.charset.StandardCharsets;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
 import org.jdom2.Attribute;
+import org.jdom2.Content;
 import org.jdom2.Document;
 import org.jdom2.Element;
+import org.jdom2.JDOMException;
 import org.jdom2.Namespace;
 import org.jdom2.filter.ElementFilter;
-import org.jdom2.input.DOMBuilder;
+import org.jdom2.input.SAXBuilder;
 import org.jdom2.output.XMLOutputter;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
+
+import io.github.flef.webble.WebbleTemplateReport.PartReport;
 
 /** Simplify WordProcessingML XML markup file. */
 class WebbleMarkupSimplifier
 {
-    private static final Logger LOGGER = LoggerFactory.getLogger(WebbleMarkupSimplifier.class);
+    /** Parsers, reusing their underlying SAX parser from one document to another. */
+    private static final Pool<SAXBuilder> BUILDERS = new Pool<>(SAXBuilder::new);
+    /** Serializers. */
+    private static final Pool<XMLOutputter> OUTPUTTERS = new Pool<>(XMLOutputter::new);
     
     /** w: namespace. */
     private final static Namespace NS_W = Namespace.getNamespace("w",
@@ -43,96 +42,120 @@ class WebbleMarkupSimplifier
     /**
      * Simplifies WordProcessingML XML markup file by removing Proof, RsidInfo, Bookmarks and adjacentRuns.
      * @param doc the {@link Document} to simplify.
+     * @param report the report counting the simplifications.
      */
-    static void simplifyContent(Document doc)
+    static void simplifyContent(Document doc, PartReport report)
     {
-        removeProof(doc);
-        removeRsidInfo(doc);
-        removeBookmarks(doc);
-        mergeAdjacentRuns(doc);
+        removeRevisionInfo(doc.getRootElement(), report);
+        report.mergedRuns += mergeAdjacentRuns(doc);
     }
 
     /**
-     * Creates a {@link Document} object from an XML content represented as a {@link String}.
-     * @param xmlContent the document to parse.
+     * Creates a {@link Document} object from an XML content read from the given stream, in the encoding declared by
+     * the content.
+     * @param xmlContent the stream of the document to parse, not closed.
      * @return a {@link Document} object from the parse xmlContent.
-     * @throws IOException if content cannot be parsed to a valid {@link Document}.
+     * @throws IOException if content cannot be read or parsed to a valid {@link Document}.
      */
-    static Document stringToDocument(String xmlContent) throws IOException
+    static Document streamToDocument(InputStream xmlContent) throws IOException
     {
+        SAXBuilder builder = BUILDERS.borrow();
         try
         {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-
-            org.w3c.dom.Document w3cDoc = builder.parse(new InputSource(new StringReader(xmlContent)));
-
-            return new DOMBuilder().build(w3cDoc);
+            return builder.build(xmlContent);
         }
-        catch (SAXException | IOException | ParserConfigurationException e)
+        catch (JDOMException | IOException e)
         {
             throw new IOException("Cannot parse given XML content to a valid DOM Document.", e);
         }
+        finally
+        {
+            BUILDERS.release(builder);
+        }
+    }
 
+    /**
+     * Creates a {@link Document} object from the XML file at the given path.
+     * @param xmlFile the path of the document to parse.
+     * @return a {@link Document} object from the parsed file.
+     * @throws IOException if the file cannot be read or parsed to a valid {@link Document}.
+     */
+    static Document pathToDocument(Path xmlFile) throws IOException
+    {
+        try (InputStream is = Files.newInputStream(xmlFile))
+        {
+            return streamToDocument(is);
+        }
     }
 
     /**
      * Serializes a {@link Document} object to its {@link String} representation.
      * @param doc the {@link Document} to serialize.
      * @return the serialized XML representation of the given doc.
-     * @throws IllegalStateException if document cannot be serialize to a {@link String}.
      */
     static String documentToString(Document doc)
     {
+        XMLOutputter outputter = OUTPUTTERS.borrow();
+        String xml;
         try
         {
-            XMLOutputter xmlOutput = new XMLOutputter();
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            xmlOutput.output(doc, baos);
-            return baos.toString(StandardCharsets.UTF_8.toString());
+            xml = outputter.outputString(doc);
         }
-        catch (IOException e)
+        finally
         {
-            LOGGER.error("Cannot write xml content to memory. Is memory full ?", e);
-            throw new IllegalStateException(e);
+            OUTPUTTERS.release(outputter);
         }
+        // XMLOutputter ends documents with a line break, absent from the parts written by Word
+        return xml.endsWith("\r\n") ? xml.substring(0, xml.length() - 2) : xml;
     }
 
-    /** Removes w:proofErr from document (SpellChecks). */
-    private static void removeProof(Document doc)
-    {
-        List<Element> toRemove = new ArrayList<>();
-        doc.getDescendants(new ElementFilter("proofErr")).forEach(toRemove::add);
-        toRemove.forEach(Element::detach);
-    }
-
-    /** Removes w:rsid* from document (used by word to merge document between users). */
-    private static void removeRsidInfo(Document doc)
+    /**
+     * Removes, in a single walk, w:proofErr (SpellChecks), bookmark* and w:rsid* attributes (used by word to merge
+     * document between users) from the given element and its descendants.
+     */
+    private static void removeRevisionInfo(Element element, PartReport report)
     {
-        List<Attribute> toRemove = new ArrayList<>();
-        doc.getDescendants().forEach(c ->
+        if (element.hasAttributes())
         {
-            if (c instanceof Element)
+            List<Attribute> attributes = element.getAttributes();
+            for (int i = attributes.size() - 1; i >= 0; i--)
             {
-                Element e = (Element) c;
-                e.getAttributes().stream().filter(a -> a.getName().startsWith("rsid")).forEach(toRemove::add);
+                if (attributes.get(i).getName().startsWith("rsid"))
+                {
+                    attributes.remove(i);
+                    report.removedRsids++;
+                }
             }
-        });
-        toRemove.forEach(Attribute::detach);
-    }
+        }
 
-    /** Removes bookmark* from document. */
-    private static void removeBookmarks(Document doc)
-    {
-        List<Element> nodesToRemove = new ArrayList<>();
-        doc.getDescendants(new ElementFilter("bookmarkStart")).forEach(nodesToRemove::add);
-        doc.getDescendants(new ElementFilter("bookmarkEnd")).forEach(nodesToRemove::add);
+        for (int i = element.getContentSize() - 1; i >= 0; i--)
+        {
+            Content content = element.getContent(i);
+            if (!(content instanceof Element))
+            {
+                continue;
+            }
 
-        nodesToRemove.forEach(Element::detach);
+            Element child = (Element) content;
+            switch (child.getName())
+            {
+                case "proofErr":
+                    element.removeContent(i);
+                    report.removedProofErrors++;
+                    break;
+                case "bookmarkStart":
+                case "bookmarkEnd":
+                    element.removeContent(i);
+                    report.removedBookmarks++;
+                    break;
+                default:
+                    removeRevisionInfo(child, report);
+            }
+        }
     }
 
     /** Merges two consecutive runs if properties are equals. */
-    private static void mergeAdjacentRuns(Document contentAsXml)
+    private static int mergeAdjacentRuns(Document contentAsXml)
     {
         List<Element> ps = new ArrayList<>();
         contentAsXml.getRootElement().getDescendants(new ElementFilter("p")).forEach(ps::add);
@@ -183,11 +206,10 @@ class WebbleMarkupSimplifier
         }
 
         toRemove.forEach(Element::detach);
+        return toRemove.size();
     }
 
-    /** Returns true if given element are strictly equal (element, content, attributes). 
-     * @throws IllegalStateException if equality cannot be tested (Node are serialized to String).
-     */
+    /** Returns true if given element are strictly equal (element, content, attributes), compared node by node. */
     private static boolean areEquals(Element n, Element m)
     {
         if (n == null && m != null
@@ -200,23 +222,42 @@ class WebbleMarkupSimplifier
             return true;
         }
 
-        XMLOutputter xmlOutput = new XMLOutputter();
-        ByteArrayOutputStream nXml = new ByteArrayOutputStream();
-        ByteArrayOutputStream mXml = new ByteArrayOutputStream();
-        try
+        if (!n.getName().equals(m.getName()) || !n.getNamespaceURI().equals(m.getNamespaceURI())
+                || !n.getText().equals(m.getText()))
         {
-            xmlOutput.output(n, nXml);
-            xmlOutput.output(m, mXml);
+            return false;
+        }
 
-            String nXmlString = nXml.toString();
-            String mXmString = mXml.toString();
+        List<Attribute> nAttributes = n.getAttributes();
+        List<Attribute> mAttributes = m.getAttributes();
+        if (nAttributes.size() != mAttributes.size())
+        {
+            return false;
+        }
+        for (int i = 0; i < nAttributes.size(); i++)
+        {
+            Attribute a = nAttributes.get(i);
+            Attribute b = mAttributes.get(i);
+            if (!a.getName().equals(b.getName()) || !a.getNamespaceURI().equals(b.getNamespaceURI())
+                    || !a.getValue().equals(b.getValue()))
+            {
+                return false;
+            }
+        }
 
-            return nXmlString.equals(mXmString);
+        List<Element> nChildren = n.getChildren();
+        List<Element> mChildren = m.getChildren();
+        if (nChildren.size() != mChildren.size())
+        {
+            return false;
         }
-        catch (IOException e)
+        for (int i = 0; i < nChildren.size(); i++)
         {
-            LOGGER.error("Cannot write xml content to memory. Is memory full ?", e);
-            throw new IllegalStateException(e);
+            if (!areEquals(nChildren.get(i), mChildren.get(i)))
+            {
+                return false;
+            }
         }
+        return true;
     }
 }
@@ -0,0 +1,13 @@
+package io.github.flef.webble;
+
+/**
+ * The formats of the previews of a rendered document, see
+ * {@link WebbleEngine#preview(WebbleTemplate, WebbleContext, WebblePreviewFormat)}.
+ */
+public enum WebblePreviewFormat
+{
+    /** Plain text: a line per paragraph, table cells separated by tabs. */
+    TEXT,
+    /** Simple HTML: paragraphs, bold and italic runs, line breaks and tables, without styles. */
+    HTML
+}
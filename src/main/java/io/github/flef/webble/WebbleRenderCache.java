@@ -0,0 +1,406 @@
+package io.github.flef.webble;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache of rendered documents, in front of {@link WebbleEngine#render(WebbleTemplate, WebbleContext)}.
+ * <p>
+ * Documents are keyed by the template content and a digest of the context bindings and properties: rendering a
+ * template again with an equal context returns the cached document without evaluating it. Only contexts binding
+ * strings, numbers, booleans, enums, dates, {@link WebbleImage}s, and arrays, collections or maps of those can be
+ * digested: contexts binding other objects, such as beans, are always rendered.
+ * <p>
+ * Documents are kept in memory, up to a total size, and optionally on disk, up to another total size. Both tiers expire
+ * documents after a time to live. A cache directory belongs to a single cache: when the cache opens, the directory is
+ * swept of expired documents and of the partial files left by an interrupted process.
+ */
+public class WebbleRenderCache
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(WebbleRenderCache.class);
+
+    /** Extension of the documents cached on disk. */
+    private static final String DOCX_EXTENSION = ".docx";
+    /** Extension of the documents being written on disk. */
+    private static final String TMP_EXTENSION = ".tmp";
+
+    private final long maxBytes;
+    private final long timeToLive;
+    private final Path directory;
+    private final long maxDiskBytes;
+
+    /** Cached documents, least recently used first. */
+    private final LinkedHashMap<String, CachedDocument> documents = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes;
+
+    /** Documents cached on disk, oldest first. */
+    private final LinkedHashMap<String, DiskDocument> diskDocuments = new LinkedHashMap<>();
+    private long usedDiskBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * The class constructor, for an in memory cache.
+     * @param maxBytes the maximum total size of the documents kept in memory, in bytes.
+     * @param timeToLive the time after which a cached document expires, in milliseconds.
+     */
+    public WebbleRenderCache(long maxBytes, long timeToLive)
+    {
+        this(maxBytes, timeToLive, null);
+    }
+
+    /**
+     * The class constructor, for a cache kept in memory and on disk, the disk bounded by the time to live only.
+     * @param maxBytes the maximum total size of the documents kept in memory, in bytes.
+     * @param timeToLive the time after which a cached document expires, in milliseconds.
+     * @param directory the directory in which documents are also cached, created if missing, or null.
+     */
+    public WebbleRenderCache(long maxBytes, long timeToLive, Path directory)
+    {
+        this(maxBytes, timeToLive, directory, Long.MAX_VALUE);
+    }
+
+    /**
+     * The class constructor, for a cache kept in memory and on disk.
+     * @param maxBytes the maximum total size of the documents kept in memory, in bytes.
+     * @param timeToLive the time after which a cached document expires, in milliseconds.
+     * @param directory the directory in which documents are also cached, created if missing, or null.
+     * @param maxDiskBytes the maximum total size of the documents kept on disk, in bytes: the oldest documents are
+     * deleted first.
+     */
+    public WebbleRenderCache(long maxBytes, long timeToLive, Path directory, long maxDiskBytes)
+    {
+        if (maxBytes < 0 || timeToLive <= 0 || maxDiskBytes < 0)
+        {
+            throw new IllegalArgumentException("Sizes must not be negative, time to live must be positive.");
+        }
+        this.maxBytes = maxBytes;
+        this.timeToLive = timeToLive;
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        if (directory != null)
+        {
+            open();
+        }
+    }
+
+    /**
+     * Returns the document generated from the given template and context, rendering it only if not cached.
+     * @param template the {@link WebbleTemplate} used to generate the document.
+     * @param context the {@link WebbleContext} to bind with the template.
+     * @return the content of the generated Microsoft Word Document.
+     * @throws IOException if the document cannot be rendered, see
+     * {@link WebbleEngine#render(WebbleTemplate, WebbleContext)}.
+     */
+    public byte[] evaluate(WebbleTemplate template, WebbleContext context) throws IOException
+    {
+        String contextFingerprint = context.fingerprint();
+        if (contextFingerprint == null)
+        {
+            misses.incrementAndGet();
+            return render(template, context);
+        }
+
+        Fingerprint fingerprint = new Fingerprint().add(template.getFingerprint()).add(contextFingerprint);
+        String key = fingerprint.toHex();
+
+        byte[] cached = get(key);
+        if (cached != null)
+        {
+            hits.incrementAndGet();
+            return cached.clone();
+        }
+
+        misses.incrementAndGet();
+        byte[] rendered = render(template, context);
+        put(key, rendered.clone());
+        return rendered;
+    }
+
+    /**
+     * Removes every cached document, in memory and on disk.
+     * @throws IOException if a document cached on disk cannot be deleted.
+     */
+    public void clear() throws IOException
+    {
+        synchronized (documents)
+        {
+            documents.clear();
+            usedBytes = 0;
+        }
+        synchronized (diskDocuments)
+        {
+            diskDocuments.clear();
+            usedDiskBytes = 0;
+        }
+        if (directory != null && Files.isDirectory(directory))
+        {
+            try (Stream<Path> files = Files.list(directory))
+            {
+                for (Path file : (Iterable<Path>) files::iterator)
+                {
+                    if (file.getFileName().toString().endsWith(DOCX_EXTENSION))
+                    {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of documents returned from the cache.
+     * @return the number of documents returned from the cache.
+     */
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of documents rendered, as not cached.
+     * @return the number of documents rendered, as not cached.
+     */
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    private static byte[] render(WebbleTemplate template, WebbleContext context) throws IOException
+    {
+        try (WebbleDocument document = WebbleEngine.render(template, context))
+        {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            document.writeTo(content);
+            return content.toByteArray();
+        }
+    }
+
+    private byte[] get(String key) throws IOException
+    {
+        long now = System.currentTimeMillis();
+        synchronized (documents)
+        {
+            CachedDocument document = documents.get(key);
+            if (document != null)
+            {
+                if (now - document.created < timeToLive)
+                {
+                    return document.content;
+                }
+                documents.remove(key);
+                usedBytes -= document.content.length;
+            }
+        }
+
+        if (directory != null)
+        {
+            Path file = directory.resolve(key + DOCX_EXTENSION);
+            try
+            {
+                long created = Files.getLastModifiedTime(file).toMillis();
+                if (now - created < timeToLive)
+                {
+                    byte[] content = Files.readAllBytes(file);
+                    putInMemory(key, new CachedDocument(content, created));
+                    return content;
+                }
+                removeFromDisk(key);
+                Files.deleteIfExists(file);
+            }
+            catch (NoSuchFileException e)
+            {
+                // not cached on disk, or removed meanwhile
+            }
+        }
+        return null;
+    }
+
+    private void put(String key, byte[] content)
+    {
+        putInMemory(key, new CachedDocument(content, System.currentTimeMillis()));
+
+        if (directory != null && content.length <= maxDiskBytes)
+        {
+            try
+            {
+                Files.createDirectories(directory);
+                Path tmp = Files.createTempFile(directory, key, TMP_EXTENSION);
+                Files.write(tmp, content);
+                Path file = directory.resolve(key + DOCX_EXTENSION);
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                putOnDisk(key, new DiskDocument(content.length, Files.getLastModifiedTime(file).toMillis()));
+            }
+            catch (IOException e)
+            {
+                LOGGER.error("Cannot cache rendered document on disk in {}.", directory, e);
+            }
+        }
+    }
+
+    /**
+     * Sweeps the cache directory: deletes the partial and expired documents, then indexes the others, oldest first.
+     */
+    private void open()
+    {
+        if (!Files.isDirectory(directory))
+        {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Map<String, DiskDocument> found = new HashMap<>();
+        try (Stream<Path> files = Files.list(directory))
+        {
+            for (Path file : (Iterable<Path>) files::iterator)
+            {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TMP_EXTENSION))
+                {
+                    Files.deleteIfExists(file);
+                }
+                else if (name.endsWith(DOCX_EXTENSION))
+                {
+                    DiskDocument document = new DiskDocument(Files.size(file),
+                            Files.getLastModifiedTime(file).toMillis());
+                    if (now - document.created < timeToLive)
+                    {
+                        found.put(name.substring(0, name.length() - DOCX_EXTENSION.length()), document);
+                    }
+                    else
+                    {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            LOGGER.error("Cannot sweep render cache directory {}.", directory, e);
+        }
+
+        found.entrySet().stream().sorted(Comparator.comparingLong(e -> e.getValue().created))
+                .forEach(e -> putOnDisk(e.getKey(), e.getValue()));
+    }
+
+    /** Indexes a document written on disk, then deletes the expired and oldest documents beyond the disk size. */
+    private void putOnDisk(String key, DiskDocument document)
+    {
+        List<String> evicted = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (diskDocuments) // files deleted outside the monitor, not to pin virtual threads
+        {
+            DiskDocument previous = diskDocuments.remove(key);
+            if (previous != null)
+            {
+                usedDiskBytes -= previous.size;
+            }
+            diskDocuments.put(key, document);
+            usedDiskBytes += document.size;
+
+            Iterator<Map.Entry<String, DiskDocument>> oldest = diskDocuments.entrySet().iterator();
+            while (oldest.hasNext())
+            {
+                Map.Entry<String, DiskDocument> entry = oldest.next();
+                if (usedDiskBytes <= maxDiskBytes && now - entry.getValue().created < timeToLive)
+                {
+                    break;
+                }
+                usedDiskBytes -= entry.getValue().size;
+                oldest.remove();
+                evicted.add(entry.getKey());
+            }
+        }
+
+        for (String evictedKey : evicted)
+        {
+            try
+            {
+                Files.deleteIfExists(directory.resolve(evictedKey + DOCX_EXTENSION));
+            }
+            catch (IOException e)
+            {
+                LOGGER.error("Cannot delete cached document {} in {}.", evictedKey, directory, e);
+            }
+        }
+    }
+
+    private void removeFromDisk(String key)
+    {
+        synchronized (diskDocuments)
+        {
+            DiskDocument document = diskDocuments.remove(key);
+            if (document != null)
+            {
+                usedDiskBytes -= document.size;
+            }
+        }
+    }
+
+    private void putInMemory(String key, CachedDocument document)
+    {
+        if (document.content.length > maxBytes)
+        {
+            return;
+        }
+
+        synchronized (documents)
+        {
+            CachedDocument previous = documents.put(key, document);
+            if (previous != null)
+            {
+                usedBytes -= previous.content.length;
+            }
+            usedBytes += document.content.length;
+
+            Iterator<Map.Entry<String, CachedDocument>> eldest = documents.entrySet().iterator();
+            while (usedBytes > maxBytes && eldest.hasNext())
+            {
+                usedBytes -= eldest.next().getValue().content.length;
+                eldest.remove();
+            }
+        }
+    }
+
+    /** The size and creation time of a document cached on disk. */
+    private static final class DiskDocument
+    {
+        private final long size;
+        private final long created;
+
+        DiskDocument(long size, long created)
+        {
+            this.size = size;
+            this.created = created;
+        }
+    }
+
+    /** A rendered document, and its creation time. */
+    private static final class CachedDocument
+    {
+        private final byte[] content;
+        private final long created;
+
+        CachedDocument(byte[] content, long created)
+        {
+            this.content = content;
+            this.created = created;
+        }
+    }
+}
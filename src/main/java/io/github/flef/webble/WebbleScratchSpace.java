@@ -0,0 +1,412 @@
+package io.github.flef.webble;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link WebbleScratchSpace} holds the temporary files used to prepare and evaluate documents: unpackaged working
+ * directories, {@link WebbleTemplate}s and rendered {@link WebbleDocument}s.
+ * <p>
+ * Every file is deleted as soon as it is no longer used. The total size of the files is bounded by a quota: when the
+ * quota is reached, preparations and evaluations wait for space to be released, up to a timeout. Working directories
+ * are emptied and pooled for the next evaluations: their content is deleted on every release, pooling only saves
+ * creating and deleting the directory itself.
+ * <p>
+ * The files returned by {@link WebbleEngine#evaluate(Path, WebbleContext)} are created in the scratch space and count
+ * in its quota while rendered; once returned, they are owned by the caller and no longer count in the quota.
+ */
+public class WebbleScratchSpace
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(WebbleScratchSpace.class);
+
+    /** Default time to wait for space, in milliseconds. */
+    private static final long DEFAULT_TIMEOUT = 60_000L;
+    /** Default number of pooled working directories. */
+    private static final int DEFAULT_POOL_SIZE = 16;
+
+    private static volatile WebbleScratchSpace defaultSpace = new WebbleScratchSpace(
+            Paths.get(System.getProperty("java.io.tmpdir"), "webble"), Long.MAX_VALUE);
+
+    private final Path root;
+    private final long quota;
+    private final long timeout;
+    private final int poolSize;
+
+    private final Deque<Path> pooledDirectories = new ArrayDeque<>();
+    /** Guards the quota, a lock rather than a monitor not to pin virtual threads waiting for space. */
+    private final Lock quotaLock = new ReentrantLock();
+    private final Condition released = quotaLock.newCondition();
+    private long usedBytes;
+
+    /**
+     * The class constructor.
+     *
+     * @param root  the directory holding the temporary files, created if missing.
+     * @param quota the maximum size of the temporary files, in bytes.
+     */
+    public WebbleScratchSpace(Path root, long quota)
+    {
+        this(root, quota, DEFAULT_TIMEOUT, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * The class constructor.
+     *
+     * @param root     the directory holding the temporary files, created if missing.
+     * @param quota    the maximum size of the temporary files, in bytes.
+     * @param timeout  the maximum time to wait for space when the quota is reached, in milliseconds.
+     * @param poolSize the maximum number of empty working directories kept for reuse.
+     */
+    public WebbleScratchSpace(Path root, long quota, long timeout, int poolSize)
+    {
+        if (quota <= 0 || timeout < 0 || poolSize < 0)
+        {
+            throw new IllegalArgumentException("Quota must be positive, timeout and pool size must not be negative.");
+        }
+        this.root = root;
+        this.quota = quota;
+        this.timeout = timeout;
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * Returns the {@link WebbleScratchSpace} used by {@link WebbleEngine} and {@link WebbleTemplate}.
+     *
+     * @return the default {@link WebbleScratchSpace}.
+     */
+    public static WebbleScratchSpace getDefault()
+    {
+        return defaultSpace;
+    }
+
+    /**
+     * Sets the {@link WebbleScratchSpace} used by {@link WebbleEngine} and {@link WebbleTemplate}. Files already
+     * created stay in their former {@link WebbleScratchSpace}.
+     *
+     * @param scratchSpace the default {@link WebbleScratchSpace}.
+     */
+    public static void setDefault(WebbleScratchSpace scratchSpace)
+    {
+        if (scratchSpace == null)
+        {
+            throw new IllegalArgumentException("Scratch space cannot be null.");
+        }
+        defaultSpace = scratchSpace;
+    }
+
+    /**
+     * Returns the directory holding the temporary files.
+     *
+     * @return the directory holding the temporary files.
+     */
+    public Path getRoot()
+    {
+        return root;
+    }
+
+    /**
+     * Returns the maximum size of the temporary files, in bytes.
+     *
+     * @return the maximum size of the temporary files, in bytes.
+     */
+    public long getQuota()
+    {
+        return quota;
+    }
+
+    /**
+     * Returns the size currently reserved by temporary files, in bytes.
+     *
+     * @return the size currently reserved by temporary files, in bytes.
+     */
+    public long getUsedBytes()
+    {
+        quotaLock.lock();
+        try
+        {
+            return usedBytes;
+        }
+        finally
+        {
+            quotaLock.unlock();
+        }
+    }
+
+    /**
+     * Reserves a working directory, empty.
+     *
+     * @param estimatedSize the estimated size of the directory content, in bytes.
+     * @return the lease of the working directory, releasing it when closed.
+     * @throws IOException if the space cannot be reserved in time, or the directory cannot be created.
+     */
+    Lease acquireDirectory(long estimatedSize) throws IOException
+    {
+        reserve(estimatedSize);
+        try
+        {
+            Path directory;
+            synchronized (pooledDirectories)
+            {
+                directory = pooledDirectories.poll();
+            }
+            if (directory == null || !Files.isDirectory(directory))
+            {
+                directory = Files.createTempDirectory(createRoot(), "work");
+            }
+            return new Lease(directory, estimatedSize, true);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            release(estimatedSize);
+            throw e;
+        }
+    }
+
+    /**
+     * Reserves a new empty file.
+     *
+     * @param prefix        the file name prefix.
+     * @param suffix        the file name suffix.
+     * @param estimatedSize the estimated size of the file, in bytes.
+     * @return the lease of the file, deleting it when closed.
+     * @throws IOException if the space cannot be reserved in time, or the file cannot be created.
+     */
+    Lease createFile(String prefix, String suffix, long estimatedSize) throws IOException
+    {
+        reserve(estimatedSize);
+        try
+        {
+            return new Lease(Files.createTempFile(createRoot(), prefix, suffix), estimatedSize, false);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            release(estimatedSize);
+            throw e;
+        }
+    }
+
+    private Path createRoot() throws IOException
+    {
+        return Files.createDirectories(root);
+    }
+
+    /** Waits until the given size fits in the quota. A size larger than the quota waits for an empty space. */
+    private void reserve(long size) throws IOException
+    {
+        quotaLock.lock();
+        try
+        {
+            long deadline = System.currentTimeMillis() + timeout;
+            while (usedBytes > 0 && usedBytes + size > quota)
+            {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                {
+                    throw new IOException("Cannot reserve " + size + " bytes in scratch space " + root + ", "
+                            + usedBytes + " of " + quota + " bytes still used after " + timeout + " ms.");
+                }
+                try
+                {
+                    released.await(remaining, TimeUnit.MILLISECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for scratch space " + root + ".");
+                }
+            }
+            usedBytes += size;
+        }
+        finally
+        {
+            quotaLock.unlock();
+        }
+    }
+
+    private void release(long size)
+    {
+        resize(size, 0);
+    }
+
+    private void resize(long oldSize, long newSize)
+    {
+        quotaLock.lock();
+        try
+        {
+            usedBytes += newSize - oldSize;
+            released.signalAll();
+        }
+        finally
+        {
+            quotaLock.unlock();
+        }
+    }
+
+    /** Deletes the content of a working directory, then pools it, or deletes it if the pool is full. */
+    private void recycle(Path directory)
+    {
+        try
+        {
+            deleteContent(directory);
+            synchronized (pooledDirectories)
+            {
+                if (pooledDirectories.size() < poolSize)
+                {
+                    pooledDirectories.push(directory);
+                    return;
+                }
+            }
+            Files.deleteIfExists(directory);
+        }
+        catch (IOException e)
+        {
+            LOGGER.error("Cannot delete working directory {}.", directory, e);
+        }
+    }
+
+    private static void deleteContent(Path directory) throws IOException
+    {
+        List<Path> content;
+        try (Stream<Path> walk = Files.walk(directory))
+        {
+            content = walk.filter(p -> !p.equals(directory))
+                    .sorted(Comparator.reverseOrder())
+                    .collect(Collectors.toList());
+        }
+        for (Path path : content)
+        {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * A file or working directory reserved in the {@link WebbleScratchSpace}, until closed.
+     */
+    final class Lease implements AutoCloseable
+    {
+        private final Path path;
+        private final boolean directory;
+        /** Guarded by the quota lock, as the quota itself. */
+        private long reservedSize;
+        /** Guarded by the quota lock. */
+        private boolean closed;
+
+        private Lease(Path path, long reservedSize, boolean directory)
+        {
+            this.path = path;
+            this.reservedSize = reservedSize;
+            this.directory = directory;
+        }
+
+        /**
+         * Returns the path of the leased file or directory.
+         *
+         * @return the path of the leased file or directory.
+         */
+        Path getPath()
+        {
+            return path;
+        }
+
+        /**
+         * Updates the reserved size to the actual size of the leased file. Never waits, even when the quota is
+         * exceeded.
+         *
+         * @throws IOException if the file size cannot be read.
+         */
+        void updateSize() throws IOException
+        {
+            long size = Files.size(path); // outside the lock, not to hold the quota during I/O
+            quotaLock.lock();
+            try
+            {
+                if (!closed)
+                {
+                    resize(reservedSize, size);
+                    reservedSize = size;
+                }
+            }
+            finally
+            {
+                quotaLock.unlock();
+            }
+        }
+
+        /**
+         * Hands the leased file over to the caller: the file is kept, its size no longer counts in the quota.
+         *
+         * @return the path of the file, to be deleted by the caller.
+         */
+        Path detach()
+        {
+            quotaLock.lock();
+            try
+            {
+                if (closed)
+                {
+                    throw new IllegalStateException("Lease of " + path + " already closed.");
+                }
+                closed = true;
+                release(reservedSize);
+            }
+            finally
+            {
+                quotaLock.unlock();
+            }
+            return path;
+        }
+
+        @Override
+        public void close()
+        {
+            long size;
+            quotaLock.lock(); // I/O outside the lock, not to hold the quota meanwhile
+            try
+            {
+                if (closed)
+                {
+                    return;
+                }
+                closed = true;
+                size = reservedSize;
+            }
+            finally
+            {
+                quotaLock.unlock();
+            }
+
+            if (directory)
+            {
+                recycle(path);
+            }
+            else
+            {
+                try
+                {
+                    Files.deleteIfExists(path);
+                }
+                catch (IOException e)
+                {
+                    LOGGER.error("Cannot delete temporary file {}.", path, e);
+                }
+            }
+            release(size);
+        }
+    }
+}
@@ -0,0 +1,626 @@
+package io.github.flef.webble;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mitchellbosecke.pebble.PebbleEngine;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server rendering resident {@link WebbleTemplate}s, on the JDK embedded server. It is bound to the
+ * loopback address only, and refuses remote clients.
+ * <p>
+ * Endpoints:
+ * <ul>
+ * <li><code>POST /render/&lt;template&gt;</code>: renders the template registered under the given name with the JSON
+ * object of the request body, as a {@link WebbleBatch} record (see {@link WebbleBatch#toContext(Map)}), and streams
+ * the docx. Errors are answered 400 (malformed context), 404 (unknown template), 413 (context too large), 422 (render
+ * limit exceeded, see {@link #setLimits(WebbleLimits)}), 503 (queue full) or 500.</li>
+ * <li><code>GET /metrics</code>: the queue depth, the documents rendered and failed, the batches, the throughput and
+ * the latency histogram, in the Prometheus text format.</li>
+ * </ul>
+ * Concurrent requests for the same template are coalesced into batches, rendered on a bounded number of workers: the
+ * documents of a batch share the parsing of the template parts. Under light load, batches hold a single request.
+ * <p>
+ * The render requests handled at once are bounded by the queue and the workers, further ones are answered 503. The
+ * bound holds whatever the executors: on Java 21 and later, requests and batches run on unbounded virtual threads.
+ * The context of a request is only read once queued, so that at most a context per queued request is held in memory.
+ * <p>
+ * Also a command line entry point:
+ *
+ * <pre>
+ * java io.github.flef.webble.WebbleServer --template offer=offer.docx [--template invoice=invoice.wbbl]
+ *         [--port 8080] [--workers 8] [--max-context-bytes 1048576]
+ * </pre>
+ */
+public class WebbleServer implements AutoCloseable
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(WebbleServer.class);
+
+    private static final String RENDER_PATH = "/render/";
+    private static final String METRICS_PATH = "/metrics";
+    private static final String DOCX_TYPE = "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
+    /** Maximum requests rendered in a batch. */
+    private static final int MAX_BATCH = 16;
+    /** Requests queued per worker before answering 503. */
+    private static final int QUEUED_PER_WORKER = 32;
+    /** Default maximum size of a request body, in bytes. */
+    private static final int MAX_CONTEXT_BYTES = 1024 * 1024;
+    /** Upper bounds of the latency histogram buckets, in milliseconds. */
+    private static final long[] LATENCY_BUCKETS = { 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+
+    private final HttpServer server;
+    private final int workers;
+    private final int maxQueued;
+    private final int maxContextBytes;
+    private final ExecutorService renderers;
+    private final ExecutorService handlers;
+    /** Render requests handled at once, waiting for their document or reading their context. */
+    private final Semaphore handling;
+    private final Map<String, ResidentTemplate> templates = new ConcurrentHashMap<>();
+    private WebbleLimits limits = WebbleLimits.UNLIMITED;
+
+    private final AtomicInteger activeBatches = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong rendered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLongArray latencies = new AtomicLongArray(LATENCY_BUCKETS.length + 1);
+    private final AtomicLong latencySum = new AtomicLong();
+    private final long start = System.nanoTime();
+
+    /**
+     * The class constructor: the server is bound, not started. Request contexts are limited to 1 MB.
+     * @param port the port, on the loopback address, 0 for any free port.
+     * @param workers the number of documents rendered in parallel.
+     * @throws IOException if the port cannot be bound.
+     */
+    public WebbleServer(int port, int workers) throws IOException
+    {
+        this(port, workers, MAX_CONTEXT_BYTES);
+    }
+
+    /**
+     * The class constructor: the server is bound, not started.
+     * @param port the port, on the loopback address, 0 for any free port.
+     * @param workers the number of documents rendered in parallel.
+     * @param maxContextBytes the maximum size of the JSON context of a request, in bytes: up to a context per queued
+     *        request is held in memory.
+     * @throws IOException if the port cannot be bound.
+     */
+    public WebbleServer(int port, int workers, int maxContextBytes) throws IOException
+    {
+        if (workers < 1)
+        {
+            throw new IllegalArgumentException("Workers must be positive: " + workers);
+        }
+        if (maxContextBytes < 1)
+        {
+            throw new IllegalArgumentException("Maximum context size must be positive: " + maxContextBytes);
+        }
+        this.workers = workers;
+        this.maxQueued = workers * QUEUED_PER_WORKER;
+        this.maxContextBytes = maxContextBytes;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.renderers = Workers.newExecutor(workers, "webble-server");
+        // handlers wait for their document: one per queued request, bounded by the semaphore on virtual threads too
+        this.handlers = Workers.newExecutor(maxQueued + workers, "webble-server-http");
+        this.handling = new Semaphore(maxQueued + workers);
+        server.setExecutor(handlers);
+        server.createContext(RENDER_PATH, this::handleRender);
+        server.createContext(METRICS_PATH, this::handleMetrics);
+    }
+
+    /**
+     * Registers a template, resident until the server is closed, replacing the template of the same name. The
+     * requests still queued for the replaced template fail.
+     * @param name the name of the template, in the render path.
+     * @param template the template, not closed by the server.
+     */
+    public void register(String name, WebbleTemplate template)
+    {
+        ResidentTemplate replaced = templates.put(name, new ResidentTemplate(template));
+        if (replaced != null)
+        {
+            replaced.close();
+        }
+    }
+
+    /**
+     * Sets the limits of the rendering of each document.
+     * @param limits the limits of each document, {@link WebbleLimits#UNLIMITED} by default.
+     */
+    public void setLimits(WebbleLimits limits)
+    {
+        this.limits = limits == null ? WebbleLimits.UNLIMITED : limits;
+    }
+
+    /**
+     * Starts serving requests.
+     */
+    public void start()
+    {
+        server.start();
+    }
+
+    /**
+     * Returns the port the server is bound to.
+     * @return the port the server is bound to.
+     */
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server, waiting at most a second for the requests in progress.
+     */
+    @Override
+    public void close()
+    {
+        server.stop(1);
+        renderers.shutdownNow();
+        handlers.shutdownNow();
+    }
+
+    private void handleRender(HttpExchange exchange) throws IOException
+    {
+        if (!handling.tryAcquire())
+        {
+            try
+            {
+                respond(exchange, 503, "Too many requests.");
+            }
+            finally
+            {
+                exchange.close();
+            }
+            return;
+        }
+        try
+        {
+            if (!accept(exchange, "POST"))
+            {
+                return;
+            }
+            ResidentTemplate resident = templates.get(exchange.getRequestURI().getPath()
+                    .substring(RENDER_PATH.length()));
+            if (resident == null)
+            {
+                respond(exchange, 404, "Unknown template.");
+                return;
+            }
+
+            // queued before its context is read: the contexts held in memory are bounded by the queue
+            if (queued.incrementAndGet() > maxQueued)
+            {
+                queued.decrementAndGet();
+                respond(exchange, 503, "Render queue full.");
+                return;
+            }
+            RenderRequest request = null;
+            try
+            {
+                WebbleContext context = readContext(exchange);
+                if (context == null) // answered
+                {
+                    return;
+                }
+                context.setLimits(limits);
+                request = new RenderRequest(context);
+                resident.pending.add(request);
+            }
+            finally
+            {
+                if (request == null) // not queued after all
+                {
+                    queued.decrementAndGet();
+                }
+            }
+            if (resident.closed) // replaced meanwhile
+            {
+                resident.close();
+            }
+            schedule();
+
+            try (WebbleDocument document = await(request))
+            {
+                exchange.getResponseHeaders().set("Content-Type", DOCX_TYPE);
+                exchange.sendResponseHeaders(200, Files.size(document.getPath()));
+                try (OutputStream out = exchange.getResponseBody())
+                {
+                    document.writeTo(out);
+                }
+            }
+        }
+        catch (WebbleLimitException e)
+        {
+            respond(exchange, 422, e.getMessage());
+        }
+        catch (IOException | RuntimeException e)
+        {
+            LOGGER.error("Cannot render {}.", exchange.getRequestURI(), e);
+            respond(exchange, 500, "Cannot render the document: " + e.getMessage());
+        }
+        finally
+        {
+            handling.release();
+            exchange.close();
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            if (accept(exchange, "GET"))
+            {
+                respond(exchange, 200, metrics());
+            }
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    /** Returns false, after answering, if the request is not local or not of the given method. */
+    private static boolean accept(HttpExchange exchange, String method) throws IOException
+    {
+        if (!exchange.getRemoteAddress().getAddress().isLoopbackAddress())
+        {
+            respond(exchange, 403, "Local clients only.");
+            return false;
+        }
+        if (!exchange.getRequestMethod().equals(method))
+        {
+            exchange.getResponseHeaders().set("Allow", method);
+            respond(exchange, 405, method + " only.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Schedules batches of the pending requests, while workers are free.
+     */
+    private void schedule()
+    {
+        for (ResidentTemplate resident : templates.values())
+        {
+            while (!resident.pending.isEmpty())
+            {
+                int active = activeBatches.get();
+                if (active >= workers)
+                {
+                    return;
+                }
+                if (!activeBatches.compareAndSet(active, active + 1))
+                {
+                    continue;
+                }
+
+                List<RenderRequest> batch = new ArrayList<>();
+                RenderRequest request;
+                while (batch.size() < MAX_BATCH && (request = resident.pending.poll()) != null)
+                {
+                    batch.add(request);
+                }
+                if (batch.isEmpty()) // drained meanwhile
+                {
+                    activeBatches.decrementAndGet();
+                    break;
+                }
+                renderers.execute(() -> render(resident, batch));
+            }
+        }
+    }
+
+    /** Renders a batch of requests with the engine of their template, then schedules the next batches. */
+    private void render(ResidentTemplate resident, List<RenderRequest> batch)
+    {
+        try
+        {
+            batches.incrementAndGet();
+            for (RenderRequest request : batch)
+            {
+                queued.decrementAndGet();
+                try
+                {
+                    request.result.complete(WebbleEngine.render(resident.engine, resident.template, request.context));
+                }
+                catch (Throwable e) // whatever the failure, the handler waits for the outcome
+                {
+                    request.result.completeExceptionally(e);
+                }
+            }
+        }
+        finally
+        {
+            for (RenderRequest request : batch) // not rendered, the batch failing before
+            {
+                if (request.result.completeExceptionally(new IOException("Batch aborted.")))
+                {
+                    queued.decrementAndGet();
+                }
+            }
+            activeBatches.decrementAndGet();
+            schedule();
+        }
+    }
+
+    /** Waits for the document of the given request, recording the outcome in the metrics. */
+    private WebbleDocument await(RenderRequest request) throws IOException
+    {
+        try
+        {
+            WebbleDocument document = request.result.get();
+            rendered.incrementAndGet();
+            return document;
+        }
+        catch (ExecutionException e)
+        {
+            failed.incrementAndGet();
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Cannot render the document.", e.getCause()); // e.g. an Error, answered 500
+        }
+        catch (InterruptedException e)
+        {
+            failed.incrementAndGet();
+            Thread.currentThread().interrupt();
+            request.result.thenAccept(WebbleDocument::close); // released once rendered
+            throw new IOException("Interrupted while rendering.", e);
+        }
+        finally
+        {
+            long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - request.received);
+            int bucket = 0;
+            while (bucket < LATENCY_BUCKETS.length && latency > LATENCY_BUCKETS[bucket])
+            {
+                bucket++;
+            }
+            latencies.incrementAndGet(bucket);
+            latencySum.addAndGet(latency);
+        }
+    }
+
+    /** Formats the metrics, in the Prometheus text format. */
+    private String metrics()
+    {
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        StringBuilder sb = new StringBuilder();
+        sb.append("webble_queue_depth ").append(queued.get()).append('\n');
+        sb.append("webble_active_batches ").append(activeBatches.get()).append('\n');
+        sb.append("webble_rendered_total ").append(rendered.get()).append('\n');
+        sb.append("webble_failed_total ").append(failed.get()).append('\n');
+        sb.append("webble_batches_total ").append(batches.get()).append('\n');
+        sb.append("webble_throughput_documents_per_second ")
+                .append(String.format(Locale.ROOT, "%.3f", rendered.get() / seconds)).append('\n');
+
+        long count = 0;
+        for (int i = 0; i <= LATENCY_BUCKETS.length; i++)
+        {
+            count += latencies.get(i);
+            String bound = i < LATENCY_BUCKETS.length ? Long.toString(LATENCY_BUCKETS[i]) : "+Inf";
+            sb.append("webble_latency_ms_bucket{le=\"").append(bound).append("\"} ").append(count).append('\n');
+        }
+        sb.append("webble_latency_ms_sum ").append(latencySum.get()).append('\n');
+        sb.append("webble_latency_ms_count ").append(count).append('\n');
+        return sb.toString();
+    }
+
+    /** Reads the context of a render request, or returns null after answering a malformed or too large one. */
+    private WebbleContext readContext(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            String length = exchange.getRequestHeaders().getFirst("Content-Length");
+            String body = length != null && Long.parseLong(length) > maxContextBytes ? null : readBody(exchange);
+            if (body == null)
+            {
+                respond(exchange, 413, "Context larger than " + maxContextBytes + " bytes.");
+                return null;
+            }
+            return WebbleBatch.toContext(BatchInput.parseObject(body));
+        }
+        catch (IOException | IllegalArgumentException e)
+        {
+            respond(exchange, 400, "Malformed context: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** Reads the request body, or returns null if larger than the maximum context size. */
+    private String readBody(HttpExchange exchange) throws IOException
+    {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int len;
+        try (InputStream is = exchange.getRequestBody())
+        {
+            while ((len = is.read(buffer)) > 0)
+            {
+                if (body.size() + len > maxContextBytes)
+                {
+                    return null;
+                }
+                body.write(buffer, 0, len);
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String message) throws IOException
+    {
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(body);
+        }
+    }
+
+    /** A template registered in the server, with its pending requests. */
+    private final class ResidentTemplate implements AutoCloseable
+    {
+        private final WebbleTemplate template;
+        /** Engine of all the batches, parsing the template parts once. */
+        private final PebbleEngine engine;
+        private final Queue<RenderRequest> pending = new ConcurrentLinkedQueue<>();
+        /** Replaced: its requests are no longer scheduled. */
+        private volatile boolean closed;
+
+        ResidentTemplate(WebbleTemplate template)
+        {
+            this.template = template;
+            this.engine = WebbleEngine.newEngine(template.getFragments());
+        }
+
+        /** Fails the pending requests, the template being replaced. The template itself is left open. */
+        @Override
+        public void close()
+        {
+            closed = true;
+            RenderRequest request;
+            while ((request = pending.poll()) != null)
+            {
+                queued.decrementAndGet();
+                request.result.completeExceptionally(new IOException("Template replaced before rendering."));
+            }
+        }
+    }
+
+    /** A request waiting for its document. */
+    private static final class RenderRequest
+    {
+        private final WebbleContext context;
+        private final CompletableFuture<WebbleDocument> result = new CompletableFuture<>();
+        private final long received = System.nanoTime();
+
+        RenderRequest(WebbleContext context)
+        {
+            this.context = context;
+        }
+    }
+
+    /**
+     * Command line entry point, see {@link WebbleServer}. Serves until the process is stopped, exits with status 2 on
+     * usage errors or if a template cannot be prepared.
+     * @param args the command line arguments.
+     */
+    public static void main(String[] args)
+    {
+        int port = 8080;
+        int workers = Runtime.getRuntime().availableProcessors();
+        int maxContextBytes = MAX_CONTEXT_BYTES;
+        List<String[]> templatePaths = new ArrayList<>();
+
+        try
+        {
+            for (int i = 0; i < args.length; i++)
+            {
+                String value = i + 1 < args.length ? args[i + 1] : null;
+                switch (args[i])
+                {
+                    case "--template":
+                        String[] template = required(args[i], value).split("=", 2);
+                        if (template.length != 2 || template[0].isEmpty())
+                        {
+                            throw new IllegalArgumentException("--template expects <name>=<path>: " + value);
+                        }
+                        templatePaths.add(template);
+                        break;
+                    case "--port":
+                        port = Integer.parseInt(required(args[i], value));
+                        break;
+                    case "--workers":
+                        workers = Integer.parseInt(required(args[i], value));
+                        break;
+                    case "--max-context-bytes":
+                        maxContextBytes = Integer.parseInt(required(args[i], value));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+                i++;
+            }
+            if (templatePaths.isEmpty())
+            {
+                throw new IllegalArgumentException("At least a --template is required.");
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java " + WebbleServer.class.getName()
+                    + " --template <name>=<docx|wbbl> [--template ...] [--port <port>] [--workers <count>]"
+                    + " [--max-context-bytes <bytes>]");
+            System.exit(2);
+            return;
+        }
+
+        try
+        {
+            WebbleServer server = new WebbleServer(port, workers, maxContextBytes);
+            for (String[] template : templatePaths)
+            {
+                Path path = Paths.get(template[1]);
+                server.register(template[0], path.getFileName().toString().endsWith(WebbleTemplate.WEBBLE_EXTENSION)
+                        ? WebbleTemplate.load(path) : WebbleEngine.prepare(path));
+            }
+            server.start();
+            System.err.println("Serving " + templatePaths.size() + " templates on http://localhost:"
+                    + server.getPort() + RENDER_PATH);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Cannot start: " + e.getMessage());
+            LOGGER.error("Cannot start.", e);
+            System.exit(2);
+        }
+    }
+
+    private static String required(String option, String value)
+    {
+        if (value == null)
+        {
+            throw new IllegalArgumentException("Missing value of " + option);
+        }
+        return value;
+    }
+}
@@ -1,30 +1,57 @@
 package io.github.flef.webble;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.ZipFile;
+
+import io.github.flef.webble.WebbleScratchSpace.Lease;
 
 /**
  * A WebbleTemplate is a pre processed Word document, ready to be used.
+ * Its file is held in the {@link WebbleScratchSpace} until the template is closed.
  */
-public class WebbleTemplate
+public class WebbleTemplate implements AutoCloseable
 {
-    private static final String WEBBLE_EXTENSION = ".wbbl";
+    static final String WEBBLE_EXTENSION = ".wbbl";
     
-    private final Path templatePath;
+    private final Lease templateFile;
     private final String name;
+    private final List<Part> parts;
+    private final WebbleTemplateReport report;
+    private final WebbleFragments fragments;
+    /** Guards the lazy loads, a lock rather than a monitor: loads block on I/O, pinning virtual threads. */
+    private final Lock lock = new ReentrantLock();
+    private String fingerprint;
+    private TemplateContent content;
     
     /**
      * The class constructor.
-     * @param webbleTemplate the path to the template.
+     * @param templateFile the lease of the template file.
      * @param name the name fo the template
+     * @param parts the parts to evaluate.
+     * @param report the report of the template preparation, or null if loaded or specialised.
+     * @param fragments the fragments the template includes, or null if none.
      */
-    WebbleTemplate(Path webbleTemplate, String name)
+    WebbleTemplate(Lease templateFile, String name, List<Part> parts, WebbleTemplateReport report,
+            WebbleFragments fragments)
     {
-        this.templatePath = webbleTemplate;
+        this.templateFile = templateFile;
         this.name = name;
+        this.parts = Collections.unmodifiableList(parts);
+        this.report = report;
+        this.fragments = fragments;
     }
     
     /**
@@ -35,8 +62,8 @@ public class WebbleTemplate
      */
     public void persist(Path dstFolder, String filename) throws IOException
     {
-        Files.copy(templatePath, 
-                   new FileOutputStream(new File(dstFolder.resolve(filename + WEBBLE_EXTENSION).toString())));
+        Files.copy(getTemplatePath(), dstFolder.resolve(filename + WEBBLE_EXTENSION),
+                   StandardCopyOption.REPLACE_EXISTING);
     }
     
     /**
@@ -47,9 +74,37 @@ public class WebbleTemplate
      */
     public static WebbleTemplate load(Path sourceFile) throws IOException
     {
-        Path template = Files.createTempFile(sourceFile.getFileName().toString(), ".docx");
-        Files.copy(sourceFile, new FileOutputStream(template.toFile()));
-        return new WebbleTemplate(template, sourceFile.getFileName().toString());
+        return load(sourceFile, null);
+    }
+
+    /**
+     * Loads a persisted {@link WebbleTemplate} including fragments, prepared with the same fragments as the given
+     * registry.
+     * @param sourceFile the persisted {@link WebbleTemplate}.
+     * @param fragments the fragments the template includes, or null if none.
+     * @return a {@link WebbleTemplate} object from the loaded sourceFile.
+     * @throws IOException if the file cannot be read.
+     */
+    public static WebbleTemplate load(Path sourceFile, WebbleFragments fragments) throws IOException
+    {
+        Lease template = WebbleScratchSpace.getDefault().createFile("template", WEBBLE_EXTENSION,
+                Files.size(sourceFile));
+        try
+        {
+            Files.copy(sourceFile, template.getPath(), StandardCopyOption.REPLACE_EXISTING);
+            template.updateSize();
+            
+            try (ZipFile zip = new ZipFile(template.getPath().toFile()))
+            {
+                return new WebbleTemplate(template, sourceFile.getFileName().toString(), Part.list(zip), null,
+                        fragments);
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            template.close();
+            throw e;
+        }
     }
 
     /**
@@ -58,7 +113,7 @@ public class WebbleTemplate
      */
     public Path getTemplatePath()
     {
-        return templatePath;
+        return templateFile.getPath();
     }
 
     /**
@@ -69,4 +124,118 @@ public class WebbleTemplate
     {
         return name;
     }
+
+    /**
+     * Returns the statistics collected when this template was prepared.
+     * @return the {@link WebbleTemplateReport} of this template, or null if this template has been loaded or
+     * specialised, not prepared.
+     */
+    public WebbleTemplateReport getReport()
+    {
+        return report;
+    }
+
+    /**
+     * Returns the fragments this template includes.
+     * @return the fragments this template includes, or null if none.
+     */
+    WebbleFragments getFragments()
+    {
+        return fragments;
+    }
+
+    /**
+     * Returns the parts to evaluate.
+     * @return the parts to evaluate.
+     */
+    List<Part> getParts()
+    {
+        return parts;
+    }
+
+    /**
+     * Returns the content shared by the evaluations of this template, loaded on first call.
+     * @return the content of this template.
+     * @throws IOException if the template file cannot be read.
+     */
+    TemplateContent getContent() throws IOException
+    {
+        lock.lock();
+        try
+        {
+            if (content == null)
+            {
+                content = TemplateContent.load(getTemplatePath(), parts);
+            }
+            return content;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the SHA-256 of the template file and of the fragments it includes, identifying the template content.
+     * @return the SHA-256 of the template, as hexadecimal.
+     * @throws IOException if the template file cannot be read, or includes a fragment no longer registered.
+     */
+    String getFingerprint() throws IOException
+    {
+        lock.lock();
+        try
+        {
+            if (fingerprint == null)
+            {
+                MessageDigest digest = Digests.sha256();
+                try (InputStream is = new DigestInputStream(Files.newInputStream(getTemplatePath()), digest))
+                {
+                    byte[] buffer = new byte[8192];
+                    while (is.read(buffer) > 0)
+                    {
+                        // digest only
+                    }
+                }
+                for (String included : includedFragments()) // rendered with the template, not held in its file
+                {
+                    digest.update((included + '=' + fragments.digestOf(included) + '\n')
+                            .getBytes(StandardCharsets.UTF_8));
+                }
+                fingerprint = Digests.toHex(digest.digest());
+            }
+            return fingerprint;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the names of the fragments included by the parts of this template, directly or not, sorted. */
+    private Set<String> includedFragments() throws IOException
+    {
+        Set<String> included = new TreeSet<>();
+        if (fragments != null)
+        {
+            TemplateContent templateContent = getContent();
+            for (Part part : parts)
+            {
+                String source = templateContent.getSource(part.getName());
+                if (source != null)
+                {
+                    included.addAll(fragments.includedBy(source));
+                }
+            }
+        }
+        return included;
+    }
+
+    /**
+     * Deletes the template file, and releases its space. The template cannot be evaluated afterwards.
+     */
+    @Override
+    public void close()
+    {
+        templateFile.close();
+    }
 }
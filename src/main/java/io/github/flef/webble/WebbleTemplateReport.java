@@ -0,0 +1,310 @@
+package io.github.flef.webble;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Statistics on a {@link WebbleTemplate}, collected by {@link WebbleEngine#prepare(java.nio.file.Path)}: the size of
+ * each part, what the preparation simplified, and how many Pebble tags remain to evaluate. Used to predict the cost of
+ * rendering a template, and to spot templates worth cleaning up.
+ */
+public class WebbleTemplateReport
+{
+    private final List<PartReport> parts;
+    private final long staticBytes;
+    private final long dynamicBytes;
+
+    /**
+     * The class constructor.
+     * @param parts the reports of the evaluated parts.
+     * @param staticBytes the total size of the template entries copied as is when evaluated.
+     */
+    WebbleTemplateReport(List<PartReport> parts, long staticBytes)
+    {
+        this.parts = Collections.unmodifiableList(parts);
+        this.staticBytes = staticBytes;
+        this.dynamicBytes = parts.stream().filter(PartReport::isDynamic).mapToLong(PartReport::getPreparedBytes)
+                .sum();
+    }
+
+    /**
+     * Returns the reports of the parts evaluated, see {@link PartReport}.
+     * @return the reports of the parts evaluated, in package order.
+     */
+    public List<PartReport> getParts()
+    {
+        return parts;
+    }
+
+    /**
+     * Returns the total size of the template entries copied as is when evaluated: media, styles, static parts...
+     * @return the total size of the static entries, uncompressed, in bytes.
+     */
+    public long getStaticBytes()
+    {
+        return staticBytes;
+    }
+
+    /**
+     * Returns the total size of the prepared parts rendered by Pebble on each evaluation.
+     * @return the total size of the dynamic parts, in bytes.
+     */
+    public long getDynamicBytes()
+    {
+        return dynamicBytes;
+    }
+
+    /**
+     * Returns the ratio of the static bytes to the dynamic bytes: the higher, the more of each generated document is
+     * copied rather than rendered.
+     * @return the static to dynamic byte ratio, infinite if no part is dynamic.
+     */
+    public double getStaticToDynamicRatio()
+    {
+        return dynamicBytes == 0 ? Double.POSITIVE_INFINITY : (double) staticBytes / dynamicBytes;
+    }
+
+    /**
+     * Returns the total number of Pebble tags of the template, see {@link PartReport#getTags()}.
+     * @return the total number of Pebble tags.
+     */
+    public int getTags()
+    {
+        return parts.stream().mapToInt(PartReport::getTags).sum();
+    }
+
+    /**
+     * Returns the total number of <code>for</code> loops of the template.
+     * @return the total number of loops.
+     */
+    public int getLoops()
+    {
+        return parts.stream().mapToInt(PartReport::getLoops).sum();
+    }
+
+    /**
+     * Returns the report as a table, one line per part then the totals.
+     * @return the report as a table.
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%-28s %-17s %10s %10s %6s %6s %9s %6s %6s %6s %6s %6s%n", "part",
+                "type", "source", "prepared", "merged", "rsid", "bookmarks", "proof", "tags", "loops", "rows",
+                "paras"));
+        for (PartReport part : parts)
+        {
+            sb.append(String.format(Locale.ROOT, "%-28s %-17s %10d %10d %6d %6d %9d %6d %6d %6d %6d %6d%n",
+                    part.getName() + (part.isDynamic() ? "" : " (static)"), part.getType(), part.getSourceBytes(),
+                    part.getPreparedBytes(), part.getMergedRuns(), part.getRemovedRsids(),
+                    part.getRemovedBookmarks(), part.getRemovedProofErrors(), part.getTags(), part.getLoops(),
+                    part.getLiftedTableRows(), part.getLiftedParagraphs()));
+        }
+        sb.append(String.format(Locale.ROOT, "static %d bytes, dynamic %d bytes, ratio %.2f, %d tags, %d loops",
+                staticBytes, dynamicBytes, getStaticToDynamicRatio(), getTags(), getLoops()));
+        return sb.toString();
+    }
+
+    /**
+     * Statistics on a part of a {@link WebbleTemplate}. Counters are filled while the part is prepared.
+     */
+    public static final class PartReport
+    {
+        private final String name;
+        private final String type;
+        private final long sourceBytes;
+        private long preparedBytes;
+        private boolean dynamic;
+
+        int mergedRuns;
+        int removedRsids;
+        int removedBookmarks;
+        int removedProofErrors;
+        int liftedTableRows;
+        int liftedParagraphs;
+        int expressions;
+        int statements;
+        int comments;
+        int loops;
+
+        /**
+         * The class constructor.
+         * @param part the reported part, as listed before preparation.
+         * @param sourceBytes the size of the part in the source document.
+         */
+        PartReport(Part part, long sourceBytes)
+        {
+            this.name = part.getName();
+            this.type = part.getType().name();
+            this.sourceBytes = sourceBytes;
+            this.preparedBytes = sourceBytes;
+            this.dynamic = part.isDynamic();
+        }
+
+        /**
+         * Records the prepared content of the part, counting its tags.
+         * @param xmlContent the prepared part content.
+         * @param dynamic false if the original part is kept, copied as is when evaluated.
+         */
+        void prepared(String xmlContent, boolean dynamic)
+        {
+            this.dynamic = dynamic;
+            if (dynamic)
+            {
+                preparedBytes = xmlContent.getBytes(StandardCharsets.UTF_8).length;
+            }
+            expressions = count(xmlContent, "{{");
+            statements = count(xmlContent, "{%");
+            comments = count(xmlContent, "{#");
+            loops = xmlContent.split("\\{%-?\\s*for\\s", -1).length - 1;
+        }
+
+        /**
+         * Returns the part name, relative to the package root (e.g. <code>word/document.xml</code>).
+         * @return the part name.
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Returns the part type (e.g. <code>DOCUMENT</code>, <code>HEADER</code>, <code>FOOTNOTES</code>).
+         * @return the part type.
+         */
+        public String getType()
+        {
+            return type;
+        }
+
+        /**
+         * Returns false if the part holds no Pebble tag, and is copied as is when evaluated.
+         * @return false if the part is copied as is when evaluated.
+         */
+        public boolean isDynamic()
+        {
+            return dynamic;
+        }
+
+        /**
+         * Returns the size of the part in the source document.
+         * @return the size of the source part, in bytes.
+         */
+        public long getSourceBytes()
+        {
+            return sourceBytes;
+        }
+
+        /**
+         * Returns the size of the part in the template, after preparation.
+         * @return the size of the prepared part, in bytes.
+         */
+        public long getPreparedBytes()
+        {
+            return preparedBytes;
+        }
+
+        /**
+         * Returns the number of runs merged into their previous run, having the same properties.
+         * @return the number of runs merged.
+         */
+        public int getMergedRuns()
+        {
+            return mergedRuns;
+        }
+
+        /**
+         * Returns the number of revision identifier (<code>w:rsid*</code>) attributes removed.
+         * @return the number of rsid attributes removed.
+         */
+        public int getRemovedRsids()
+        {
+            return removedRsids;
+        }
+
+        /**
+         * Returns the number of bookmark start and end elements removed.
+         * @return the number of bookmark elements removed.
+         */
+        public int getRemovedBookmarks()
+        {
+            return removedBookmarks;
+        }
+
+        /**
+         * Returns the number of spelling and grammar (<code>w:proofErr</code>) elements removed.
+         * @return the number of proofErr elements removed.
+         */
+        public int getRemovedProofErrors()
+        {
+            return removedProofErrors;
+        }
+
+        /**
+         * Returns the number of table rows holding only statements, lifted out of the table.
+         * @return the number of table rows lifted.
+         */
+        public int getLiftedTableRows()
+        {
+            return liftedTableRows;
+        }
+
+        /**
+         * Returns the number of paragraphs holding only statements, lifted out of the text.
+         * @return the number of paragraphs lifted.
+         */
+        public int getLiftedParagraphs()
+        {
+            return liftedParagraphs;
+        }
+
+        /**
+         * Returns the number of Pebble tags of the prepared part: expressions, statements and comments.
+         * @return the number of Pebble tags.
+         */
+        public int getTags()
+        {
+            return expressions + statements + comments;
+        }
+
+        /**
+         * Returns the number of Pebble expressions (<code>{{ ... }}</code>) of the prepared part.
+         * @return the number of Pebble expressions.
+         */
+        public int getExpressions()
+        {
+            return expressions;
+        }
+
+        /**
+         * Returns the number of Pebble statements (<code>{% ... %}</code>) of the prepared part.
+         * @return the number of Pebble statements.
+         */
+        public int getStatements()
+        {
+            return statements;
+        }
+
+        /**
+         * Returns the number of <code>for</code> loops of the prepared part.
+         * @return the number of loops.
+         */
+        public int getLoops()
+        {
+            return loops;
+        }
+
+        private static int count(String content, String token)
+        {
+            int count = 0;
+            for (int i = content.indexOf(token); i >= 0; i = content.indexOf(token, i + token.length()))
+            {
+                count++;
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package io.github.flef.webble;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors rendering documents in bulk. On Java 8 to 20, a pool of platform threads; the multi-release
+ * jar overrides this class on Java 21 and later, with a virtual thread per document.
+ */
+final class Workers
+{
+    /** Util class. */
+    private Workers()
+    {
+
+    }
+
+    /**
+     * Creates an executor rendering documents.
+     * @param workers the number of documents rendered in parallel, the callers bounding the tasks submitted.
+     * @param name the prefix of the thread names.
+     * @return the executor, to shut down.
+     */
+    static ExecutorService newExecutor(int workers, String name)
+    {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory threads = r ->
+        {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(workers, threads);
+    }
+
+    /**
+     * Returns true if the executors run a virtual thread per document.
+     * @return true if the executors run virtual threads.
+     */
+    static boolean isVirtual()
+    {
+        return false;
+    }
+}
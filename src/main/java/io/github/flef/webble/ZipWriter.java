@@ -0,0 +1,375 @@
+package io.github.flef.webble;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes a zip of {@link PackedEntry}s and streamed entries. Packed entries are copied compressed as they are, with
+ * their CRC and sizes known in advance, so local headers need no data descriptor. Streamed entries are deflated as they
+ * are written, their CRC and sizes following their data in a data descriptor. The central directory lists the entries
+ * in write order, or in a given order (see {@link #order(List)}): readers list the entries in that order, whatever the
+ * order they have been streamed in. ZIP64 is not supported: packages are limited to 65535 entries and 4 GB.
+ */
+class ZipWriter implements AutoCloseable
+{
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+    /** Version needed to extract deflated entries: 2.0. */
+    private static final int VERSION = 20;
+    /** General purpose flag: names are encoded in UTF-8. */
+    private static final int UTF8_FLAG = 1 << 11;
+    /** General purpose flag: CRC and sizes are in the data descriptor following the data. */
+    private static final int DESCRIPTOR_FLAG = 1 << 3;
+    /** Maximum value of the 32 bits fields. */
+    private static final long MAX_32 = 0xFFFFFFFFL;
+    /** Maximum number of entries. */
+    private static final int MAX_ENTRIES = 0xFFFF;
+    /** MS-DOS time of 1980-01-01 00:00, the earliest time of a zip entry. */
+    static final int DOS_EPOCH = (1 << 21) | (1 << 16);
+
+    private final OutputStream out;
+    private final boolean normalized;
+    /** Central headers of the entries written, by name, in write order. */
+    private final Map<String, byte[]> centralHeaders = new LinkedHashMap<>();
+    private List<String> order = Collections.emptyList();
+    private final byte[] header = new byte[46];
+    private long offset;
+    private int entries;
+    /** Deflater of the streamed entries, created on first use. */
+    private Deflater deflater;
+    private EntryStream openEntry;
+
+    /**
+     * The class constructor.
+     * @param out the stream to write the zip to, closed with this writer.
+     */
+    ZipWriter(OutputStream out)
+    {
+        this(out, false);
+    }
+
+    /**
+     * The class constructor.
+     * @param out the stream to write the zip to, closed with this writer.
+     * @param normalized true to write every entry with the time {@link #DOS_EPOCH}, whatever its own time, for the same
+     * entries to make the same bytes.
+     */
+    ZipWriter(OutputStream out, boolean normalized)
+    {
+        this.out = out;
+        this.normalized = normalized;
+    }
+
+    /**
+     * Orders the central directory: the entries of the given names first, in the given order, then the others in write
+     * order.
+     * @param names the entry names, e.g. as in the source of the package.
+     */
+    void order(List<String> names)
+    {
+        this.order = names;
+    }
+
+    /**
+     * Writes the given entry, as is.
+     * @param entry the entry.
+     * @throws IOException if the entry cannot be written, or an entry of the same name has been written.
+     */
+    void write(PackedEntry entry) throws IOException
+    {
+        byte[] name = startEntry(entry.getName());
+        int flags = isAscii(entry.getName()) ? 0 : UTF8_FLAG;
+
+        int pos = 0;
+        pos = putInt(header, pos, LOCAL_HEADER);
+        pos = putShort(header, pos, VERSION);
+        int dosTime = normalized ? DOS_EPOCH : entry.getDosTime();
+        pos = putEntry(header, pos, flags, entry.getMethod(), dosTime, entry.getCrc(), entry.getCompressedSize(),
+                entry.getSize(), name.length);
+        out.write(header, 0, pos);
+        out.write(name);
+        entry.writeData(out);
+
+        endEntry(entry.getName(), name, flags, entry.getMethod(), dosTime, entry.getCrc(), entry.getCompressedSize(),
+                entry.getSize());
+    }
+
+    /**
+     * Opens an entry deflated as it is written, its CRC and sizes written after its data. The entry must be closed
+     * before writing any other.
+     * @param name the entry name, relative to the package root (e.g. <code>word/document.xml</code>).
+     * @param dosTime the last modification time of the entry, in MS-DOS format, see {@link #dosTime(long)}.
+     * @return the stream of the entry content, to close once written. Closing it does not close the zip.
+     * @throws IOException if the entry cannot be written, or an entry of the same name has been written.
+     */
+    OutputStream openEntry(String name, int dosTime) throws IOException
+    {
+        byte[] encodedName = startEntry(name);
+        if (normalized)
+        {
+            dosTime = DOS_EPOCH;
+        }
+        int flags = (isAscii(name) ? 0 : UTF8_FLAG) | DESCRIPTOR_FLAG;
+
+        int pos = 0;
+        pos = putInt(header, pos, LOCAL_HEADER);
+        pos = putShort(header, pos, VERSION);
+        pos = putEntry(header, pos, flags, ZipEntry.DEFLATED, dosTime, 0, 0, 0, encodedName.length);
+        out.write(header, 0, pos);
+        out.write(encodedName);
+
+        if (deflater == null)
+        {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+        deflater.reset();
+        openEntry = new EntryStream(name, encodedName, flags, dosTime);
+        return openEntry;
+    }
+
+    /** Checks that the given entry can be written, returns its encoded name. */
+    private byte[] startEntry(String name) throws IOException
+    {
+        if (openEntry != null)
+        {
+            throw new IllegalStateException("Entry not closed: " + openEntry.name);
+        }
+        if (centralHeaders.containsKey(name))
+        {
+            throw new IOException("Duplicate zip entry: " + name);
+        }
+        if (entries == MAX_ENTRIES || offset > MAX_32)
+        {
+            throw new IOException("Package too large, ZIP64 is not supported.");
+        }
+        return name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Records the central header of the entry written, its data and descriptor included in the given size. */
+    private void endEntry(String name, byte[] encodedName, int flags, int method, int dosTime, long crc,
+            long compressedSize, long size) throws IOException
+    {
+        if (compressedSize > MAX_32 || size > MAX_32)
+        {
+            throw new IOException("Package too large, ZIP64 is not supported.");
+        }
+
+        int pos = 0;
+        pos = putInt(header, pos, CENTRAL_HEADER);
+        pos = putShort(header, pos, VERSION); // made by
+        pos = putShort(header, pos, VERSION); // needed to extract
+        pos = putEntry(header, pos, flags, method, dosTime, crc, compressedSize, size, encodedName.length);
+        pos = putShort(header, pos, 0); // comment length
+        pos = putShort(header, pos, 0); // disk number
+        pos = putShort(header, pos, 0); // internal attributes
+        pos = putInt(header, pos, 0); // external attributes
+        pos = putInt(header, pos, (int) offset);
+        byte[] centralHeader = Arrays.copyOf(header, pos + encodedName.length);
+        System.arraycopy(encodedName, 0, centralHeader, pos, encodedName.length);
+        centralHeaders.put(name, centralHeader);
+
+        offset += 30 + encodedName.length + compressedSize + ((flags & DESCRIPTOR_FLAG) != 0 ? 16 : 0);
+        entries++;
+    }
+
+    /**
+     * Writes the central directory, then closes the stream.
+     * @throws IOException if the central directory cannot be written.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            if (offset > MAX_32)
+            {
+                throw new IOException("Package too large, ZIP64 is not supported.");
+            }
+            if (deflater != null)
+            {
+                deflater.end();
+            }
+            long centralDirectorySize = 0;
+            for (String name : order)
+            {
+                byte[] centralHeader = centralHeaders.remove(name);
+                if (centralHeader != null)
+                {
+                    out.write(centralHeader);
+                    centralDirectorySize += centralHeader.length;
+                }
+            }
+            for (byte[] centralHeader : centralHeaders.values())
+            {
+                out.write(centralHeader);
+                centralDirectorySize += centralHeader.length;
+            }
+
+            int pos = 0;
+            pos = putInt(header, pos, END_OF_CENTRAL_DIRECTORY);
+            pos = putShort(header, pos, 0); // disk number
+            pos = putShort(header, pos, 0); // disk of the central directory
+            pos = putShort(header, pos, entries);
+            pos = putShort(header, pos, entries);
+            pos = putInt(header, pos, (int) centralDirectorySize);
+            pos = putInt(header, pos, (int) offset);
+            pos = putShort(header, pos, 0); // comment length
+            out.write(header, 0, pos);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Converts the given time to the MS-DOS format of zip entries, in the default time zone.
+     * @param millis the time, in milliseconds since the epoch.
+     * @return the time in MS-DOS format, 1980-01-01 if the time is before.
+     */
+    static int dosTime(long millis)
+    {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        if (time.getYear() < 1980)
+        {
+            return DOS_EPOCH;
+        }
+        return (time.getYear() - 1980) << 25 | time.getMonthValue() << 21 | time.getDayOfMonth() << 16
+                | time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() >> 1;
+    }
+
+    /** Puts the fields shared by the local and central headers, from the general purpose flag to the extra length. */
+    private static int putEntry(byte[] header, int pos, int flags, int method, int dosTime, long crc,
+            long compressedSize, long size, int nameLength)
+    {
+        pos = putShort(header, pos, flags);
+        pos = putShort(header, pos, method);
+        pos = putInt(header, pos, dosTime);
+        pos = putInt(header, pos, (int) crc);
+        pos = putInt(header, pos, (int) compressedSize);
+        pos = putInt(header, pos, (int) size);
+        pos = putShort(header, pos, nameLength);
+        return putShort(header, pos, 0); // extra length
+    }
+
+    private static int putShort(byte[] b, int pos, int value)
+    {
+        b[pos] = (byte) value;
+        b[pos + 1] = (byte) (value >>> 8);
+        return pos + 2;
+    }
+
+    private static int putInt(byte[] b, int pos, int value)
+    {
+        b[pos] = (byte) value;
+        b[pos + 1] = (byte) (value >>> 8);
+        b[pos + 2] = (byte) (value >>> 16);
+        b[pos + 3] = (byte) (value >>> 24);
+        return pos + 4;
+    }
+
+    /**
+     * The content of a streamed entry, deflated into the zip as written.
+     */
+    private final class EntryStream extends OutputStream
+    {
+        private final String name;
+        private final byte[] encodedName;
+        private final int flags;
+        private final int dosTime;
+        private final CRC32 crc = new CRC32();
+        private final byte[] buffer = new byte[8192];
+        private long size;
+        private long compressedSize;
+        private boolean closed;
+
+        EntryStream(String name, byte[] encodedName, int flags, int dosTime)
+        {
+            this.name = name;
+            this.encodedName = encodedName;
+            this.flags = flags;
+            this.dosTime = dosTime;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            if (closed)
+            {
+                throw new IOException("Entry closed.");
+            }
+            crc.update(b, off, len);
+            size += len;
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput())
+            {
+                deflate();
+            }
+        }
+
+        /** Finishes the entry data, then writes its descriptor. */
+        @Override
+        public void close() throws IOException
+        {
+            if (closed)
+            {
+                return;
+            }
+            closed = true;
+            deflater.finish();
+            while (!deflater.finished())
+            {
+                deflate();
+            }
+
+            int pos = 0;
+            pos = putInt(header, pos, DATA_DESCRIPTOR);
+            pos = putInt(header, pos, (int) crc.getValue());
+            pos = putInt(header, pos, (int) compressedSize);
+            pos = putInt(header, pos, (int) size);
+            out.write(header, 0, pos);
+
+            openEntry = null;
+            endEntry(name, encodedName, flags, ZipEntry.DEFLATED, dosTime, crc.getValue(), compressedSize, size);
+        }
+
+        private void deflate() throws IOException
+        {
+            int len = deflater.deflate(buffer);
+            out.write(buffer, 0, len);
+            compressedSize += len;
+        }
+    }
+
+    private static boolean isAscii(String name)
+    {
+        for (int i = 0; i < name.length(); i++)
+        {
+            if (name.charAt(i) >= 0x80)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,41 @@
+package io.github.flef.webble;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executors rendering documents in bulk: on Java 21 and later, a virtual thread per document. Rendering
+ * mostly blocks on files and zips, the carriers are released meanwhile: Webble guards its I/O with locks, not
+ * monitors, not to pin them.
+ * <p>
+ * The executors are unbounded, the number of workers is ignored: callers bound the tasks they submit themselves, as
+ * {@link WebbleBatch} does with a semaphore. Internal, {@link WebbleBatch} being the public bulk rendering API.
+ */
+final class Workers
+{
+    /** Util class. */
+    private Workers()
+    {
+
+    }
+
+    /**
+     * Creates an executor rendering documents.
+     * @param workers ignored: virtual threads are not pooled, the callers bound the tasks they submit.
+     * @param name the prefix of the thread names.
+     * @return the executor, to shut down.
+     */
+    static ExecutorService newExecutor(int workers, String name)
+    {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 1).factory());
+    }
+
+    /**
+     * Returns true if the executors run a virtual thread per document.
+     * @return true if the executors run virtual threads.
+     */
+    static boolean isVirtual()
+    {
+        return true;
+    }
+}
@@ -0,0 +1,115 @@
+package io.github.flef.webble;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipFile;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test on the specialisation of templates against constants.
+ */
+public class ConstantFolderTest
+{
+    private static final Map<String, Object> CONSTANTS = new HashMap<>();
+
+    static
+    {
+        CONSTANTS.put("product", "X");
+        CONSTANTS.put("pages", 3);
+    }
+
+    /**
+     * Keeps the branch taken by a resolved conditional, nested ones included.
+     */
+    @Test
+    public void resolvedConditionalsAreFolded()
+    {
+        assertEquals(ConstantFolder.fold("a{% if product == 'X' %}b{% else %}c{% endif %}d", CONSTANTS), "abd");
+        assertEquals(ConstantFolder.fold("a{% if product == 'Y' %}b{% elseif pages > 2 %}c{% endif %}d", CONSTANTS),
+                "acd");
+        assertEquals(ConstantFolder.fold("{% if product == 'Y' %}b{% endif %}", CONSTANTS), "");
+        assertEquals(ConstantFolder.fold("{% if name %}{% if product == 'X' %}b{% endif %}{% endif %}", CONSTANTS),
+                "{% if name %}b{% endif %}");
+    }
+
+    /**
+     * Keeps conditionals depending on other variables, from the first unresolved branch.
+     */
+    @Test
+    public void unresolvedConditionalsAreKept()
+    {
+        assertEquals(ConstantFolder.fold("{% if product == 'Y' %}a{% elseif name %}b{% else %}c{% endif %}",
+                CONSTANTS), "{% if name %}b{% else %}c{% endif %}");
+        assertEquals(ConstantFolder.fold("{% if name and product == 'X' %}a{% endif %}", CONSTANTS),
+                "{% if name and product == 'X' %}a{% endif %}");
+        assertEquals(ConstantFolder.fold("{% if product is not null %}a{% endif %}", CONSTANTS), "a");
+        assertEquals(ConstantFolder.fold("{% if other is defined %}a{% endif %}", CONSTANTS),
+                "{% if other is defined %}a{% endif %}");
+    }
+
+    /**
+     * Keeps conditionals on variables the part assigns, inside macros, or controlling whitespaces.
+     */
+    @Test
+    public void shadowedConditionalsAreKept()
+    {
+        String loop = "{% for product in products %}{% if product == 'X' %}a{% endif %}{% endfor %}";
+        assertEquals(ConstantFolder.fold(loop, CONSTANTS), loop);
+
+        String macro = "{% macro m(pages) %}{% if pages > 2 %}a{% endif %}{% endmacro %}";
+        assertEquals(ConstantFolder.fold(macro, CONSTANTS), macro);
+
+        String trim = "{%- if product == 'X' -%} a {% endif %}";
+        assertEquals(ConstantFolder.fold(trim, CONSTANTS), trim);
+
+        assertEquals(ConstantFolder.fold("{% if product == 'X' %}a{% endif %}", Collections.emptyMap()),
+                "{% if product == 'X' %}a{% endif %}");
+    }
+
+    /**
+     * A specialised template renders the same document as the original template.
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    @Test
+    public void specialisedTemplateRendersTheSame() throws URISyntaxException, IOException
+    {
+        Path docx = Paths.get(ConstantFolderTest.class.getClassLoader().getResource("constants.docx").toURI());
+        WebbleContext context = new WebbleContext();
+        context.bind("name", "Webble");
+        context.bind("product", "X");
+
+        WebbleContext constants = new WebbleContext();
+        constants.bind("product", "X");
+
+        try (WebbleTemplate template = WebbleEngine.prepare(docx);
+                WebbleTemplate specialised = WebbleEngine.specialize(template, constants))
+        {
+            assertEquals(specialised.getParts().size(), template.getParts().size());
+            try (ZipFile zip = new ZipFile(specialised.getTemplatePath().toFile()))
+            {
+                assertFalse(TestZips.read(zip, "word/document.xml").contains("{% if"));
+            }
+            try (WebbleDocument expected = WebbleEngine.render(template, context);
+                    WebbleDocument actual = WebbleEngine.render(specialised, context);
+                    ZipFile expectedZip = new ZipFile(expected.getPath().toFile());
+                    ZipFile actualZip = new ZipFile(actual.getPath().toFile()))
+            {
+                String document = TestZips.read(actualZip, "word/document.xml");
+                assertEquals(document, TestZips.read(expectedZip, "word/document.xml"));
+                assertTrue(document.contains("Product X"));
+                assertFalse(document.contains("Other product"));
+            }
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package io.github.flef.webble;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test on the parts evaluated by Webble.
+ */
+public class PartTest
+{
+    /**
+     * Lists the related parts of a registered type, detecting the template parts without any tag.
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    @Test
+    public void templateListsRegisteredParts() throws URISyntaxException, IOException
+    {
+        try (WebbleTemplate template = WebbleEngine.prepare(parts()))
+        {
+            List<String> parts = template.getParts().stream()
+                    .map(p -> p.getName() + ":" + p.getType() + ":" + p.isDynamic()).collect(Collectors.toList());
+
+            // word/orphan.xml is not related, thus not evaluated
+            assertEquals(parts,
+                    Arrays.asList("word/document.xml:DOCUMENT:true", "word/header1.xml:HEADER:false",
+                            "word/footnotes.xml:FOOTNOTES:true", "word/comments.xml:COMMENTS:true",
+                            "docProps/core.xml:CORE_PROPERTIES:true"));
+        }
+    }
+
+    /**
+     * Renders footnotes and comments, and copies static parts as is.
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    @Test
+    public void footnotesAndCommentsAreRendered() throws URISyntaxException, IOException
+    {
+        WebbleContext context = new WebbleContext();
+        context.bind("name", "Webble");
+
+        Path generated = WebbleEngine.evaluate(WebbleEngine.prepare(parts()), context);
+
+        try (ZipFile source = new ZipFile(parts().toFile()); ZipFile zip = new ZipFile(generated.toFile()))
+        {
+            assertTrue(TestZips.read(zip, "word/document.xml").contains("Hello Webble"));
+            assertTrue(TestZips.read(zip, "word/footnotes.xml").contains("Footnote for Webble"));
+            assertTrue(TestZips.read(zip, "word/comments.xml").contains("Comment for Webble"));
+            assertEquals(TestZips.read(zip, "word/header1.xml"), TestZips.read(source, "word/header1.xml"));
+            assertEquals(TestZips.read(zip, "word/orphan.xml"), TestZips.read(source, "word/orphan.xml"));
+        }
+    }
+
+    /**
+     * Copies the entries not evaluated compressed as held by the template, and deflates the evaluated ones.
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    @Test
+    public void untouchedEntriesAreCopiedCompressed() throws URISyntaxException, IOException
+    {
+        try (WebbleTemplate template = WebbleEngine.prepare(parts()))
+        {
+            Path generated = WebbleEngine.evaluate(template, new WebbleContext());
+            try (ZipFile zip = new ZipFile(generated.toFile()))
+            {
+                for (String name : Arrays.asList("word/header1.xml", "word/orphan.xml", "[Content_Types].xml"))
+                {
+                    PackedEntry entry = template.getContent().getEntry(name);
+                    ZipEntry copied = zip.getEntry(name);
+                    assertEquals(copied.getCrc(), entry.getCrc());
+                    assertEquals(copied.getCompressedSize(), entry.getCompressedSize());
+                }
+                assertEquals(template.getContent().getEntry("word/document.xml"), null);
+                assertEquals(zip.getEntry("word/document.xml").getMethod(), ZipEntry.DEFLATED);
+            }
+        }
+    }
+
+    /**
+     * Holds the small entries of a template in memory, and copies the large ones from the template file, compressed.
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    @Test
+    public void largeEntriesAreLeftInTemplate() throws URISyntaxException, IOException
+    {
+        byte[] media = new byte[100_000];
+        new Random(0).nextBytes(media);
+        Path docx = Files.createTempFile("media", ".docx");
+        try (ZipFile source = new ZipFile(parts().toFile());
+                ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(docx)))
+        {
+            for (ZipEntry entry : source.stream().collect(Collectors.toList()))
+            {
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                out.write(TestZips.read(source, entry.getName()).getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+            out.putNextEntry(new ZipEntry("word/media/noise.bin"));
+            out.write(media);
+            out.closeEntry();
+        }
+
+        try (WebbleTemplate template = WebbleEngine.prepare(docx);
+                WebbleDocument document = WebbleEngine.render(template, new WebbleContext());
+                ZipFile zip = new ZipFile(document.getPath().toFile()))
+        {
+            assertTrue(template.getContent().getEntry("word/header1.xml").isLoaded());
+            PackedEntry entry = template.getContent().getEntry("word/media/noise.bin");
+            assertFalse(entry.isLoaded());
+            ZipEntry copied = zip.getEntry("word/media/noise.bin");
+            assertEquals(copied.getCrc(), entry.getCrc());
+            assertEquals(copied.getCompressedSize(), entry.getCompressedSize());
+            assertTrue(Arrays.equals(TestZips.readBytes(zip, "word/media/noise.bin"), media));
+        }
+        finally
+        {
+            Files.delete(docx);
+        }
+    }
+
+    /**
+     * Streams the rendered parts into their zip entry, their CRC and sizes following their data, in both the template
+     * and the single use flows.
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    @Test
+    public void renderedPartsAreStreamed() throws URISyntaxException, IOException
+    {
+        WebbleContext context = new WebbleContext();
+        context.bind("name", "Webble");
+        try (WebbleTemplate template = WebbleEngine.prepare(parts()))
+        {
+            for (Path generated : Arrays.asList(WebbleEngine.evaluate(template, context),
+                    WebbleEngine.evaluate(parts(), context)))
+            {
+                try (ZipInputStream zip = new ZipInputStream(Files.newInputStream(generated)))
+                {
+                    ZipEntry entry;
+                    while ((entry = zip.getNextEntry()) != null && !entry.getName().equals("word/document.xml"))
+                    {
+                        // skip to the main document
+                    }
+                    assertEquals(entry.getCompressedSize(), -1L); // in the data descriptor
+                    assertTrue(PartIO.read(zip).contains("Webble"));
+                }
+                finally
+                {
+                    Files.delete(generated);
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates byte identical documents in deterministic mode, from templates prepared separately and in the single
+     * use flow, their entries listed in source order.
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    @Test
+    public void deterministicDocumentsAreReproducible() throws URISyntaxException, IOException
+    {
+        WebbleContext context = new WebbleContext();
+        context.bind("name", "Webble");
+        context.setPropertyTitle("Reproducible");
+        context.setDeterministic(true);
+
+        List<byte[]> documents = new ArrayList<>();
+        for (int i = 0; i < 2; i++)
+        {
+            try (WebbleTemplate template = WebbleEngine.prepare(parts());
+                    WebbleDocument document = WebbleEngine.render(template, context))
+            {
+                documents.add(Files.readAllBytes(document.getPath()));
+                try (ZipFile zip = new ZipFile(document.getPath().toFile()))
+                {
+                    assertEquals(zip.stream().map(ZipEntry::getName).collect(Collectors.toList()),
+                            Packager.entryNames(parts()));
+                    assertTrue(zip.stream().allMatch(e -> LocalDateTime.ofInstant(Instant.ofEpochMilli(e.getTime()),
+                            ZoneId.systemDefault()).getYear() == 1980));
+                }
+            }
+            try (WebbleDocument document = WebbleEngine.render(parts(), context))
+            {
+                documents.add(Files.readAllBytes(document.getPath()));
+            }
+        }
+        assertTrue(Arrays.equals(documents.get(0), documents.get(2)));
+        assertTrue(Arrays.equals(documents.get(1), documents.get(3)));
+    }
+
+    /**
+     * Evaluates a main document declared by the default content type of its extension, not by an override.
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    @Test
+    public void defaultContentTypeIsResolved() throws URISyntaxException, IOException
+    {
+        String main = "application/vnd.openxmlformats-officedocument.wordprocessingml.document.main+xml";
+        Path docx = Files.createTempFile("default", ".docx");
+        try (ZipFile source = new ZipFile(parts().toFile());
+                ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(docx)))
+        {
+            for (ZipEntry entry : source.stream().collect(Collectors.toList()))
+            {
+                String content = TestZips.read(source, entry.getName());
+                if (entry.getName().equals("[Content_Types].xml"))
+                {
+                    content = content
+                            .replace("<Override PartName=\"/word/document.xml\" ContentType=\"" + main + "\"/>", "")
+                            .replace("ContentType=\"application/xml\"", "ContentType=\"" + main + "\"");
+                }
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                out.write(content.getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+
+        WebbleContext context = new WebbleContext();
+        context.bind("name", "Webble");
+        try (WebbleTemplate template = WebbleEngine.prepare(docx);
+                WebbleDocument document = WebbleEngine.render(template, context);
+                ZipFile zip = new ZipFile(document.getPath().toFile()))
+        {
+            assertTrue(template.getParts().stream().anyMatch(p -> p.getName().equals("word/document.xml")
+                    && p.getType() == PartType.DOCUMENT));
+            assertTrue(TestZips.read(zip, "word/document.xml").contains("Hello Webble"));
+        }
+        finally
+        {
+            Files.delete(docx);
+        }
+    }
+
+    private static Path parts() throws URISyntaxException
+    {
+        return Paths.get(PartTest.class.getClassLoader().getResource("parts.docx").toURI());
+    }
+}
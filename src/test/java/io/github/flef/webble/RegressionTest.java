@@ -0,0 +1,302 @@
+package io.github.flef.webble;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.Namespace;
+import org.jdom2.filter.Filters;
+import org.jdom2.input.SAXBuilder;
+import org.testng.annotations.Test;
+
+/**
+ * Regression test on the output size and the throughput of synthetic templates of growing size. The generated
+ * documents are parsed back to check they are complete, then their size and the rendering throughput are compared to
+ * the baselines of <code>regression-baselines.properties</code>.
+ * <p>
+ * Throughputs depend on the machine, so their tests belong to the {@value #PERFORMANCE} group, which the default build
+ * excludes: run them with <code>mvn test -Pperformance</code> on the machine the baselines were recorded on.
+ * <p>
+ * Tolerances are set by the <code>webble.regression.sizeTolerance</code> (default 5%) and
+ * <code>webble.regression.throughputTolerance</code> (default 60%) system properties. Setting
+ * <code>webble.regression.record</code> to a file records the measures there, to update the baselines.
+ */
+public class RegressionTest
+{
+    /** Group of the throughput tests, excluded from the default build. */
+    public static final String PERFORMANCE = "performance";
+
+    private static final Namespace W = Namespace.getNamespace("w",
+            "http://schemas.openxmlformats.org/wordprocessingml/2006/main");
+    private static final double SIZE_TOLERANCE = Double
+            .parseDouble(System.getProperty("webble.regression.sizeTolerance", "0.05"));
+    private static final double THROUGHPUT_TOLERANCE = Double
+            .parseDouble(System.getProperty("webble.regression.throughputTolerance", "0.6"));
+    private static final String RECORD = System.getProperty("webble.regression.record");
+    /** Minimum time spent rendering to measure a throughput, in milliseconds. */
+    private static final long MEASURE_MILLIS = 1000;
+    private static final Properties MEASURES = new Properties();
+
+    /**
+     * Renders a one page template with a table and a header.
+     * @throws IOException
+     * @throws JDOMException
+     */
+    @Test
+    public void smallTemplate() throws IOException, JDOMException
+    {
+        check("small", 1, 1, 1, 10);
+    }
+
+    /**
+     * Renders a template of many pages, tables and headers.
+     * @throws IOException
+     * @throws JDOMException
+     */
+    @Test
+    public void manyPages() throws IOException, JDOMException
+    {
+        check("pages", 50, 10, 3, 20);
+    }
+
+    /**
+     * Renders a template whose tables loop over a large list.
+     * @throws IOException
+     * @throws JDOMException
+     */
+    @Test
+    public void largeLoops() throws IOException, JDOMException
+    {
+        check("loops", 2, 2, 1, 5000);
+    }
+
+    /**
+     * Measures the throughput of the one page template.
+     * @throws IOException
+     */
+    @Test(groups = PERFORMANCE)
+    public void smallTemplateThroughput() throws IOException
+    {
+        checkThroughput("small", 1, 1, 1, 10);
+    }
+
+    /**
+     * Measures the throughput of the template of many pages.
+     * @throws IOException
+     */
+    @Test(groups = PERFORMANCE)
+    public void manyPagesThroughput() throws IOException
+    {
+        checkThroughput("pages", 50, 10, 3, 20);
+    }
+
+    /**
+     * Measures the throughput of the template with large loops.
+     * @throws IOException
+     */
+    @Test(groups = PERFORMANCE)
+    public void largeLoopsThroughput() throws IOException
+    {
+        checkThroughput("loops", 2, 2, 1, 5000);
+    }
+
+    private static void check(String scenario, int pages, int tables, int headers, int rows)
+            throws IOException, JDOMException
+    {
+        Path docx = new SyntheticTemplate(pages, tables, headers).write();
+        try (WebbleTemplate template = WebbleEngine.prepare(docx))
+        {
+            Path generated = WebbleEngine.evaluate(template, context(rows));
+            long size = Files.size(generated);
+            try (ZipFile zip = new ZipFile(generated.toFile()))
+            {
+                checkDocument(zip, pages, tables, headers, rows);
+            }
+            finally
+            {
+                Files.delete(generated);
+            }
+            record(scenario + ".bytes", Long.toString(size));
+
+            long baselineSize = Long.parseLong(baselines().getProperty(scenario + ".bytes"));
+            assertTrue(Math.abs(size - baselineSize) <= baselineSize * SIZE_TOLERANCE,
+                    scenario + ": " + size + " bytes generated, baseline " + baselineSize);
+        }
+        finally
+        {
+            Files.delete(docx);
+        }
+    }
+
+    private static void checkThroughput(String scenario, int pages, int tables, int headers, int rows)
+            throws IOException
+    {
+        Path docx = new SyntheticTemplate(pages, tables, headers).write();
+        try (WebbleTemplate template = WebbleEngine.prepare(docx))
+        {
+            double throughput = measure(template, context(rows));
+            record(scenario + ".throughput", String.format(Locale.ROOT, "%.1f", throughput));
+
+            double baselineThroughput = Double.parseDouble(baselines().getProperty(scenario + ".throughput"));
+            assertTrue(throughput >= baselineThroughput * (1 - THROUGHPUT_TOLERANCE),
+                    scenario + ": " + throughput + " documents/s, baseline " + baselineThroughput);
+        }
+        finally
+        {
+            Files.delete(docx);
+        }
+    }
+
+    private static WebbleContext context(int rows)
+    {
+        List<Map<String, Object>> items = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++)
+        {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("label", "Item " + i);
+            item.put("amount", i * 10 + 5);
+            items.add(item);
+        }
+
+        WebbleContext context = new WebbleContext();
+        context.bind("name", "Webble");
+        context.bind("title", "Regression");
+        context.bind("items", items);
+        context.setPropertyTitle("Regression");
+        return context;
+    }
+
+    /** Parses back every part of the generated document and checks the rendered content. */
+    private static void checkDocument(ZipFile zip, int pages, int tables, int headers, int rows)
+            throws IOException, JDOMException
+    {
+        Map<String, Document> parts = new LinkedHashMap<>();
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements())
+        {
+            ZipEntry entry = entries.nextElement();
+            byte[] content = TestZips.readBytes(zip, entry.getName());
+            String text = new String(content, StandardCharsets.UTF_8);
+            assertFalse(text.contains("{{") || text.contains("{%"), entry.getName() + " holds unrendered tags");
+            assertFalse(text.endsWith("\n"), entry.getName() + " ends with a line break");
+            parts.put(entry.getName(), new SAXBuilder().build(new ByteArrayInputStream(content)));
+        }
+
+        Element body = parts.get("word/document.xml").getRootElement().getChild("body", W);
+        assertEquals(descendants(body, "tbl").size(), tables);
+        assertEquals(descendants(body, "tr").size(), tables * (1 + rows));
+        assertEquals(descendants(body, "br").stream().filter(br -> "page".equals(br.getAttributeValue("type", W)))
+                .count(), pages - 1L);
+        assertEquals(descendants(body, "p").stream().filter(p -> text(p).endsWith(" for Webble.")).count(),
+                (long) pages * SyntheticTemplate.PARAGRAPHS);
+        if (tables > 0)
+        {
+            Element last = body.getChildren("tbl", W).get(0).getChildren("tr", W).get(rows);
+            assertEquals(text(last), "Item " + (rows - 1) + ((rows - 1) * 10 + 5));
+        }
+
+        for (int h = 1; h <= headers; h++)
+        {
+            Document header = parts.get("word/header" + h + ".xml");
+            assertNotNull(header);
+            assertEquals(text(header.getRootElement()), "Header " + h + " of Regression");
+        }
+        assertTrue(text(parts.get("docProps/core.xml").getRootElement()).equals("Regression"));
+    }
+
+    /** Renders the template during at least {@link #MEASURE_MILLIS}, returns the documents rendered by second. */
+    private static double measure(WebbleTemplate template, WebbleContext context) throws IOException
+    {
+        for (int i = 0; i < 3; i++) // warm up
+        {
+            render(template, context);
+        }
+
+        int documents = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do
+        {
+            render(template, context);
+            documents++;
+            elapsed = System.nanoTime() - start;
+        }
+        while (elapsed < MEASURE_MILLIS * 1_000_000 || documents < 5);
+        return documents * 1e9 / elapsed;
+    }
+
+    private static void render(WebbleTemplate template, WebbleContext context) throws IOException
+    {
+        try (WebbleDocument document = WebbleEngine.render(template, context))
+        {
+            assertTrue(Files.size(document.getPath()) > 0);
+        }
+    }
+
+    private static synchronized void record(String key, String value) throws IOException
+    {
+        if (RECORD == null)
+        {
+            return;
+        }
+        MEASURES.setProperty(key, value);
+        try (OutputStream out = Files.newOutputStream(Paths.get(RECORD)))
+        {
+            MEASURES.store(out, "Output size in bytes and throughput in documents/s, by scenario");
+        }
+    }
+
+    private static Properties baselines() throws IOException
+    {
+        Properties baselines = new Properties();
+        try (InputStream is = RegressionTest.class.getClassLoader()
+                .getResourceAsStream("regression-baselines.properties"))
+        {
+            baselines.load(is);
+        }
+        return baselines;
+    }
+
+    private static List<Element> descendants(Element parent, String name)
+    {
+        List<Element> descendants = new ArrayList<>();
+        parent.getDescendants(Filters.element(name, W)).forEach(descendants::add);
+        return descendants;
+    }
+
+    private static String text(Element element)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Element t : element.getDescendants(Filters.element("t", W)))
+        {
+            sb.append(t.getText());
+        }
+        if (sb.length() == 0) // not WordprocessingML, e.g. core properties
+        {
+            return element.getValue().trim();
+        }
+        return sb.toString();
+    }
+}
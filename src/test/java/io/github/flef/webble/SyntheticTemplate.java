@@ -0,0 +1,179 @@
+package io.github.flef.webble;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates docx templates of scalable size: pages of paragraphs with expressions, tables whose rows loop over a list,
+ * and headers. Runs are split and carry revision ids, as written by Word, to be simplified by the preparation.
+ */
+final class SyntheticTemplate
+{
+    private static final String NS = "xmlns:w=\"http://schemas.openxmlformats.org/wordprocessingml/2006/main\" "
+            + "xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\"";
+    private static final String DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\r\n";
+    private static final String TYPE_MAIN = "application/vnd.openxmlformats-officedocument.wordprocessingml";
+    private static final String TYPE_REL = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+    private static final String PACKAGE_REL = "http://schemas.openxmlformats.org/package/2006/relationships";
+
+    /** Paragraphs by page. */
+    static final int PARAGRAPHS = 12;
+
+    private final int pages;
+    private final int tables;
+    private final int headers;
+
+    /**
+     * The class constructor.
+     * @param pages the number of pages, separated by page breaks.
+     * @param tables the number of tables, each looping over the <code>items</code> list.
+     * @param headers the number of headers, each rendering <code>title</code>.
+     */
+    SyntheticTemplate(int pages, int tables, int headers)
+    {
+        this.pages = pages;
+        this.tables = tables;
+        this.headers = headers;
+    }
+
+    /**
+     * Writes the template to a temporary file.
+     * @return the template file.
+     * @throws IOException if the file cannot be written.
+     */
+    Path write() throws IOException
+    {
+        Path docx = Files.createTempFile("synthetic", ".docx");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(docx)))
+        {
+            entry(zip, "[Content_Types].xml", contentTypes());
+            entry(zip, "_rels/.rels", DECLARATION + "<Relationships xmlns=\"" + PACKAGE_REL + "\">"
+                    + "<Relationship Id=\"rId1\" Type=\"" + TYPE_REL + "/officeDocument\""
+                    + " Target=\"word/document.xml\"/>"
+                    + "<Relationship Id=\"rId2\" Type=\"" + PACKAGE_REL + "/metadata/core-properties\""
+                    + " Target=\"docProps/core.xml\"/></Relationships>");
+            entry(zip, "word/_rels/document.xml.rels", documentRelationships());
+            entry(zip, "word/document.xml", document());
+            entry(zip, "word/styles.xml", styles());
+            for (int h = 1; h <= headers; h++)
+            {
+                entry(zip, "word/header" + h + ".xml", DECLARATION + "<w:hdr " + NS + "><w:p><w:r>"
+                        + "<w:t xml:space=\"preserve\">Header " + h + " of </w:t></w:r>"
+                        + "<w:r w:rsidR=\"00A1\"><w:t>{{ tit</w:t></w:r><w:r><w:t>le }}</w:t></w:r></w:p></w:hdr>");
+            }
+            entry(zip, "docProps/core.xml", DECLARATION + "<cp:coreProperties xmlns:cp=\""
+                    + "http://schemas.openxmlformats.org/package/2006/metadata/core-properties\""
+                    + " xmlns:dc=\"http://purl.org/dc/elements/1.1/\"><dc:title></dc:title></cp:coreProperties>");
+        }
+        return docx;
+    }
+
+    private String contentTypes()
+    {
+        StringBuilder sb = new StringBuilder(DECLARATION);
+        sb.append("<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">");
+        sb.append("<Default Extension=\"rels\"")
+                .append(" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>");
+        sb.append("<Default Extension=\"xml\" ContentType=\"application/xml\"/>");
+        sb.append(override("/word/document.xml", TYPE_MAIN + ".document.main+xml"));
+        sb.append(override("/word/styles.xml", TYPE_MAIN + ".styles+xml"));
+        for (int h = 1; h <= headers; h++)
+        {
+            sb.append(override("/word/header" + h + ".xml", TYPE_MAIN + ".header+xml"));
+        }
+        sb.append(override("/docProps/core.xml", "application/vnd.openxmlformats-package.core-properties+xml"));
+        return sb.append("</Types>").toString();
+    }
+
+    private static String override(String name, String type)
+    {
+        return "<Override PartName=\"" + name + "\" ContentType=\"" + type + "\"/>";
+    }
+
+    private String documentRelationships()
+    {
+        StringBuilder sb = new StringBuilder(DECLARATION);
+        sb.append("<Relationships xmlns=\"").append(PACKAGE_REL).append("\">");
+        sb.append("<Relationship Id=\"rIdS\" Type=\"").append(TYPE_REL).append("/styles\" Target=\"styles.xml\"/>");
+        for (int h = 1; h <= headers; h++)
+        {
+            sb.append("<Relationship Id=\"rIdH").append(h).append("\" Type=\"").append(TYPE_REL)
+                    .append("/header\" Target=\"header").append(h).append(".xml\"/>");
+        }
+        return sb.append("</Relationships>").toString();
+    }
+
+    private String document()
+    {
+        StringBuilder sb = new StringBuilder(DECLARATION);
+        sb.append("<w:document ").append(NS).append("><w:body>");
+        for (int p = 0; p < pages; p++)
+        {
+            if (p > 0)
+            {
+                sb.append("<w:p><w:r><w:br w:type=\"page\"/></w:r></w:p>");
+            }
+            for (int i = 0; i < PARAGRAPHS; i++)
+            {
+                sb.append("<w:p w:rsidR=\"00B2\"><w:proofErr w:type=\"spellStart\"/>")
+                        .append("<w:r><w:t xml:space=\"preserve\">Paragraph ").append(i).append(" of page ").append(p)
+                        .append(" for </w:t></w:r>")
+                        .append("<w:r w:rsidR=\"00C3\"><w:t>{{ na</w:t></w:r><w:r><w:t>me }}.</w:t></w:r>")
+                        .append("<w:proofErr w:type=\"spellEnd\"/></w:p>");
+            }
+            if (p < tables)
+            {
+                table(sb);
+            }
+        }
+        for (int t = pages; t < tables; t++)
+        {
+            table(sb);
+        }
+        sb.append("<w:sectPr>");
+        for (int h = 1; h <= headers; h++)
+        {
+            sb.append("<w:headerReference w:type=\"").append(h == 1 ? "default" : h == 2 ? "first" : "even")
+                    .append("\" r:id=\"rIdH").append(h).append("\"/>");
+        }
+        return sb.append("</w:sectPr></w:body></w:document>").toString();
+    }
+
+    private static void table(StringBuilder sb)
+    {
+        sb.append("<w:tbl><w:tblPr><w:tblW w:w=\"0\" w:type=\"auto\"/></w:tblPr>");
+        sb.append("<w:tr>").append(cell("Label")).append(cell("Amount")).append("</w:tr>");
+        sb.append("<w:tr>").append(cell("{% for item in items %}")).append(cell("")).append("</w:tr>");
+        sb.append("<w:tr>").append(cell("{{ item.label }}")).append(cell("{{ item.amount }}")).append("</w:tr>");
+        sb.append("<w:tr>").append(cell("{% endfor %}")).append(cell("")).append("</w:tr>");
+        sb.append("</w:tbl>");
+    }
+
+    private static String cell(String text)
+    {
+        return "<w:tc><w:p><w:r><w:t>" + text + "</w:t></w:r></w:p></w:tc>";
+    }
+
+    private static String styles()
+    {
+        StringBuilder sb = new StringBuilder(DECLARATION);
+        sb.append("<w:styles ").append(NS).append(">");
+        for (int s = 0; s < 200; s++)
+        {
+            sb.append("<w:style w:type=\"paragraph\" w:styleId=\"Style").append(s).append("\"><w:name w:val=\"Style ")
+                    .append(s).append("\"/><w:rPr><w:sz w:val=\"").append(16 + s % 20).append("\"/></w:rPr></w:style>");
+        }
+        return sb.append("</w:styles>").toString();
+    }
+
+    private static void entry(ZipOutputStream zip, String name, String content) throws IOException
+    {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+}
@@ -0,0 +1,54 @@
+package io.github.flef.webble;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Temporary directories of a test class, deleted with their content after each test.
+ */
+final class TestFiles
+{
+    private final List<Path> directories = new ArrayList<>();
+
+    /**
+     * Creates a temporary directory, deleted by {@link #deleteAll()}.
+     * @return the directory, empty.
+     * @throws IOException if the directory cannot be created.
+     */
+    Path createTempDirectory() throws IOException
+    {
+        Path directory = Files.createTempDirectory("WEBBLE_TEST");
+        directories.add(directory);
+        return directory;
+    }
+
+    /**
+     * Deletes the temporary directories created since the last call, with their content.
+     * @throws IOException if a file cannot be deleted.
+     */
+    void deleteAll() throws IOException
+    {
+        for (Path directory : directories)
+        {
+            if (Files.exists(directory))
+            {
+                List<Path> content;
+                try (Stream<Path> walk = Files.walk(directory))
+                {
+                    content = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+                }
+                for (Path path : content)
+                {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+        directories.clear();
+    }
+}
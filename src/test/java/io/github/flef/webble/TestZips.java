@@ -0,0 +1,57 @@
+package io.github.flef.webble;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads the entries of the documents checked by the tests.
+ */
+final class TestZips
+{
+    private TestZips()
+    {
+    }
+
+    /**
+     * Reads an entry as UTF-8 text.
+     * @param zip the document.
+     * @param name the entry name.
+     * @return the entry content.
+     * @throws IOException if the document has no such entry, or it cannot be read.
+     */
+    static String read(ZipFile zip, String name) throws IOException
+    {
+        return new String(readBytes(zip, name), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads an entry.
+     * @param zip the document.
+     * @param name the entry name.
+     * @return the entry content.
+     * @throws IOException if the document has no such entry, or it cannot be read.
+     */
+    static byte[] readBytes(ZipFile zip, String name) throws IOException
+    {
+        ZipEntry entry = zip.getEntry(name);
+        if (entry == null)
+        {
+            throw new IOException("No entry " + name + " in " + zip.getName());
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int len;
+        try (InputStream is = zip.getInputStream(entry))
+        {
+            while ((len = is.read(buffer)) > 0)
+            {
+                baos.write(buffer, 0, len);
+            }
+        }
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,143 @@
+package io.github.flef.webble;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test on batch rendering.
+ */
+public class WebbleBatchTest
+{
+    /**
+     * Reads JSON Lines and CSV records, including escaped and multiline values.
+     * @throws IOException
+     */
+    @Test
+    public void readsRecords() throws IOException
+    {
+        Path jsonl = Files.createTempFile("webble", ".jsonl");
+        Path csv = Files.createTempFile("webble", ".csv");
+        try
+        {
+            Files.write(jsonl, Arrays.asList("{\"name\": \"A \\\"b\\\"\\n\\u00e9\", \"n\": 12, \"x\": [1.5, true, null]}",
+                    "", "{\"property.revision\": 3}"), StandardCharsets.UTF_8);
+            Files.write(csv, Arrays.asList("name,custom.ref", "\"Smith, \"\"J\"\"\",1", "\"two", "lines\",2"),
+                    StandardCharsets.UTF_8);
+
+            try (BatchInput input = BatchInput.open(jsonl))
+            {
+                Map<String, Object> record = input.next();
+                assertEquals(record.get("name"), "A \"b\"\né");
+                assertEquals(record.get("n"), 12L);
+                assertEquals(record.get("x"), Arrays.asList(new java.math.BigDecimal("1.5"), true, null));
+                assertEquals(input.next().get("property.revision"), 3L);
+                assertEquals(input.getRecordLine(), 3);
+                assertEquals(input.next(), null);
+            }
+
+            try (BatchInput input = BatchInput.open(csv))
+            {
+                assertEquals(input.next().get("name"), "Smith, \"J\"");
+                Map<String, Object> record = input.next();
+                assertEquals(record.get("name"), "two\nlines");
+                assertEquals(record.get("custom.ref"), "2");
+                assertEquals(input.next(), null);
+            }
+        }
+        finally
+        {
+            Files.delete(jsonl);
+            Files.delete(csv);
+        }
+    }
+
+    /**
+     * Renders a zip of documents named by a field, from an input starting with a byte order mark, counting the records
+     * that cannot be rendered or name a document already rendered.
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    @Test
+    public void rendersZip() throws URISyntaxException, IOException
+    {
+        Path docx = Paths.get(WebbleBatchTest.class.getClassLoader().getResource("parts.docx").toURI());
+        Path input = Files.createTempFile("webble", ".jsonl");
+        Path output = Files.createTempFile("webble", ".zip");
+        try (WebbleTemplate template = WebbleEngine.prepare(docx))
+        {
+            StringBuilder lines = new StringBuilder("\uFEFF");
+            for (int i = 0; i < 20; i++)
+            {
+                lines.append("{\"name\": \"doc").append(i).append("\", \"property.title\": \"T").append(i)
+                        .append("\"}\n");
+            }
+            lines.append("{\"name\": \"bad\", \"property.revision\": \"x\"}\n");
+            lines.append("{\"name\": \"doc3\"}\n");
+            Files.write(input, lines.toString().getBytes(StandardCharsets.UTF_8));
+
+            WebbleBatch batch = new WebbleBatch(template, 4, "name");
+            batch.render(input, output);
+
+            assertEquals(batch.getRenderedCount(), 20);
+            assertEquals(batch.getFailedCount(), 2);
+            try (ZipFile zip = new ZipFile(output.toFile()))
+            {
+                List<String> names = zip.stream().map(ZipEntry::getName).sorted().collect(Collectors.toList());
+                assertEquals(names.size(), 20);
+                assertTrue(names.contains("doc7.docx"));
+            }
+        }
+        finally
+        {
+            Files.delete(input);
+            Files.delete(output);
+        }
+    }
+
+    /**
+     * Renders documents into a directory, refusing a record naming a document already written.
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    @Test
+    public void rendersDirectory() throws URISyntaxException, IOException
+    {
+        Path docx = Paths.get(WebbleBatchTest.class.getClassLoader().getResource("parts.docx").toURI());
+        Path input = Files.createTempFile("webble", ".jsonl");
+        TestFiles files = new TestFiles();
+        try (WebbleTemplate template = WebbleEngine.prepare(docx))
+        {
+            Files.write(input, "{\"name\": \"a\"}\n{\"name\": \"b\"}\n{\"name\": \"a\"}\n"
+                    .getBytes(StandardCharsets.UTF_8));
+            Path output = files.createTempDirectory();
+
+            WebbleBatch batch = new WebbleBatch(template, 2, "name");
+            batch.render(input, output);
+
+            assertEquals(batch.getRenderedCount(), 2);
+            assertEquals(batch.getFailedCount(), 1);
+            assertTrue(Files.size(output.resolve("a.docx")) > 0);
+            assertTrue(Files.size(output.resolve("b.docx")) > 0);
+        }
+        finally
+        {
+            Files.delete(input);
+            files.deleteAll();
+        }
+    }
+}
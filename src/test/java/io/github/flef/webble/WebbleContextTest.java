@@ -0,0 +1,72 @@
+package io.github.flef.webble;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.ZipFile;
+
+import org.testng.annotations.Test;
+
+import io.github.flef.webble.WebbleContext.WordProperty;
+
+/**
+ * Test on context properties.
+ */
+public class WebbleContextTest
+{
+    /**
+     * Only the core properties set are flagged, and unset by a null value.
+     */
+    @Test
+    public void corePropertiesAreFlagged()
+    {
+        WebbleContext context = new WebbleContext();
+        assertFalse(context.hasCoreProperties());
+
+        context.setPropertyRevision(3);
+        assertTrue(context.isCorePropertySet(WordProperty.REVISION));
+        assertFalse(context.isCorePropertySet(WordProperty.TITLE));
+        assertEquals(context.getFormattedCoreProperty(WordProperty.REVISION), "3");
+
+        context.setPropertyRevision(null);
+        assertFalse(context.hasCoreProperties());
+    }
+
+    /**
+     * Core properties are kept as is when none is set, and only the set ones are written otherwise.
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    @Test
+    public void onlySetCorePropertiesAreWritten() throws URISyntaxException, IOException
+    {
+        Path docx = Paths.get(WebbleContextTest.class.getClassLoader().getResource("parts.docx").toURI());
+        try (WebbleTemplate template = WebbleEngine.prepare(docx); ZipFile source = new ZipFile(docx.toFile()))
+        {
+            String core = TestZips.read(source, "docProps/core.xml");
+
+            try (WebbleDocument document = WebbleEngine.render(template, new WebbleContext());
+                    ZipFile zip = new ZipFile(document.getPath().toFile()))
+            {
+                assertEquals(TestZips.read(zip, "docProps/core.xml"), core);
+            }
+
+            WebbleContext context = new WebbleContext();
+            context.setPropertyTitle("Title");
+            try (WebbleDocument document = WebbleEngine.render(template, context);
+                    ZipFile zip = new ZipFile(document.getPath().toFile()))
+            {
+                String rendered = TestZips.read(zip, "docProps/core.xml");
+                assertNotEquals(rendered, core);
+                assertTrue(rendered.contains(">Title</dc:title>"));
+                assertTrue(rendered.contains("<dc:creator />") || rendered.contains("<dc:creator></dc:creator>"));
+            }
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package io.github.flef.webble;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test on the fragments included by templates.
+ */
+public class WebbleFragmentsTest
+{
+    private static final String NS = "xmlns:w=\"http://schemas.openxmlformats.org/wordprocessingml/2006/main\"";
+    private static final String DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\r\n";
+    private static final String TYPE_MAIN = "application/vnd.openxmlformats-officedocument.wordprocessingml";
+    private static final String TYPE_REL = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+    private static final String PACKAGE_REL = "http://schemas.openxmlformats.org/package/2006/relationships";
+
+    private final TestFiles files = new TestFiles();
+
+    /**
+     * Deletes the persisted templates.
+     * @throws IOException
+     */
+    @AfterMethod
+    public void deleteFiles() throws IOException
+    {
+        files.deleteAll();
+    }
+
+    /**
+     * Renders a template including a numbered clause: the clause is rendered in the template context, its styles and
+     * numbering are merged into the template.
+     * @throws IOException
+     */
+    @Test
+    public void includedFragmentIsMerged() throws IOException
+    {
+        Path clauseDocx = clause();
+        Path parentDocx = parent("{% include 'clause-x' %}", true);
+        WebbleFragments fragments = new WebbleFragments();
+        try (WebbleTemplate clause = WebbleEngine.prepare(clauseDocx))
+        {
+            fragments.register("clause-x", clause);
+        }
+
+        try (WebbleTemplate template = WebbleEngine.prepare(parentDocx, fragments))
+        {
+            WebbleContext context = new WebbleContext();
+            context.bind("name", "Webble");
+            Path generated = WebbleEngine.evaluate(template, context);
+            try (ZipFile zip = new ZipFile(generated.toFile()))
+            {
+                String document = TestZips.read(zip, "word/document.xml");
+                assertTrue(document.contains("Dear Webble"), document);
+                assertTrue(document.contains("Clause for Webble"), document);
+                assertTrue(document.contains("w:val=\"1001\""), document);
+                assertEquals(document.indexOf("<w:sectPr"), document.lastIndexOf("<w:sectPr"), document);
+
+                String styles = TestZips.read(zip, "word/styles.xml");
+                assertTrue(styles.contains("w:styleId=\"Clause\""), styles);
+                assertTrue(styles.contains("Parent normal"), styles);
+                assertFalse(styles.contains("Clause normal"), styles);
+
+                String numbering = TestZips.read(zip, "word/numbering.xml");
+                assertTrue(numbering.contains("w:numId=\"1001\""), numbering);
+                assertTrue(numbering.contains("w:abstractNumId=\"1000\""), numbering);
+                assertTrue(TestZips.read(zip, "[Content_Types].xml").contains("/word/numbering.xml"));
+                assertTrue(TestZips.read(zip, "word/_rels/document.xml.rels").contains("numbering.xml"));
+            }
+            finally
+            {
+                Files.delete(generated);
+            }
+        }
+        finally
+        {
+            Files.delete(clauseDocx);
+            Files.delete(parentDocx);
+        }
+    }
+
+    /**
+     * Refuses to prepare a template including an unknown fragment.
+     * @throws IOException
+     */
+    @Test
+    public void unknownFragmentIsRefused() throws IOException
+    {
+        Path parentDocx = parent("{% include 'clause-y' %}", false);
+        try (WebbleTemplate template = WebbleEngine.prepare(parentDocx, new WebbleFragments()))
+        {
+            fail("Unknown fragment prepared");
+        }
+        catch (IOException e)
+        {
+            assertTrue(e.getMessage().contains("clause-y"), e.getMessage());
+        }
+        finally
+        {
+            Files.delete(parentDocx);
+        }
+    }
+
+    /**
+     * The fingerprint of a template covers the fragments it includes: the same template file loaded with another
+     * version of its fragment is another template.
+     * @throws IOException
+     */
+    @Test
+    public void fingerprintCoversFragments() throws IOException
+    {
+        Path parentDocx = parent("{% include 'clause-x' %}", false);
+        Path firstDocx = parent("First version", false);
+        Path secondDocx = parent("Second version", false);
+        Path folder = files.createTempDirectory();
+        WebbleFragments first = new WebbleFragments();
+        WebbleFragments second = new WebbleFragments();
+        try (WebbleTemplate firstClause = WebbleEngine.prepare(firstDocx);
+                WebbleTemplate secondClause = WebbleEngine.prepare(secondDocx))
+        {
+            first.register("clause-x", firstClause);
+            second.register("clause-x", secondClause);
+        }
+        try (WebbleTemplate template = WebbleEngine.prepare(parentDocx, first))
+        {
+            template.persist(folder, "parent");
+        }
+
+        Path persisted = folder.resolve("parent" + WebbleTemplate.WEBBLE_EXTENSION);
+        try (WebbleTemplate withFirst = WebbleTemplate.load(persisted, first);
+                WebbleTemplate withFirstAgain = WebbleTemplate.load(persisted, first);
+                WebbleTemplate withSecond = WebbleTemplate.load(persisted, second))
+        {
+            assertEquals(withFirstAgain.getFingerprint(), withFirst.getFingerprint());
+            assertNotEquals(withSecond.getFingerprint(), withFirst.getFingerprint());
+        }
+        finally
+        {
+            Files.delete(parentDocx);
+            Files.delete(firstDocx);
+            Files.delete(secondDocx);
+        }
+    }
+
+    /**
+     * Refuses to register a fragment including a fragment not registered before it, which rules out include cycles.
+     * @throws IOException
+     */
+    @Test
+    public void unregisteredIncludeIsRefused() throws IOException
+    {
+        Path selfDocx = parent("{% include 'clause-x' %}", false);
+        WebbleFragments fragments = new WebbleFragments();
+        try (WebbleTemplate self = WebbleEngine.prepare(selfDocx))
+        {
+            fragments.register("clause-x", self);
+            fail("Fragment including itself registered");
+        }
+        catch (IOException e)
+        {
+            assertTrue(e.getMessage().contains("clause-x"), e.getMessage());
+        }
+        finally
+        {
+            Files.delete(selfDocx);
+        }
+    }
+
+    private static Path clause() throws IOException
+    {
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("[Content_Types].xml", contentTypes(true));
+        entries.put("_rels/.rels", packageRelationships());
+        entries.put("word/_rels/document.xml.rels", DECLARATION + "<Relationships xmlns=\"" + PACKAGE_REL + "\">"
+                + "<Relationship Id=\"rId1\" Type=\"" + TYPE_REL + "/styles\" Target=\"styles.xml\"/>"
+                + "<Relationship Id=\"rId2\" Type=\"" + TYPE_REL + "/numbering\" Target=\"numbering.xml\"/>"
+                + "</Relationships>");
+        entries.put("word/document.xml", DECLARATION + "<w:document " + NS + "><w:body>"
+                + "<w:p><w:pPr><w:pStyle w:val=\"Clause\"/><w:numPr><w:ilvl w:val=\"0\"/><w:numId w:val=\"1\"/>"
+                + "</w:numPr></w:pPr><w:r><w:t xml:space=\"preserve\">Clause for </w:t></w:r>"
+                + "<w:r><w:t>{{ name }}</w:t></w:r></w:p>"
+                + "<w:sectPr><w:pgSz w:w=\"11906\" w:h=\"16838\"/></w:sectPr></w:body></w:document>");
+        entries.put("word/styles.xml", DECLARATION + "<w:styles " + NS + ">"
+                + style("Normal", "Clause normal") + style("Clause", "Clause") + "</w:styles>");
+        entries.put("word/numbering.xml", DECLARATION + "<w:numbering " + NS + ">"
+                + "<w:abstractNum w:abstractNumId=\"0\"><w:lvl w:ilvl=\"0\"><w:start w:val=\"1\"/>"
+                + "<w:numFmt w:val=\"decimal\"/><w:lvlText w:val=\"%1.\"/></w:lvl></w:abstractNum>"
+                + "<w:num w:numId=\"1\"><w:abstractNumId w:val=\"0\"/></w:num></w:numbering>");
+        return write(entries);
+    }
+
+    private static Path parent(String include, boolean styled) throws IOException
+    {
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("[Content_Types].xml", contentTypes(false));
+        entries.put("_rels/.rels", packageRelationships());
+        entries.put("word/_rels/document.xml.rels", DECLARATION + "<Relationships xmlns=\"" + PACKAGE_REL + "\">"
+                + "<Relationship Id=\"rId1\" Type=\"" + TYPE_REL + "/styles\" Target=\"styles.xml\"/>"
+                + "</Relationships>");
+        entries.put("word/document.xml", DECLARATION + "<w:document " + NS + "><w:body>"
+                + "<w:p><w:r><w:t>Dear {{ name }}</w:t></w:r></w:p>"
+                + "<w:p><w:r><w:t>" + include + "</w:t></w:r></w:p>"
+                + "<w:sectPr><w:pgSz w:w=\"11906\" w:h=\"16838\"/></w:sectPr></w:body></w:document>");
+        entries.put("word/styles.xml", DECLARATION + "<w:styles " + NS + ">"
+                + (styled ? style("Normal", "Parent normal") : "") + "</w:styles>");
+        return write(entries);
+    }
+
+    private static String contentTypes(boolean numbering)
+    {
+        return DECLARATION + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+                + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+                + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+                + "<Override PartName=\"/word/document.xml\" ContentType=\"" + TYPE_MAIN + ".document.main+xml\"/>"
+                + "<Override PartName=\"/word/styles.xml\" ContentType=\"" + TYPE_MAIN + ".styles+xml\"/>"
+                + (numbering ? "<Override PartName=\"/word/numbering.xml\" ContentType=\"" + TYPE_MAIN
+                        + ".numbering+xml\"/>" : "")
+                + "</Types>";
+    }
+
+    private static String packageRelationships()
+    {
+        return DECLARATION + "<Relationships xmlns=\"" + PACKAGE_REL + "\"><Relationship Id=\"rId1\" Type=\""
+                + TYPE_REL + "/officeDocument\" Target=\"word/document.xml\"/></Relationships>";
+    }
+
+    private static String style(String id, String name)
+    {
+        return "<w:style w:type=\"paragraph\" w:styleId=\"" + id + "\"><w:name w:val=\"" + name + "\"/></w:style>";
+    }
+
+    private static Path write(Map<String, String> entries) throws IOException
+    {
+        Path docx = Files.createTempFile("fragment", ".docx");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(docx)))
+        {
+            for (Map.Entry<String, String> entry : entries.entrySet())
+            {
+                zip.putNextEntry(new ZipEntry(entry.getKey()));
+                zip.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return docx;
+    }
+}
@@ -0,0 +1,192 @@
+package io.github.flef.webble;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import javax.imageio.ImageIO;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test on image bindings.
+ */
+public class WebbleImageTest
+{
+    /**
+     * Binding the same content twice returns the same image.
+     * @throws IOException
+     */
+    @Test
+    public void sameContentSharesImage() throws IOException
+    {
+        byte[] png = png(40, 20);
+
+        WebbleImage image = WebbleImage.of(png);
+        assertSame(WebbleImage.of(png.clone()), image);
+        assertTrue(image.toString().contains("cx=\"" + 40 * 9525 + "\" cy=\"" + 20 * 9525 + "\""));
+    }
+
+    /**
+     * Refuses a displayed size that is not positive, which would corrupt the drawing extents.
+     * @throws IOException
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void emptySizeIsRefused() throws IOException
+    {
+        WebbleImage.of(png(40, 20), 40, 0);
+    }
+
+    /**
+     * Renders the same image in the body, in a loop and in a header: the media is stored once, and linked from each
+     * part rendering it.
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    @Test
+    public void imageIsStoredOnce() throws URISyntaxException, IOException
+    {
+        Path docx = Paths.get(WebbleImageTest.class.getClassLoader().getResource("image.docx").toURI());
+        WebbleImage logo = WebbleImage.of(png(40, 20));
+
+        WebbleContext context = new WebbleContext();
+        context.bind("logo", logo);
+        context.bind("signatures", Arrays.asList(logo, logo, logo));
+
+        Path generated = WebbleEngine.evaluate(WebbleEngine.prepare(docx), context);
+
+        try (ZipFile zip = new ZipFile(generated.toFile()))
+        {
+            List<String> media = zip.stream().map(ZipEntry::getName).filter(n -> n.startsWith("word/media/"))
+                    .collect(Collectors.toList());
+            assertEquals(media, Arrays.asList("word/media/" + logo.getMediaName()));
+
+            String document = TestZips.read(zip, "word/document.xml");
+            assertEquals(count(document, "<w:drawing>"), 4);
+            assertEquals(count(document, "r:embed=\"" + logo.getRelationshipId() + "\""), 4);
+
+            assertEquals(count(TestZips.read(zip, "word/_rels/document.xml.rels"), logo.getRelationshipId()), 1);
+            assertEquals(count(TestZips.read(zip, "word/_rels/header1.xml.rels"), logo.getRelationshipId()), 1);
+            assertTrue(TestZips.read(zip, "[Content_Types].xml").contains("Extension=\"png\""));
+        }
+    }
+
+    /**
+     * Renders an image in the text of a formatted run: the text around the image keeps the run properties.
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    @Test
+    public void imageKeepsRunProperties() throws URISyntaxException, IOException
+    {
+        Path docx = withDocument("<w:p><w:r><w:rPr><w:b/></w:rPr>"
+                + "<w:t xml:space=\"preserve\">Signed {{ logo }} today</w:t></w:r></w:p>");
+        WebbleContext context = new WebbleContext();
+        context.bind("logo", WebbleImage.of(png(40, 20)));
+        try
+        {
+            Path generated = WebbleEngine.evaluate(WebbleEngine.prepare(docx), context);
+            try (ZipFile zip = new ZipFile(generated.toFile()))
+            {
+                String document = TestZips.read(zip, "word/document.xml");
+                assertTrue(document.contains("<w:b /></w:rPr><w:t xml:space=\"preserve\">Signed </w:t>"
+                        + "<w:drawing>"), document);
+                assertTrue(document.contains("</w:drawing><w:t xml:space=\"preserve\"> today</w:t></w:r>"), document);
+            }
+            finally
+            {
+                Files.delete(generated);
+            }
+        }
+        finally
+        {
+            Files.delete(docx);
+        }
+    }
+
+    /**
+     * Refuses to render an image out of the text of a run.
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    @Test
+    public void imageOutOfTextIsRefused() throws URISyntaxException, IOException
+    {
+        Path docx = withDocument("<w:p><w:pPr><w:pStyle w:val=\"{{ logo }}\"/></w:pPr><w:r><w:t>Text</w:t></w:r></w:p>");
+        WebbleContext context = new WebbleContext();
+        context.bind("logo", WebbleImage.of(png(40, 20)));
+        try
+        {
+            WebbleEngine.evaluate(WebbleEngine.prepare(docx), context);
+            fail("Image rendered in an attribute");
+        }
+        catch (IOException e)
+        {
+            assertTrue(e.getMessage().contains("text of a run"), e.getMessage());
+        }
+        finally
+        {
+            Files.delete(docx);
+        }
+    }
+
+    /** Copies image.docx, replacing the body of its main document. */
+    private static Path withDocument(String body) throws URISyntaxException, IOException
+    {
+        Path source = Paths.get(WebbleImageTest.class.getClassLoader().getResource("image.docx").toURI());
+        Path docx = Files.createTempFile("image", ".docx");
+        try (ZipFile zip = new ZipFile(source.toFile());
+                ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(docx)))
+        {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements())
+            {
+                ZipEntry entry = entries.nextElement();
+                String content = TestZips.read(zip, entry.getName());
+                if (entry.getName().equals("word/document.xml"))
+                {
+                    content = content.substring(0, content.indexOf("<w:body>") + "<w:body>".length()) + body
+                            + content.substring(content.indexOf("<w:sectPr>"));
+                }
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                out.write(content.getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+        return docx;
+    }
+
+    private static byte[] png(int width, int height) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", baos);
+        return baos.toByteArray();
+    }
+
+    private static int count(String content, String token)
+    {
+        int count = 0;
+        for (int i = content.indexOf(token); i >= 0; i = content.indexOf(token, i + token.length()))
+        {
+            count++;
+        }
+        return count;
+    }
+}
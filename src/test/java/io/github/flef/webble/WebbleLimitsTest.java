@@ -0,0 +1,159 @@
+package io.github.flef.webble;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import io.github.flef.webble.WebbleLimitException.Limit;
+
+/**
+ * Test on the limits of the rendering.
+ */
+public class WebbleLimitsTest
+{
+    private static Path docx;
+    private static WebbleTemplate template;
+
+    /**
+     * Prepares a template of two tables, looping over <code>items</code>.
+     * @throws IOException
+     */
+    @BeforeClass
+    public static void prepare() throws IOException
+    {
+        docx = new SyntheticTemplate(1, 2, 1).write();
+        template = WebbleEngine.prepare(docx);
+    }
+
+    /**
+     * Deletes the template.
+     * @throws IOException
+     */
+    @AfterClass
+    public static void delete() throws IOException
+    {
+        template.close();
+        Files.delete(docx);
+    }
+
+    /**
+     * Renders documents within their limits.
+     * @throws IOException
+     */
+    @Test
+    public void renderWithinLimits() throws IOException
+    {
+        try (WebbleDocument document = WebbleEngine.render(template, context(1000, new WebbleLimits(1_000_000, 2000,
+                60_000))))
+        {
+            assertTrue(Files.size(document.getPath()) > 0);
+        }
+    }
+
+    /**
+     * Aborts a document iterating more than allowed, all loops included.
+     * @throws IOException
+     */
+    @Test
+    public void abortOnLoopIterations() throws IOException
+    {
+        assertAborted(context(1000, new WebbleLimits(Long.MAX_VALUE, 1999, Long.MAX_VALUE)), Limit.LOOP_ITERATIONS);
+    }
+
+    /**
+     * Aborts a document rendering more markup than allowed.
+     * @throws IOException
+     */
+    @Test
+    public void abortOnOutputBytes() throws IOException
+    {
+        assertAborted(context(1000, new WebbleLimits(100_000, Long.MAX_VALUE, Long.MAX_VALUE)), Limit.OUTPUT_BYTES);
+    }
+
+    /**
+     * Aborts a document rendering longer than allowed.
+     * @throws IOException
+     */
+    @Test
+    public void abortOnRenderTime() throws IOException
+    {
+        assertAborted(context(100_000, new WebbleLimits(Long.MAX_VALUE, Long.MAX_VALUE, 1)), Limit.RENDER_TIME);
+    }
+
+    /**
+     * Counts line breaks as the Word breaks they are written as, whether written as strings or characters.
+     * @throws IOException
+     */
+    @Test
+    public void lineBreaksCountExpanded() throws IOException
+    {
+        for (boolean chars : new boolean[] { false, true })
+        {
+            try (RenderBudget budget = RenderBudget.start(new WebbleLimits(20, Long.MAX_VALUE, Long.MAX_VALUE)))
+            {
+                Writer writer = budget.newPartWriter(new StringWriter());
+                if (chars)
+                {
+                    writer.write("a\nb\nc\n".toCharArray());
+                }
+                else
+                {
+                    writer.write("a\nb\nc\n");
+                }
+                fail("Line breaks counted as single characters");
+            }
+            catch (WebbleLimitException e)
+            {
+                assertEquals(e.getLimit(), Limit.OUTPUT_BYTES);
+            }
+        }
+    }
+
+    private static void assertAborted(WebbleContext context, Limit limit) throws IOException
+    {
+        long usedBytes = WebbleScratchSpace.getDefault().getUsedBytes();
+        try (WebbleDocument document = WebbleEngine.render(template, context))
+        {
+            fail("Rendered beyond the limits");
+        }
+        catch (WebbleLimitException e)
+        {
+            assertEquals(e.getLimit(), limit);
+        }
+        // the scratch space of the aborted document is released
+        assertEquals(WebbleScratchSpace.getDefault().getUsedBytes(), usedBytes);
+    }
+
+    private static WebbleContext context(int rows, WebbleLimits limits)
+    {
+        List<Map<String, Object>> items = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++)
+        {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("label", "Item " + i);
+            item.put("amount", i);
+            items.add(item);
+        }
+
+        WebbleContext context = new WebbleContext();
+        context.bind("name", "Webble");
+        context.bind("title", "Limits");
+        context.bind("items", items);
+        context.setLimits(limits);
+        return context;
+    }
+}
@@ -0,0 +1,76 @@
+package io.github.flef.webble;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test on the previews of rendered documents.
+ */
+public class WebblePreviewTest
+{
+    /**
+     * Previews the main document as plain text, without the notes and comments.
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    @Test
+    public void previewText() throws URISyntaxException, IOException
+    {
+        Path docx = Paths.get(WebblePreviewTest.class.getClassLoader().getResource("parts.docx").toURI());
+        try (WebbleTemplate template = WebbleEngine.prepare(docx))
+        {
+            WebbleContext context = new WebbleContext();
+            context.bind("name", "<Webble>");
+
+            String preview = WebbleEngine.preview(template, context, WebblePreviewFormat.TEXT);
+            assertTrue(preview.startsWith("Hello <Webble>commented\n"), preview);
+            assertFalse(preview.contains("Footnote for"), preview);
+            assertFalse(preview.contains("Comment for"), preview);
+        }
+    }
+
+    /**
+     * Previews tables as HTML, escaping the text.
+     * @throws IOException
+     */
+    @Test
+    public void previewHtmlTables() throws IOException
+    {
+        Path docx = new SyntheticTemplate(1, 1, 1).write();
+        try (WebbleTemplate template = WebbleEngine.prepare(docx))
+        {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("label", "Fish & chips");
+            item.put("amount", 12);
+            WebbleContext context = new WebbleContext();
+            context.bind("name", "Webble");
+            context.bind("items", Arrays.asList(item, item));
+
+            String preview = WebbleEngine.preview(template, context, WebblePreviewFormat.HTML);
+            assertTrue(preview.startsWith("<p>Paragraph 0 of page 0 for Webble.</p>\n"), preview);
+            assertTrue(preview.contains("<table><tr><td>Label</td><td>Amount</td></tr>\n"
+                    + "<tr><td>Fish &amp; chips</td><td>12</td></tr>\n"
+                    + "<tr><td>Fish &amp; chips</td><td>12</td></tr>\n</table>\n"), preview);
+            assertFalse(preview.contains("Header"), preview);
+
+            assertEquals(WebbleEngine.preview(template, context, WebblePreviewFormat.TEXT).split("\n")[13],
+                    "Fish & chips\t12");
+        }
+        finally
+        {
+            Files.delete(docx);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package io.github.flef.webble;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test on rendered documents caching.
+ */
+public class WebbleRenderCacheTest
+{
+    private final TestFiles files = new TestFiles();
+
+    /**
+     * Deletes the disk tiers of the test caches.
+     * @throws IOException
+     */
+    @AfterMethod
+    public void deleteFiles() throws IOException
+    {
+        files.deleteAll();
+    }
+
+    /**
+     * Equal contexts are rendered once, different contexts are rendered again.
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    @Test
+    public void equalContextsHit() throws URISyntaxException, IOException
+    {
+        WebbleRenderCache cache = new WebbleRenderCache(10_000_000, 60_000);
+
+        try (WebbleTemplate template = WebbleEngine.prepare(docx()))
+        {
+            byte[] first = cache.evaluate(template, context("Nal AYA"));
+            byte[] second = cache.evaluate(template, context("Nal AYA"));
+            cache.evaluate(template, context("Flo LEF"));
+
+            assertEquals(second, first);
+            assertEquals(cache.getHitCount(), 1L);
+            assertEquals(cache.getMissCount(), 2L);
+        }
+    }
+
+    /**
+     * Contexts binding objects that cannot be digested are always rendered.
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    @Test
+    public void beansAreNotCached() throws URISyntaxException, IOException
+    {
+        WebbleRenderCache cache = new WebbleRenderCache(10_000_000, 60_000);
+
+        try (WebbleTemplate template = WebbleEngine.prepare(docx()))
+        {
+            WebbleContext context = context("Nal AYA");
+            context.bind("bean", new Object());
+            cache.evaluate(template, context);
+            cache.evaluate(template, context);
+
+            assertEquals(cache.getHitCount(), 0L);
+            assertEquals(cache.getMissCount(), 2L);
+        }
+    }
+
+    /**
+     * Documents cached on disk are reused by another cache.
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    @Test
+    public void diskTierHit() throws URISyntaxException, IOException
+    {
+        Path directory = files.createTempDirectory();
+
+        try (WebbleTemplate template = WebbleEngine.prepare(docx()))
+        {
+            byte[] rendered = new WebbleRenderCache(0, 60_000, directory).evaluate(template, context("Nal AYA"));
+
+            WebbleRenderCache cache = new WebbleRenderCache(0, 60_000, directory);
+            assertEquals(cache.evaluate(template, context("Nal AYA")), rendered);
+            assertEquals(cache.getHitCount(), 1L);
+
+            cache.clear();
+            cache.evaluate(template, context("Nal AYA"));
+            assertEquals(cache.getMissCount(), 1L);
+        }
+    }
+
+    /**
+     * Maps whose order is chosen by the caller are keyed in iteration order, plain hash maps whatever their order.
+     */
+    @Test
+    public void iterationOrderIsKeyed()
+    {
+        assertNotEquals(mapContext(new LinkedHashMap<>(), "a", "b").fingerprint(),
+                mapContext(new LinkedHashMap<>(), "b", "a").fingerprint());
+        assertEquals(mapContext(new HashMap<>(), "a", "b").fingerprint(),
+                mapContext(new HashMap<>(), "b", "a").fingerprint());
+    }
+
+    /**
+     * The disk tier keeps the newest documents within its size, and partial files are swept when the cache opens.
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    @Test
+    public void diskTierIsBounded() throws URISyntaxException, IOException
+    {
+        Path directory = files.createTempDirectory();
+        Path partial = Files.createFile(directory.resolve("partial.tmp"));
+
+        try (WebbleTemplate template = WebbleEngine.prepare(docx()))
+        {
+            long size = new WebbleRenderCache(0, 60_000).evaluate(template, context("Nal AYA")).length;
+            WebbleRenderCache cache = new WebbleRenderCache(0, 60_000, directory, size * 3 / 2);
+            assertFalse(Files.exists(partial));
+
+            cache.evaluate(template, context("Nal AYA"));
+            cache.evaluate(template, context("Flo LEF"));
+            try (Stream<Path> files = Files.list(directory))
+            {
+                assertEquals(files.count(), 1L);
+            }
+            cache.evaluate(template, context("Flo LEF"));
+            assertEquals(cache.getHitCount(), 1L);
+        }
+    }
+
+    private static WebbleContext mapContext(Map<String, String> map, String... keys)
+    {
+        for (String key : keys)
+        {
+            map.put(key, key.toUpperCase());
+        }
+        WebbleContext context = new WebbleContext();
+        context.bind("map", map);
+        return context;
+    }
+
+    private static WebbleContext context(String name)
+    {
+        WebbleContext context = new WebbleContext();
+        context.bind("names", Arrays.asList(new String[] { name }));
+        context.setPropertyTitle(name);
+        context.setCustomProperty("_PROPERTY_TEST", name);
+        return context;
+    }
+
+    private static Path docx() throws URISyntaxException
+    {
+        return Paths.get(WebbleRenderCacheTest.class.getClassLoader().getResource("example.docx").toURI());
+    }
+}
@@ -0,0 +1,142 @@
+package io.github.flef.webble;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test on temporary files management.
+ */
+public class WebbleScratchSpaceTest
+{
+    private final WebbleScratchSpace defaultSpace = WebbleScratchSpace.getDefault();
+    private final TestFiles files = new TestFiles();
+
+    /**
+     * Restores the default scratch space, and deletes the test ones.
+     * @throws IOException
+     */
+    @AfterMethod
+    public void restoreDefault() throws IOException
+    {
+        WebbleScratchSpace.setDefault(defaultSpace);
+        files.deleteAll();
+    }
+
+    /**
+     * Closing templates and documents leaves no file behind, but empty pooled working directories.
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    @Test
+    public void closeDeletesFiles() throws URISyntaxException, IOException
+    {
+        WebbleScratchSpace scratchSpace = new WebbleScratchSpace(files.createTempDirectory(), 10_000_000);
+        WebbleScratchSpace.setDefault(scratchSpace);
+
+        Path generated;
+        try (WebbleTemplate template = WebbleEngine.prepare(docx());
+                WebbleDocument document = WebbleEngine.render(template, new WebbleContext()))
+        {
+            generated = document.getPath();
+            assertTrue(Files.size(generated) > 0);
+            assertTrue(scratchSpace.getUsedBytes() > 0);
+        }
+
+        assertFalse(Files.exists(generated));
+        assertEquals(scratchSpace.getUsedBytes(), 0L);
+        try (Stream<Path> files = Files.walk(scratchSpace.getRoot()))
+        {
+            assertTrue(files.allMatch(Files::isDirectory));
+        }
+    }
+
+    /**
+     * Evaluated documents are created in the scratch space, then handed over to the caller, out of the quota.
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    @Test
+    public void evaluatedDocumentsAreCallerOwned() throws URISyntaxException, IOException
+    {
+        WebbleScratchSpace scratchSpace = new WebbleScratchSpace(files.createTempDirectory(), 10_000_000);
+        WebbleScratchSpace.setDefault(scratchSpace);
+
+        Path generated = WebbleEngine.evaluate(docx(), new WebbleContext());
+        try
+        {
+            assertEquals(generated.getParent(), scratchSpace.getRoot());
+            assertEquals(scratchSpace.getUsedBytes(), 0L);
+        }
+        finally
+        {
+            Files.delete(generated);
+        }
+    }
+
+    /**
+     * A render waits for space when the quota is reached, and fails once timed out.
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    @Test
+    public void quotaExceededTimesOut() throws URISyntaxException, IOException
+    {
+        WebbleScratchSpace scratchSpace = new WebbleScratchSpace(files.createTempDirectory(),
+                Files.size(docx()) * 2, 100, 1);
+        WebbleScratchSpace.setDefault(scratchSpace);
+
+        try (WebbleTemplate template = WebbleEngine.prepare(docx()))
+        {
+            WebbleEngine.render(template, new WebbleContext());
+            fail("Quota should have been exceeded.");
+        }
+        catch (IOException e)
+        {
+            assertTrue(e.getMessage().contains("Cannot reserve"), e.getMessage());
+        }
+        assertEquals(scratchSpace.getUsedBytes(), 0L);
+    }
+
+    /**
+     * A lease handed over no longer counts in the quota, even when its size is updated afterwards.
+     * @throws IOException
+     */
+    @Test
+    public void detachedLeaseIsOutOfQuota() throws IOException
+    {
+        WebbleScratchSpace scratchSpace = new WebbleScratchSpace(files.createTempDirectory(), 10_000_000);
+
+        WebbleScratchSpace.Lease lease = scratchSpace.createFile("lease", ".bin", 100);
+        Files.write(lease.getPath(), new byte[1000]);
+        lease.updateSize();
+        assertEquals(scratchSpace.getUsedBytes(), 1000L);
+
+        Path detached = lease.detach();
+        try
+        {
+            lease.updateSize();
+            assertEquals(scratchSpace.getUsedBytes(), 0L);
+        }
+        finally
+        {
+            Files.delete(detached);
+        }
+    }
+
+    private static Path docx() throws URISyntaxException
+    {
+        return Paths.get(WebbleScratchSpaceTest.class.getClassLoader().getResource("example.docx").toURI());
+    }
+}
@@ -0,0 +1,214 @@
+package io.github.flef.webble;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test on the local render server.
+ */
+public class WebbleServerTest
+{
+    private static final String CONTEXT = "{\"name\": \"Webble\", \"title\": \"Served\","
+            + " \"items\": [{\"label\": \"First\", \"amount\": 1}, {\"label\": \"Second\", \"amount\": 2}]}";
+
+    /**
+     * Renders concurrent requests, then checks the metrics.
+     * @throws Exception
+     */
+    @Test
+    public void renderConcurrently() throws Exception
+    {
+        Path docx = new SyntheticTemplate(1, 1, 1).write();
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        try (WebbleTemplate template = WebbleEngine.prepare(docx); WebbleServer server = new WebbleServer(0, 2))
+        {
+            server.register("synthetic", template);
+            server.start();
+
+            List<Future<String>> documents = new ArrayList<>();
+            for (int i = 0; i < 20; i++)
+            {
+                documents.add(clients.submit(() -> document(post(server, "/render/synthetic", CONTEXT))));
+            }
+            for (Future<String> document : documents)
+            {
+                String content = document.get();
+                assertTrue(content.contains("for Webble."), content);
+                assertTrue(content.contains("Second"), content);
+            }
+
+            String metrics = get(server, "/metrics");
+            assertTrue(metrics.contains("webble_rendered_total 20\n"), metrics);
+            assertTrue(metrics.contains("webble_latency_ms_bucket{le=\"+Inf\"} 20\n"), metrics);
+            assertTrue(metrics.contains("webble_queue_depth 0\n"), metrics);
+        }
+        finally
+        {
+            clients.shutdown();
+            Files.delete(docx);
+        }
+    }
+
+    /**
+     * Answers unknown templates, malformed contexts and wrong methods with client errors.
+     * @throws IOException
+     */
+    @Test
+    public void clientErrors() throws IOException
+    {
+        Path docx = new SyntheticTemplate(1, 0, 0).write();
+        try (WebbleTemplate template = WebbleEngine.prepare(docx); WebbleServer server = new WebbleServer(0, 1))
+        {
+            server.register("synthetic", template);
+            server.start();
+
+            assertEquals(connect(server, "/render/unknown", "POST", CONTEXT).getResponseCode(), 404);
+            assertEquals(connect(server, "/render/synthetic", "POST", "[1, 2]").getResponseCode(), 400);
+            assertEquals(connect(server, "/render/synthetic", "GET", null).getResponseCode(), 405);
+        }
+        finally
+        {
+            Files.delete(docx);
+        }
+    }
+
+    /**
+     * Answers 413 to contexts larger than the limit, releasing their place in the queue.
+     * @throws IOException
+     */
+    @Test
+    public void contextTooLarge() throws IOException
+    {
+        Path docx = new SyntheticTemplate(1, 0, 0).write();
+        try (WebbleTemplate template = WebbleEngine.prepare(docx);
+                WebbleServer server = new WebbleServer(0, 1, CONTEXT.length()))
+        {
+            server.register("synthetic", template);
+            server.start();
+
+            String large = "{\"name\": \"" + new String(new char[CONTEXT.length()]).replace('\0', 'w') + "\"}";
+            assertEquals(connect(server, "/render/synthetic", "POST", large).getResponseCode(), 413);
+            assertTrue(document(post(server, "/render/synthetic", CONTEXT)).contains("Webble"));
+            String metrics = get(server, "/metrics");
+            assertTrue(metrics.contains("webble_queue_depth 0\n"), metrics);
+        }
+        finally
+        {
+            Files.delete(docx);
+        }
+    }
+
+    /**
+     * Serves the template registered last under a name.
+     * @throws IOException
+     */
+    @Test
+    public void replaceTemplate() throws IOException
+    {
+        Path first = new SyntheticTemplate(1, 0, 0).write();
+        Path second = new SyntheticTemplate(1, 1, 0).write();
+        try (WebbleTemplate firstTemplate = WebbleEngine.prepare(first);
+                WebbleTemplate secondTemplate = WebbleEngine.prepare(second);
+                WebbleServer server = new WebbleServer(0, 1))
+        {
+            server.register("synthetic", firstTemplate);
+            server.start();
+            assertFalse(document(post(server, "/render/synthetic", CONTEXT)).contains("Second"));
+
+            server.register("synthetic", secondTemplate);
+            assertTrue(document(post(server, "/render/synthetic", CONTEXT)).contains("Second"));
+        }
+        finally
+        {
+            Files.delete(first);
+            Files.delete(second);
+        }
+    }
+
+    private static byte[] post(WebbleServer server, String path, String body) throws IOException
+    {
+        HttpURLConnection connection = connect(server, path, "POST", body);
+        assertEquals(connection.getResponseCode(), 200);
+        try (InputStream is = connection.getInputStream())
+        {
+            return read(is);
+        }
+    }
+
+    private static String get(WebbleServer server, String path) throws IOException
+    {
+        HttpURLConnection connection = connect(server, path, "GET", null);
+        assertEquals(connection.getResponseCode(), 200);
+        try (InputStream is = connection.getInputStream())
+        {
+            return new String(read(is), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static HttpURLConnection connect(WebbleServer server, String path, String method, String body)
+            throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path)
+                .openConnection();
+        connection.setRequestMethod(method);
+        if (body != null)
+        {
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream())
+            {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return connection;
+    }
+
+    /** Returns the main document part of the given docx. */
+    private static String document(byte[] docx) throws IOException
+    {
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(docx)))
+        {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null)
+            {
+                if (entry.getName().equals("word/document.xml"))
+                {
+                    return new String(read(zip), StandardCharsets.UTF_8);
+                }
+            }
+        }
+        throw new IOException("No main document part.");
+    }
+
+    private static byte[] read(InputStream is) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int len;
+        while ((len = is.read(buffer)) > 0)
+        {
+            baos.write(buffer, 0, len);
+        }
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,67 @@
+package io.github.flef.webble;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.testng.annotations.Test;
+
+import io.github.flef.webble.WebbleTemplateReport.PartReport;
+
+/**
+ * Test on the report of prepared templates.
+ */
+public class WebbleTemplateReportTest
+{
+    /**
+     * Counts the simplifications and tags of each part, and the static bytes.
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    @Test
+    public void prepareReportsParts() throws URISyntaxException, IOException
+    {
+        Path docx = Paths.get(WebbleTemplateReportTest.class.getClassLoader().getResource("parts.docx").toURI());
+        try (WebbleTemplate template = WebbleEngine.prepare(docx))
+        {
+            WebbleTemplateReport report = template.getReport();
+            assertEquals(report.getParts().size(), template.getParts().size());
+
+            PartReport header = report.getParts().get(1);
+            assertEquals(header.getName(), "word/header1.xml");
+            assertFalse(header.isDynamic());
+            assertEquals(header.getRemovedRsids(), 1);
+            assertEquals(header.getPreparedBytes(), header.getSourceBytes());
+
+            PartReport footnotes = report.getParts().get(2);
+            assertEquals(footnotes.getExpressions(), 1);
+            assertTrue(footnotes.isDynamic());
+
+            assertEquals(report.getTags(), 3);
+            assertTrue(report.getStaticBytes() >= header.getSourceBytes());
+            assertTrue(report.getStaticToDynamicRatio() > 0);
+
+            Path dir = Files.createTempDirectory("webble");
+            try
+            {
+                template.persist(dir, "parts");
+                try (WebbleTemplate loaded = WebbleTemplate.load(dir.resolve("parts.wbbl")))
+                {
+                    assertNull(loaded.getReport());
+                }
+            }
+            finally
+            {
+                Files.delete(dir.resolve("parts.wbbl"));
+                Files.delete(dir);
+            }
+        }
+    }
+}